@@ -0,0 +1,52 @@
+package parser.events.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Parsing one block of Judo, including every block nested in it.
+ */
+@Name("judo.BlockParse")
+@Label("Judo Block Parse")
+@Category({ "Judo", "Translator" })
+@Description("Parsing one block of Judo, including the blocks nested in it")
+public class BlockParseEvent extends JudoEvent {
+
+    @Label("First Line")
+    @Description("The line number of the block's first line")
+    int firstLine;
+
+    @Label("Depth")
+    @Description("How deeply the block is nested, 0 being the top level")
+    int depth;
+
+    @Label("Lines")
+    @Description("How many lines the block has, including nested blocks")
+    int lines;
+
+    /**
+     * @return A started event, or null if it isn't being recorded.
+     */
+    public static BlockParseEvent start(String file, int firstLine, int depth) {
+        BlockParseEvent event = new BlockParseEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.file = file;
+        event.firstLine = firstLine;
+        event.depth = depth;
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends the event and records it.
+     * @param lines How many lines the block turned out to have.
+     */
+    public void finish(int lines) {
+        this.lines = lines;
+        commit();
+    }
+}
@@ -0,0 +1,49 @@
+package parser.events.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Translating, or only checking, one whole Judo file.
+ */
+@Name("judo.FileTranslation")
+@Label("Judo File Translation")
+@Category({ "Judo", "Translator" })
+@Description("Translating or checking one Judo file")
+public class FileTranslationEvent extends JudoEvent {
+
+    @Label("Class Name")
+    @Description("The Java class the file is translated into, empty when only checking")
+    String className;
+
+    @Label("Mode")
+    @Description("full, module or validate")
+    String mode;
+
+    @Label("Lines")
+    @Description("How many lines the file has, including blank ones")
+    int lines;
+
+    /**
+     * @return A started event, or null if it isn't being recorded.
+     */
+    public static FileTranslationEvent start(
+        String file,
+        String className,
+        String mode,
+        int lines
+    ) {
+        FileTranslationEvent event = new FileTranslationEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.file = file;
+        event.className = className;
+        event.mode = mode;
+        event.lines = lines;
+        event.begin();
+        return event;
+    }
+}
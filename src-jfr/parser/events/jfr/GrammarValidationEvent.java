@@ -0,0 +1,59 @@
+package parser.events.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Running one expression through one grammar. Answers the expression cache
+ * already had don't get one. These happen during a statement, on the same
+ * thread, so the statement event around one says which line it's for.
+ */
+@Name("judo.GrammarValidation")
+@Label("Judo Grammar Validation")
+@Category({ "Judo", "Translator" })
+@Description("Running one expression through one grammar")
+public class GrammarValidationEvent extends JudoEvent {
+
+    @Label("Grammar")
+    @Description("The grammar, like MathGrammar")
+    String grammar;
+
+    @Label("Expression Length")
+    @Description("How many characters the expression has")
+    int expressionLength;
+
+    @Label("Accepted")
+    @Description("Whether the grammar accepted the expression")
+    boolean accepted;
+
+    /**
+     * @return A started event, or null if it isn't being recorded.
+     */
+    public static GrammarValidationEvent start(
+        String file,
+        Object grammar,
+        CharSequence expression
+    ) {
+        GrammarValidationEvent event = new GrammarValidationEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.file = file;
+        event.grammar = grammar.getClass().getSimpleName();
+        event.expressionLength = expression.length();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends the event and records it.
+     * @param accepted Whether the grammar accepted the expression. Throwing
+     *                 counts as not.
+     */
+    public void finish(boolean accepted) {
+        this.accepted = accepted;
+        commit();
+    }
+}
@@ -0,0 +1,58 @@
+package parser.events.jfr;
+
+import parser.events.TranslationEvents;
+
+/**
+ * Reports the translator's work as JFR events. Only ever created by name,
+ * from Events, once it's known the JVM has JFR.
+ */
+public class JfrEvents implements TranslationEvents {
+
+    @Override
+    public Object fileStarted(String file, String className, String mode, int lines) {
+        return FileTranslationEvent.start(file, className, mode, lines);
+    }
+
+    @Override
+    public void fileDone(Object event) {
+        if (event != null) {
+            ((FileTranslationEvent) event).commit();
+        }
+    }
+
+    @Override
+    public Object blockStarted(String file, int firstLine, int depth) {
+        return BlockParseEvent.start(file, firstLine, depth);
+    }
+
+    @Override
+    public void blockDone(Object event, int lines) {
+        if (event != null) {
+            ((BlockParseEvent) event).finish(lines);
+        }
+    }
+
+    @Override
+    public Object statementStarted(String file, int line, String kind) {
+        return StatementEvent.start(file, line, kind);
+    }
+
+    @Override
+    public void statementDone(Object event) {
+        if (event != null) {
+            ((StatementEvent) event).commit();
+        }
+    }
+
+    @Override
+    public Object grammarStarted(String file, Object grammar, CharSequence expression) {
+        return GrammarValidationEvent.start(file, grammar, expression);
+    }
+
+    @Override
+    public void grammarDone(Object event, boolean accepted) {
+        if (event != null) {
+            ((GrammarValidationEvent) event).finish(accepted);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package parser.events.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+
+/**
+ * What every translator event has: the Judo file it's about.
+ */
+abstract class JudoEvent extends jdk.jfr.Event {
+
+    @Label("File")
+    @Description("The Judo file, empty for files that didn't come from disk")
+    String file;
+}
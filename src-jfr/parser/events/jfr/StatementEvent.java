@@ -0,0 +1,39 @@
+package parser.events.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Handling one statement, not counting the body of a loop or conditional.
+ */
+@Name("judo.Statement")
+@Label("Judo Statement")
+@Category({ "Judo", "Translator" })
+@Description("Handling one Judo statement, without its body")
+public class StatementEvent extends JudoEvent {
+
+    @Label("Line")
+    @Description("The statement's line number")
+    int line;
+
+    @Label("Kind")
+    @Description("What kind of statement it is, like let, for range or out")
+    String kind;
+
+    /**
+     * @return A started event, or null if it isn't being recorded.
+     */
+    public static StatementEvent start(String file, int line, String kind) {
+        StatementEvent event = new StatementEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.file = file;
+        event.line = line;
+        event.kind = kind;
+        event.begin();
+        return event;
+    }
+}
@@ -1,41 +1,427 @@
 import static java.text.MessageFormat.format;
 
+import ir.BitPacking;
+import ir.JavaEmitter;
+import ir.LoopUnrolling;
+import ir.PassManager;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.nio.file.FileSystem;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 import parser.Parser;
+import parser.TranslationStats;
+import parser.errors.ParseError;
+import translator.BatchTranslator;
+import translator.InMemoryCompiler;
+import translator.ModuleGraph;
+import translator.SourceFile;
+import translator.TranslationCache;
+import translator.TranslationServer;
+import translator.Watcher;
 
 public class Translator {
 
     /**
      * Entrypoint to the parser. The output java file will be put into a file
      * with the same name as the input file, but the .java extension.
-     * @param args Should be one path to a judo file to translate.
+     * @param args Should be one path to a judo file to translate, optionally
+     *             preceded by --parallel to translate its top-level blocks in
+     *             parallel and/or --verbose to print expression cache
+     *             statistics to stderr. Alternatively, any number of files,
+     *             directories, globs or @file lists to translate them all at
+     *             once, optionally preceded by --jobs N to set how many are
+     *             translated at the same time. --out DIR puts the Java files
+     *             in DIR instead of the working directory, and --check only
+     *             validates the files without generating any Java.
+     *             --run compiles and runs the one given file in this JVM
+     *             instead of writing it out, passing it every argument
+     *             after the file. --cache DIR keeps generated Java and
+     *             compiled classes in DIR to reuse for unchanged files, and
+     *             --cache-size MB bounds how much space it takes. --watch
+     *             translates the files again whenever they change, and runs
+     *             them again too with --run. --stats FILE writes a JSON
+     *             report of where the time translating one file went to
+     *             FILE, naming the --stats-top N slowest statements.
+     *             --enable-pass NAME and --disable-pass NAME turn a pass over
+     *             the IR on or off, and --no-optimize turns them all off.
+     *             --remarks prints what the passes changed, and where.
+     *             --unroll-limit N sets how many statements the unroll
+     *             pass can make out of one loop. --pack-bools packs every
+     *             boolean ray it can into bits, however small. --line-flush
+     *             makes the generated programs print everything right
+     *             away, instead of buffering it until they finish.
+     *             --server [PORT] or --server - instead keeps the translator
+     *             running to serve the same arguments from judotc.
      */
     public static void main(String[] args) {
-        if (args.length < 1) {
-            System.err.println("Expected the filename of a Judo file.");
-            System.exit(1);
-        }
-        Parser parser = new Parser(args[0]);
-        FileSystem defaultFs = FileSystems.getDefault();
-        Path judoFile = defaultFs.getPath(args[0]);
-        String judoFileName = judoFile.getFileName().toString();
-        int index = judoFileName.lastIndexOf('.');
-        String javaFileName = index > 0 ? judoFileName.substring(0, index) : judoFileName;
-        javaFileName = javaFileName.replaceAll("-", "_");
-        String java = parser.parseFull(javaFileName);
-        javaFileName += ".java";
-        Path javaFilePath = defaultFs.getPath(javaFileName).toAbsolutePath();
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(javaFileName))) {
+        if (args.length > 0 && args[0].equals("--server")) {
+            TranslationServer server = new TranslationServer(Translator::run);
+            try {
+                if (args.length > 1 && args[1].equals("-")) {
+                    server.serve(System.in, System.out);
+                } else {
+                    int port = TranslationServer.DEFAULT_PORT;
+                    if (args.length > 1) {
+                        port = Integer.parseInt(args[1]);
+                    }
+                    server.listen(port);
+                }
+            } catch (IOException | NumberFormatException e) {
+                System.err.println("Unable to start the translation server: " + e.getMessage());
+                System.exit(1);
+            }
+            System.exit(0);
+        }
+        Path cwd = FileSystems.getDefault().getPath("").toAbsolutePath();
+        System.exit(run(args, cwd, System.in, System.out, System.err));
+    }
+
+    /**
+     * Does everything main does, short of exiting, so that the translation
+     * server can do it too.
+     * @param args The same arguments main takes, other than --server.
+     * @param cwd The directory relative paths are resolved against.
+     * @param in What a program run with --run reads as stdin.
+     * @param out Where to print what main would print to stdout.
+     * @param err Where to print what main would print to stderr.
+     * @return The exit code main would exit with.
+     */
+    public static int run(
+        String[] args,
+        Path cwd,
+        InputStream in,
+        PrintStream out,
+        PrintStream err
+    ) {
+        ForkJoinPool pool = null;
+        boolean verbose = false;
+        boolean remarks = false;
+        boolean checkOnly = false;
+        boolean runAfter = false;
+        boolean watch = false;
+        int jobs = Runtime.getRuntime().availableProcessors();
+        Path outDir = cwd;
+        Path cacheDir = null;
+        long cacheBytes = TranslationCache.DEFAULT_MAX_BYTES;
+        Path statsFile = null;
+        int slowest = TranslationStats.DEFAULT_SLOWEST;
+        PassManager passes = PassManager.standard();
+        int flags = 0;
+        for (; flags < args.length && args[flags].startsWith("--"); flags++) {
+            if (args[flags].equals("--parallel")) {
+                pool = ForkJoinPool.commonPool();
+            } else if (args[flags].equals("--verbose")) {
+                verbose = true;
+            } else if (args[flags].equals("--remarks")) {
+                remarks = true;
+            } else if (args[flags].equals("--check")) {
+                checkOnly = true;
+            } else if (args[flags].equals("--run")) {
+                runAfter = true;
+            } else if (args[flags].equals("--watch")) {
+                watch = true;
+            } else if (args[flags].equals("--jobs") && flags + 1 < args.length) {
+                try {
+                    jobs = Integer.parseInt(args[++flags]);
+                } catch (NumberFormatException e) {
+                    jobs = 0;
+                }
+                if (jobs < 1) {
+                    err.println("--jobs expects a positive number, not " + args[flags]);
+                    return 1;
+                }
+            } else if (args[flags].equals("--out") && flags + 1 < args.length) {
+                outDir = cwd.resolve(args[++flags]);
+            } else if (args[flags].equals("--cache") && flags + 1 < args.length) {
+                cacheDir = cwd.resolve(args[++flags]);
+            } else if (args[flags].equals("--stats") && flags + 1 < args.length) {
+                statsFile = cwd.resolve(args[++flags]);
+            } else if (args[flags].equals("--stats-top") && flags + 1 < args.length) {
+                try {
+                    slowest = Integer.parseInt(args[++flags]);
+                } catch (NumberFormatException e) {
+                    slowest = -1;
+                }
+                if (slowest < 0) {
+                    err.println("--stats-top expects a number, not " + args[flags]);
+                    return 1;
+                }
+            } else if (args[flags].equals("--no-optimize")) {
+                passes.setAllEnabled(false);
+            } else if (
+                (args[flags].equals("--enable-pass") || args[flags].equals("--disable-pass")) &&
+                flags + 1 < args.length
+            ) {
+                boolean on = args[flags].equals("--enable-pass");
+                try {
+                    passes.setEnabled(args[++flags], on);
+                } catch (IllegalArgumentException e) {
+                    err.println(e.getMessage());
+                    return 1;
+                }
+            } else if (args[flags].equals("--pack-bools")) {
+                passes.replace(new BitPacking(0));
+            } else if (args[flags].equals("--line-flush")) {
+                passes.replace(new JavaEmitter(true));
+            } else if (args[flags].equals("--unroll-limit") && flags + 1 < args.length) {
+                int limit;
+                try {
+                    limit = Integer.parseInt(args[++flags]);
+                } catch (NumberFormatException e) {
+                    limit = 0;
+                }
+                if (limit < 1) {
+                    err.println("--unroll-limit expects a positive number, not " + args[flags]);
+                    return 1;
+                }
+                passes.replace(new LoopUnrolling(limit));
+            } else if (args[flags].equals("--cache-size") && flags + 1 < args.length) {
+                try {
+                    cacheBytes = Long.parseLong(args[++flags]) * 1024 * 1024;
+                } catch (NumberFormatException e) {
+                    cacheBytes = 0;
+                }
+                if (cacheBytes < 1) {
+                    err.println("--cache-size expects a positive number, not " + args[flags]);
+                    return 1;
+                }
+            } else {
+                err.println("Unknown option " + args[flags]);
+                return 1;
+            }
+        }
+        String[] argos = new String[0];
+        if (runAfter && flags + 1 < args.length) {
+            //everything after the Judo file belongs to the program
+            argos = Arrays.copyOfRange(args, flags + 1, args.length);
+            args = Arrays.copyOf(args, flags + 1);
+        }
+        List<String> inputs = Arrays.asList(Arrays.copyOfRange(args, flags, args.length));
+        if (inputs.isEmpty()) {
+            err.println(
+                checkOnly
+                    ? "Expected at least one Judo file to check."
+                    : "Expected the filename of a Judo file."
+            );
+            return 1;
+        }
+        TranslationCache cache = null;
+        if (cacheDir != null) {
+            try {
+                cache = TranslationCache.open(cacheDir, cacheBytes);
+            } catch (IOException e) {
+                err.println("Unable to create cache directory " + cacheDir);
+                return 1;
+            }
+        }
+        if (runAfter && (checkOnly || SourceFile.isMultiple(inputs.get(0), cwd))) {
+            err.println("--run expects exactly one Judo file.");
+            return 1;
+        }
+        if (watch) {
+            List<String> perFile = new ArrayList<>(Arrays.asList(args).subList(0, flags));
+            perFile.remove("--watch");
+            List<String> programArgs = Arrays.asList(argos);
+            Watcher watcher = new Watcher(inputs, cwd, Watcher.DEFAULT_DEBOUNCE_MILLIS);
+            try {
+                watcher.watch(
+                    file -> {
+                        List<String> fileArgs = new ArrayList<>(perFile);
+                        fileArgs.add(file.path.toString());
+                        fileArgs.addAll(programArgs);
+                        return run(fileArgs.toArray(new String[0]), cwd, in, out, err);
+                    },
+                    err
+                );
+            } catch (IOException e) {
+                err.println("Unable to watch for changes: " + e.getMessage());
+                return 1;
+            }
+            return 0;
+        }
+        if (
+            checkOnly || inputs.size() > 1 || SourceFile.isMultiple(inputs.get(0), cwd)
+        ) {
+            if (statsFile != null) {
+                err.println("--stats expects exactly one Judo file to translate.");
+                return 1;
+            }
+            if (!checkOnly && !createDirectory(outDir, err)) {
+                return 1;
+            }
+            List<SourceFile> files = SourceFile.expand(inputs, cwd);
+            BatchTranslator batch = new BatchTranslator(outDir, jobs, checkOnly, cache);
+            batch.setPasses(passes);
+            return batch.run(files, out) ? 0 : 1;
+        }
+        Path judoFile = cwd.resolve(inputs.get(0));
+        String javaFileName = SourceFile.classNameFor(judoFile);
+        String key = null;
+        String java = null;
+        TranslationStats stats = statsFile == null ? null : new TranslationStats(slowest);
+        //modules are compiled along with the file when running it
+        ModuleGraph modules = new ModuleGraph(runAfter ? null : outDir, false);
+        modules.setPasses(passes);
+        if (!runAfter && !createDirectory(outDir, err)) {
+            return 1;
+        }
+        try {
+            if (cache != null) {
+                byte[] source = Files.readAllBytes(judoFile);
+                key =
+                    cache.key(
+                        ModuleGraph.withDependencies(judoFile, source),
+                        javaFileName,
+                        passes.signature()
+                    );
+                java = cache.getJava(key);
+            }
+            if (!runAfter) {
+                modules.buildImports(judoFile);
+            }
+            Parser parser = null;
+            if (java == null) {
+                long ingesting = System.nanoTime();
+                parser = new Parser(judoFile);
+                if (stats != null) {
+                    stats.add(TranslationStats.Phase.INGEST, ingesting);
+                    parser.setStats(stats);
+                }
+                parser.setModuleResolver(modules.resolverFor(judoFile));
+                parser.setPasses(passes.copy());
+                java = parser.parseFull(javaFileName, pool);
+                if (verbose) {
+                    err.println(parser.getExpressionCache());
+                    err.println(parser.getPasses());
+                }
+                if (remarks) {
+                    for (String remark : parser.getPasses().remarks()) {
+                        err.println(inputs.get(0) + ":" + remark);
+                    }
+                }
+                if (cache != null) {
+                    cache.putJava(key, java);
+                }
+            }
+            if (stats != null) {
+                stats.describe(inputs.get(0), parser);
+            }
+        } catch (IOException e) {
+            err.printf("File `%s` not found!\n", inputs.get(0));
+            return 1;
+        } catch (ParseError e) {
+            err.println(e.toString().trim());
+            return 1;
+        }
+        if (runAfter) {
+            if (stats != null && !writeStats(stats, statsFile, err)) {
+                return 1;
+            }
+            Map<String, byte[]> classes = cache == null ? null : cache.getClasses(key);
+            if (classes == null) {
+                Map<String, String> sources = new LinkedHashMap<>();
+                sources.put(javaFileName, java);
+                try {
+                    modules.buildImports(judoFile);
+                } catch (IOException e) {
+                    err.printf("File `%s` not found!\n", inputs.get(0));
+                    return 1;
+                }
+                sources.putAll(modules.javaSources());
+                classes = InMemoryCompiler.compile(sources, err);
+                if (classes == null) {
+                    return 1;
+                }
+                if (cache != null) {
+                    cache.putClasses(key, classes);
+                }
+            }
+            if (verbose) {
+                printStatistics(cache, modules, err);
+            }
+            return InMemoryCompiler.run(javaFileName, classes, argos, in, out, err);
+        }
+        if (verbose) {
+            printStatistics(cache, modules, err);
+        }
+        Path javaFilePath = outDir.resolve(javaFileName + ".java");
+        long writing = System.nanoTime();
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(javaFilePath.toFile()))) {
             writer.write(java);
         } catch (IOException e) {
-            System.err.println("Unable to output java file to " + javaFilePath);
-            System.exit(1);
+            err.println("Unable to output java file to " + javaFilePath);
+            return 1;
+        }
+        if (stats != null) {
+            stats.add(TranslationStats.Phase.WRITE, writing);
+            if (!writeStats(stats, statsFile, err)) {
+                return 1;
+            }
+        }
+        try {
+            modules.save();
+        } catch (IOException e) {
+            err.println("Unable to save module state to " + outDir);
+        }
+        out.println(format("Java file successfully outputted to:\n{0}", javaFilePath));
+        return 0;
+    }
+
+    private static void printStatistics(
+        TranslationCache cache,
+        ModuleGraph modules,
+        PrintStream err
+    ) {
+        if (cache != null) {
+            err.println(cache);
+        }
+        if (modules.translated() + modules.upToDate() > 0) {
+            err.println(modules);
+        }
+    }
+
+    /**
+     * Stops the clock on a translation and writes its report.
+     * @param stats The translation's statistics.
+     * @param file Where to write them.
+     * @param err Where to say so if they can't be written.
+     * @return Whether they were written.
+     */
+    private static boolean writeStats(TranslationStats stats, Path file, PrintStream err) {
+        stats.finish();
+        try {
+            Files.write(file, stats.toJson().getBytes(StandardCharsets.UTF_8));
+            return true;
+        } catch (IOException e) {
+            err.println("Unable to write statistics to " + file);
+            return false;
+        }
+    }
+
+    /**
+     * Makes sure the directory Java files are written to exists.
+     * @param dir The directory.
+     * @param err Where to say so if it can't be created.
+     * @return Whether it exists now.
+     */
+    private static boolean createDirectory(Path dir, PrintStream err) {
+        try {
+            Files.createDirectories(dir);
+            return true;
+        } catch (IOException e) {
+            err.println("Unable to create output directory " + dir);
+            return false;
         }
-        System.out.println(format("Java file successfully outputted to:\n{0}", javaFilePath));
     }
 }
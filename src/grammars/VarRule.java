@@ -63,7 +63,11 @@ public class VarRule extends Rule {
      * Only use false when testing.
      */
     public static boolean checkAgainstKeywords = true;
-    private static ScopeStack scopes;
+    /**
+     * Each thread gets its own ScopeStack so that independent blocks, or even
+     * independent files, can be validated in parallel.
+     */
+    private static final ThreadLocal<ScopeStack> scopes = new ThreadLocal<>();
 
     private Type expectedType;
 
@@ -92,10 +96,19 @@ public class VarRule extends Rule {
      * ScopeStack. Until this is called with a non-null ScopeStack, no such
      * checking can or will be done. This means that the VarRule pulls double
      * duty of checking for syntactic validity and for semantic validity.
+     * Only affects validation done on the calling thread.
      * @param scopes The ScopeStack to use.
      */
     public static void useScopes(ScopeStack scopes) {
-        VarRule.scopes = scopes;
+        VarRule.scopes.set(scopes);
+    }
+
+    /**
+     * Undoes useScopes on the calling thread, so a thread that's kept around
+     * after the translation, like a pool thread, doesn't keep its scopes.
+     */
+    public static void clearScopes() {
+        VarRule.scopes.remove();
     }
 
     /**
@@ -138,7 +151,8 @@ public class VarRule extends Rule {
             //VarRule will work if it doesn't have a ScopeStack, it'll just be
             //unable to check if variables exist and if they are of the right
             //type.
-            if (VarRule.scopes != null) {
+            ScopeStack scopes = VarRule.scopes.get();
+            if (scopes != null) {
                 //exists
                 Variable var = BUILTINS_AS_VARIABLES.get(varName);
                 //"T", "F", and "argos" will make their way into this function.
@@ -0,0 +1,150 @@
+package ir;
+
+import static java.text.MessageFormat.format;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import parser.Type;
+
+/**
+ * Stores boolean rays that can be big as bits packed into longs, instead of
+ * a byte for every boolean, so `b{100000000}` takes 12 MB rather than 100.
+ * Reading, assigning, looping over and printing an element work the same,
+ * out of bounds indexes included.
+ *
+ * A ray is only packed if its variable is only ever indexed or looped
+ * over, and only ever holds rays it made itself, with b{n} or a literal, so
+ * no other variable or module can see it as a boolean[]. Its name has to be
+ * declared once in the whole program, so that it always means the same
+ * variable. It's packed if one of the rays it holds can have at least the
+ * threshold's worth of elements, as far as Ranges can tell, since indexing
+ * packed bits is a little slower than indexing a boolean[].
+ */
+public class BitPacking implements Pass {
+
+    public static final String NAME = "pack";
+    public static final int DEFAULT_THRESHOLD = 1 << 16;
+
+    private final int threshold;
+
+    public BitPacking() {
+        this(DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param threshold How many elements a ray has to be able to have to be
+     *                  packed, or 0 to pack every one that can be.
+     */
+    public BitPacking(int threshold) {
+        this.threshold = threshold;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public String signature() {
+        return NAME + "(" + threshold + ")";
+    }
+
+    @Override
+    public void run(Program program) {
+        Map<String, Integer> declarations = new HashMap<>();
+        Set<String> unpackable = new HashSet<>();
+        Set<String> big = new HashSet<>();
+        Ranges ranges = Ranges.of(program);
+        program.main.forEachStatement(s -> {
+            if (s instanceof Stmt.Declare) {
+                declarations.merge(s.target(), 1, Integer::sum);
+            } else if (s instanceof Stmt.ForEach) {
+                declarations.merge(((Stmt.ForEach) s).variable, 1, Integer::sum);
+            } else if (s instanceof Stmt.Import) {
+                for (String name : ((Stmt.Import) s).exports.keySet()) {
+                    declarations.merge(name, 1, Integer::sum);
+                }
+            }
+            boolean stores = s instanceof Stmt.Declare || s instanceof Stmt.Assign;
+            if (stores && s.expressions().get(0).type.listOf == Type.BOOL) {
+                Expr value = s.expressions().get(0);
+                if (!isRay(value)) {
+                    unpackable.add(s.target());
+                } else if (size(value, ranges) >= threshold) {
+                    big.add(s.target());
+                }
+            }
+            reads(s, unpackable);
+        });
+        for (Map.Entry<String, Integer> declaration : declarations.entrySet()) {
+            String name = declaration.getKey();
+            if (declaration.getValue() == 1 && big.contains(name) && !unpackable.contains(name)) {
+                program.pack(name);
+            }
+        }
+        program.main.forEachStatement(s -> {
+            if (s instanceof Stmt.Declare && program.isPacked(s.target())) {
+                program.remark(s.line, format("{0}: `{1}` is packed into bits", NAME, s.target()));
+            }
+            s.rewriteExpressions(e -> {
+                if (e instanceof Expr.Index && isPacked(((Expr.Index) e).ray, program)) {
+                    return new Expr.PackedIndex(((Expr.Index) e).ray, ((Expr.Index) e).index);
+                }
+                return e;
+            });
+        });
+    }
+
+    static boolean isRay(Expr value) {
+        return value instanceof Expr.NewRay || value instanceof Expr.RayLiteral;
+    }
+
+    /**
+     * @return The most elements the ray could have.
+     */
+    private static long size(Expr ray, Ranges ranges) {
+        if (ray instanceof Expr.RayLiteral) {
+            return ((Expr.RayLiteral) ray).elements.size();
+        }
+        return ranges.of(((Expr.NewRay) ray).size).max;
+    }
+
+    private static boolean isPacked(Expr ray, Program program) {
+        return ray instanceof Expr.VarRef && program.isPacked(((Expr.VarRef) ray).name);
+    }
+
+    /**
+     * Adds every variable the statement reads other than by indexing it or
+     * looping over it to the set, which are the only reads that work the
+     * same whatever a ray is stored as.
+     */
+    static void reads(Stmt s, Set<String> whole) {
+        if (s instanceof Stmt.ForEach) {
+            Expr ray = ((Stmt.ForEach) s).ray;
+            if (!(ray instanceof Expr.VarRef)) {
+                reads(ray, whole);
+            }
+        } else if (s instanceof Stmt.IndexAssign) {
+            reads(((Stmt.IndexAssign) s).index, whole);
+            reads(((Stmt.IndexAssign) s).value, whole);
+        } else {
+            for (Expr e : s.expressions()) {
+                reads(e, whole);
+            }
+        }
+    }
+
+    static void reads(Expr e, Set<String> whole) {
+        if (e instanceof Expr.VarRef || e instanceof Expr.Opaque) {
+            e.collectVariables(whole);
+        } else if (e instanceof Expr.Index && ((Expr.Index) e).ray instanceof Expr.VarRef) {
+            reads(((Expr.Index) e).index, whole);
+        } else {
+            for (Expr child : e.children()) {
+                reads(child, whole);
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package ir;
+
+/**
+ * The Java of the class boolean rays BitPacking packs are stored as, which
+ * goes in every generated class that has one, like PrintSupport.
+ *
+ * The bits are in a long[], 64 to a long, along with how many there are,
+ * which an index is checked against with the same exception a boolean[]
+ * would throw. Looping over one goes through it as an Iterable, so that
+ * `for(boolean x : ray)` reads the same as it does for a boolean[], and
+ * sees the ray it started with even if the variable is assigned another.
+ */
+final class BitsSupport {
+
+    //$ can't be in a Judo identifier, so this can't clash with a module
+    static final String CLASS_NAME = "$Bits";
+
+    private static final String[] SOURCE = {
+        "private static final class " + CLASS_NAME + " implements Iterable<Boolean> {",
+        "",
+        "private final long[] words;",
+        "private final int length;",
+        "",
+        CLASS_NAME + "(int length) {",
+        "if (length < 0) {",
+        "throw new NegativeArraySizeException(String.valueOf(length));",
+        "}",
+        "this.words = new long[(int) ((length + 63L) >>> 6)];",
+        "this.length = length;",
+        "}",
+        "",
+        "static " + CLASS_NAME + " of(boolean[] bits) {",
+        CLASS_NAME + " packed = new " + CLASS_NAME + "(bits.length);",
+        "for (int i = 0; i < bits.length; i++) {",
+        "packed.set(i, bits[i]);",
+        "}",
+        "return packed;",
+        "}",
+        "",
+        "boolean get(int i) {",
+        "check(i);",
+        "return (words[i >>> 6] & (1L << i)) != 0;",
+        "}",
+        "",
+        "void set(int i, boolean bit) {",
+        "check(i);",
+        "if (bit) {",
+        "words[i >>> 6] |= 1L << i;",
+        "} else {",
+        "words[i >>> 6] &= ~(1L << i);",
+        "}",
+        "}",
+        "",
+        "private void check(int i) {",
+        "if (i < 0 || i >= length) {",
+        "throw new ArrayIndexOutOfBoundsException(i);",
+        "}",
+        "}",
+        "",
+        "@Override",
+        "public java.util.Iterator<Boolean> iterator() {",
+        "return new java.util.Iterator<Boolean>() {",
+        "private int next;",
+        "",
+        "@Override",
+        "public boolean hasNext() {",
+        "return next < length;",
+        "}",
+        "",
+        "@Override",
+        "public Boolean next() {",
+        "if (next >= length) {",
+        "throw new java.util.NoSuchElementException();",
+        "}",
+        "return get(next++);",
+        "}",
+        "};",
+        "}",
+        "}",
+    };
+
+    private BitsSupport() {}
+
+    /**
+     * @param indent The unit of indentation to indent it with.
+     * @return The class, indented as a member of the generated class.
+     */
+    static String source(String indent) {
+        return JavaEmitter.member(SOURCE, indent);
+    }
+}
@@ -0,0 +1,60 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * A block of statements, like the body of a loop or main itself, which is
+ * its own scope.
+ */
+public class Block {
+
+    public final List<Stmt> statements = new ArrayList<>();
+
+    public void add(Stmt statement) {
+        statements.add(statement);
+    }
+
+    /**
+     * @return The last statement in the block, or null if it's empty.
+     */
+    public Stmt last() {
+        return statements.isEmpty() ? null : statements.get(statements.size() - 1);
+    }
+
+    /**
+     * @return A copy of this block, with a copy of every statement in it.
+     */
+    public Block copy() {
+        Block copy = new Block();
+        for (Stmt statement : statements) {
+            copy.add(statement.copy());
+        }
+        return copy;
+    }
+
+    /**
+     * Hands every statement in this block to the given action, along with
+     * every statement in their blocks, outer statements first.
+     * @param action What to do with each statement.
+     */
+    public void forEachStatement(Consumer<Stmt> action) {
+        for (Stmt statement : statements) {
+            action.accept(statement);
+            for (Block block : statement.blocks()) {
+                block.forEachStatement(action);
+            }
+        }
+    }
+
+    /**
+     * Rewrites every expression in this block, nested blocks included, with
+     * Expr.rewrite.
+     * @param f The rewrite.
+     */
+    public void rewriteExpressions(UnaryOperator<Expr> f) {
+        forEachStatement(statement -> statement.rewriteExpressions(f));
+    }
+}
@@ -0,0 +1,178 @@
+package ir;
+
+import java.util.function.UnaryOperator;
+import parser.Type;
+
+/**
+ * Evaluates int and boolean expressions whose operands are literals at
+ * translation time, with Java's int semantics, so overflow wraps, division
+ * truncates towards zero, and mod takes the sign of its left operand.
+ * Division and mod by zero are left for the program to throw at runtime.
+ *
+ * Also drops the side of an && or || that a literal on the other side makes
+ * pointless, as long as nothing is lost by not evaluating it.
+ */
+public class ConstantFolding implements Pass {
+
+    public static final String NAME = "fold";
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public void run(Program program) {
+        program.main.forEachStatement(s -> rewrite(s, ConstantFolding::fold));
+    }
+
+    /**
+     * Rewrites the expressions of a statement, except that the condition of
+     * a loop is only changed into a literal if Java already sees it as a
+     * constant. Otherwise javac would start calling the body, or everything
+     * after the loop, unreachable.
+     * @param s The statement.
+     * @param f The rewrite.
+     */
+    static void rewrite(Stmt s, UnaryOperator<Expr> f) {
+        if (!(s instanceof Stmt.While)) {
+            s.rewriteExpressions(f);
+            return;
+        }
+        Stmt.While loop = (Stmt.While) s;
+        Expr condition = loop.condition.rewrite(f);
+        if (!condition.isConstant() || isJavaConstant(loop.condition)) {
+            loop.condition = condition;
+        }
+    }
+
+    /**
+     * @return Whether javac would treat e as a constant expression: nothing
+     * but literals and operators.
+     */
+    private static boolean isJavaConstant(Expr e) {
+        if (!(e.isConstant() || e instanceof Expr.Unary || e instanceof Expr.Binary)) {
+            return false;
+        }
+        for (Expr child : e.children()) {
+            if (!isJavaConstant(child)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Folds one expression whose children are already folded, which is what
+     * Expr.rewrite needs.
+     * @param e The expression.
+     * @return Its value as a literal if it has a constant one, a simpler
+     * expression, or e itself.
+     */
+    public static Expr fold(Expr e) {
+        if (e instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary) e;
+            if (unary.operand.isConstant()) {
+                Expr.Literal operand = (Expr.Literal) unary.operand;
+                return unary.op.equals("-")
+                    ? Expr.Literal.of(-operand.intValue())
+                    : Expr.Literal.of(!operand.boolValue());
+            }
+        } else if (e instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) e;
+            if (binary.left.isConstant() && binary.right.isConstant()) {
+                Expr folded = foldLiterals(
+                    binary.op,
+                    (Expr.Literal) binary.left,
+                    (Expr.Literal) binary.right
+                );
+                return folded == null ? e : folded;
+            } else if (binary.op.equals("&&") || binary.op.equals("||")) {
+                return foldShortCircuit(binary);
+            }
+        }
+        return e;
+    }
+
+    private static Expr foldLiterals(String op, Expr.Literal left, Expr.Literal right) {
+        if (left.type == Type.BOOL) {
+            boolean l = left.boolValue();
+            boolean r = right.boolValue();
+            switch (op) {
+                case "&&":
+                    return Expr.Literal.of(l && r);
+                case "||":
+                    return Expr.Literal.of(l || r);
+                case "==":
+                    return Expr.Literal.of(l == r);
+                case "!=":
+                    return Expr.Literal.of(l != r);
+                default:
+                    return null;
+            }
+        } else if (left.type != Type.INT) {
+            return null;
+        }
+        int l = left.intValue();
+        int r = right.intValue();
+        switch (op) {
+            case "+":
+                return Expr.Literal.of(l + r);
+            case "-":
+                return Expr.Literal.of(l - r);
+            case "*":
+                return Expr.Literal.of(l * r);
+            case "/":
+                return r == 0 ? null : Expr.Literal.of(l / r);
+            case "%":
+                return r == 0 ? null : Expr.Literal.of(l % r);
+            case "<<":
+                return Expr.Literal.of(l << r);
+            case ">>":
+                return Expr.Literal.of(l >> r);
+            case ">>>":
+                return Expr.Literal.of(l >>> r);
+            case "&":
+                return Expr.Literal.of(l & r);
+            case "|":
+                return Expr.Literal.of(l | r);
+            case "^":
+                return Expr.Literal.of(l ^ r);
+            case "<":
+                return Expr.Literal.of(l < r);
+            case "<=":
+                return Expr.Literal.of(l <= r);
+            case ">":
+                return Expr.Literal.of(l > r);
+            case ">=":
+                return Expr.Literal.of(l >= r);
+            case "==":
+                return Expr.Literal.of(l == r);
+            case "!=":
+                return Expr.Literal.of(l != r);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * T and x is x, F and x is F, since x is never evaluated. x and T is x,
+     * and x and F is F, but only if evaluating x does nothing else. The same
+     * goes for or, the other way around.
+     */
+    private static Expr foldShortCircuit(Expr.Binary binary) {
+        boolean and = binary.op.equals("&&");
+        if (binary.left.isConstant()) {
+            boolean l = ((Expr.Literal) binary.left).boolValue();
+            return l == and ? binary.right : binary.left;
+        } else if (binary.right.isConstant()) {
+            boolean r = ((Expr.Literal) binary.right).boolValue();
+            if (r == and) {
+                return binary.left;
+            } else if (!binary.left.hasSideEffects()) {
+                return binary.right;
+            }
+        }
+        return binary;
+    }
+}
@@ -0,0 +1,76 @@
+package ir;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import parser.Type;
+
+/**
+ * Replaces reads of int and boolean variables that are declared with a
+ * constant value and never assigned again with that value, then folds what
+ * it replaced them in, which can make more declarations constant.
+ *
+ * A variable only counts if its name is declared once in the whole program,
+ * since sibling blocks can each declare their own variable by the same name,
+ * and a read always comes after its declaration, so a single walk in the
+ * order the program is written sees every constant before its reads.
+ */
+public class ConstantPropagation implements Pass {
+
+    public static final String NAME = "propagate";
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public void run(Program program) {
+        Map<String, Integer> declarations = new HashMap<>();
+        Set<String> assigned = new HashSet<>();
+        program.main.forEachStatement(s -> {
+            for (String name : declaredBy(s)) {
+                declarations.merge(name, 1, Integer::sum);
+            }
+            if (s instanceof Stmt.Assign) {
+                assigned.add(s.target());
+            }
+        });
+        Map<String, Expr.Literal> constants = new HashMap<>();
+        program.main.forEachStatement(s -> {
+            ConstantFolding.rewrite(s, e -> {
+                if (e instanceof Expr.VarRef && constants.containsKey(((Expr.VarRef) e).name)) {
+                    return constants.get(((Expr.VarRef) e).name);
+                }
+                return ConstantFolding.fold(e);
+            });
+            if (!(s instanceof Stmt.Declare)) {
+                return;
+            }
+            Stmt.Declare declare = (Stmt.Declare) s;
+            if (
+                declare.value.isConstant() &&
+                (declare.type == Type.INT || declare.type == Type.BOOL) &&
+                declarations.get(declare.name) == 1 &&
+                !assigned.contains(declare.name)
+            ) {
+                constants.put(declare.name, (Expr.Literal) declare.value);
+            }
+        });
+    }
+
+    private static Iterable<String> declaredBy(Stmt s) {
+        if (s instanceof Stmt.Declare) {
+            return Collections.singleton(s.target());
+        } else if (s instanceof Stmt.ForRange) {
+            return Collections.singleton(((Stmt.ForRange) s).variable);
+        } else if (s instanceof Stmt.ForEach) {
+            return Collections.singleton(((Stmt.ForEach) s).variable);
+        } else if (s instanceof Stmt.Import) {
+            return ((Stmt.Import) s).exports.keySet();
+        }
+        return Collections.emptySet();
+    }
+}
@@ -0,0 +1,231 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Removes code that can't make a difference to what a program does.
+ *
+ * Branches whose condition is a false literal are dropped, and a branch
+ * whose condition is a true literal becomes the else, or the whole if when
+ * it's first. An if with nothing left in any of its branches goes too. Since
+ * the Java for an elf following an else doesn't compile anyway, ifs like
+ * that are left alone.
+ *
+ * A variable that nothing reads, apart from its own assignments, loses its
+ * declaration and every assignment, as long as none of them can throw. An
+ * assignment that's always overwritten by a later one in the same block,
+ * with nothing reading the variable in between, goes too. Printing always
+ * counts as reading, and so does exporting from a module.
+ */
+public class DeadCodeElimination implements Pass {
+
+    public static final String NAME = "dead-code";
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public void run(Program program) {
+        //removing a store can make what it read unread, or a branch empty
+        boolean changed;
+        do {
+            changed = branches(program.main);
+            changed |= unreadVariables(program.main, readVariables(program.main));
+            changed |= overwrittenStores(program.main);
+        } while (changed);
+    }
+
+    /**
+     * @return Whether anything was removed.
+     */
+    private boolean branches(Block block) {
+        boolean changed = false;
+        List<Stmt> statements = new ArrayList<>(block.statements.size());
+        for (Stmt s : block.statements) {
+            for (Block inner : s.blocks()) {
+                changed |= branches(inner);
+            }
+            if (s instanceof Stmt.If && ((Stmt.If) s).isWellFormed()) {
+                Stmt.If conditional = (Stmt.If) s;
+                changed |= prune(conditional);
+                if (conditional.arms.isEmpty() || isEmpty(conditional)) {
+                    changed = true;
+                    continue;
+                } else if (conditional.arms.get(0).condition == null) {
+                    inline(conditional.arms.get(0), statements);
+                    changed = true;
+                    continue;
+                }
+            }
+            statements.add(s);
+        }
+        block.statements.clear();
+        block.statements.addAll(statements);
+        return changed;
+    }
+
+    /**
+     * Drops the arms that can't be taken, and turns the first one that's
+     * always taken into an else.
+     * @return Whether anything changed.
+     */
+    private boolean prune(Stmt.If conditional) {
+        boolean changed = false;
+        boolean taken = false;
+        Iterator<Stmt.Arm> arms = conditional.arms.iterator();
+        while (arms.hasNext()) {
+            Stmt.Arm arm = arms.next();
+            if (taken || (arm.condition != null && isLiteral(arm.condition, false))) {
+                arms.remove();
+                changed = true;
+            } else if (arm.condition != null && isLiteral(arm.condition, true)) {
+                arm.condition = null;
+                taken = true;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @return Whether no arm does anything, so that only evaluating the
+     * conditions would, if that could throw.
+     */
+    private boolean isEmpty(Stmt.If conditional) {
+        for (Stmt.Arm arm : conditional.arms) {
+            if (arm.condition != null && arm.condition.hasSideEffects()) {
+                return false;
+            }
+            for (Stmt s : arm.body.statements) {
+                if (!(s instanceof Stmt.Hallpass)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Puts the body of an arm where the if was, in a block of its own if it
+     * declares anything, which could clash with what comes after it.
+     */
+    private void inline(Stmt.Arm arm, List<Stmt> statements) {
+        for (Stmt s : arm.body.statements) {
+            if (s instanceof Stmt.Declare) {
+                statements.add(new Stmt.Scope(arm.line, arm.body));
+                return;
+            }
+        }
+        statements.addAll(arm.body.statements);
+    }
+
+    private static boolean isLiteral(Expr e, boolean value) {
+        return e.isConstant() && ((Expr.Literal) e).boolValue() == value;
+    }
+
+    /**
+     * @return Every variable read anywhere in the block, apart from by its
+     * own assignments, along with every variable assigned something that
+     * can throw, which has to stay.
+     */
+    private Set<String> readVariables(Block block) {
+        Set<String> read = new HashSet<>();
+        block.forEachStatement(s -> {
+            Set<String> names = new HashSet<>();
+            for (Expr e : s.expressions()) {
+                e.collectVariables(names);
+            }
+            if (s instanceof Stmt.Declare || s instanceof Stmt.Assign) {
+                names.remove(s.target());
+                if (s.expressions().get(0).hasSideEffects()) {
+                    names.add(s.target());
+                }
+            }
+            read.addAll(names);
+        });
+        return read;
+    }
+
+    /**
+     * Removes the declaration and assignments of every variable that isn't
+     * read.
+     * @return Whether anything was removed.
+     */
+    private boolean unreadVariables(Block block, Set<String> read) {
+        boolean changed = block.statements.removeIf(
+            s ->
+                (s instanceof Stmt.Declare || s instanceof Stmt.Assign) &&
+                !read.contains(s.target())
+        );
+        for (Stmt s : block.statements) {
+            for (Block inner : s.blocks()) {
+                changed |= unreadVariables(inner, read);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Removes every assignment in a block, and the blocks in it, that's
+     * followed by another to the same variable, in the same block, with
+     * nothing reading the variable in between.
+     * @return Whether anything was removed.
+     */
+    private boolean overwrittenStores(Block block) {
+        boolean changed = false;
+        for (int i = 0; i < block.statements.size(); i++) {
+            Stmt s = block.statements.get(i);
+            for (Block inner : s.blocks()) {
+                changed |= overwrittenStores(inner);
+            }
+            List<Stmt> after = block.statements.subList(i + 1, block.statements.size());
+            if (
+                s instanceof Stmt.Assign &&
+                !s.expressions().get(0).hasSideEffects() &&
+                isOverwritten(s.target(), after)
+            ) {
+                block.statements.remove(i--);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private static boolean isOverwritten(String name, List<Stmt> after) {
+        for (Stmt s : after) {
+            if (reads(s, name)) {
+                return false;
+            } else if (s instanceof Stmt.Assign && name.equals(s.target())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Whether s, or anything in its blocks, reads the variable.
+     */
+    private static boolean reads(Stmt s, String name) {
+        Set<String> names = new HashSet<>();
+        for (Expr e : s.expressions()) {
+            e.collectVariables(names);
+        }
+        if (names.contains(name)) {
+            return true;
+        }
+        for (Block block : s.blocks()) {
+            for (Stmt inner : block.statements) {
+                if (reads(inner, name)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,751 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import parser.Type;
+
+/**
+ * A typed expression in the IR. Expressions are immutable, so passes rewrite
+ * them by building new ones, which rewrite makes easy.
+ *
+ * Every expression the Parser builds remembers the Java text it was parsed
+ * from, and is emitted as exactly that text for as long as no pass changes
+ * it. Only expressions a pass built, and the ones around them, are emitted
+ * from their structure, with as few parentheses as Java's precedence allows.
+ * That keeps the output of a translation with no passes enabled identical to
+ * what the Parser has always generated.
+ */
+public abstract class Expr {
+
+    //Java's precedence levels, loosest first
+    static final int OPAQUE = 0;
+    static final int OR = 1;
+    static final int AND = 2;
+    static final int BIT_OR = 3;
+    static final int BIT_XOR = 4;
+    static final int BIT_AND = 5;
+    static final int EQUALITY = 6;
+    static final int RELATIONAL = 7;
+    static final int SHIFT = 8;
+    static final int ADDITIVE = 9;
+    static final int MULTIPLICATIVE = 10;
+    static final int UNARY = 11;
+    static final int PRIMARY = 12;
+
+    private static final Pattern IDENTIFIER = Pattern.compile(
+        "\"(\\\\.|[^\"\\\\])*\"|(?<name>[A-Za-z_$][\\w$]*)"
+    );
+
+    public final Type type;
+    String java; //only ever set before anything else sees the expression
+
+    Expr(Type type, String java) {
+        this.type = type;
+        this.java = java;
+    }
+
+    /**
+     * @return The expressions directly inside this one, in the order they're
+     * written.
+     */
+    public List<Expr> children() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * @param children New children, one for each of children().
+     * @return A copy of this expression with the given children.
+     */
+    Expr withChildren(List<Expr> children) {
+        return this;
+    }
+
+    /**
+     * @return Where this expression sits in Java's precedence levels, so that
+     * the expression around it knows whether it needs parentheses.
+     */
+    abstract int precedence();
+
+    /**
+     * Writes this expression out from its structure.
+     * @param sb Where to write it.
+     */
+    abstract void appendCanonical(StringBuilder sb);
+
+    /**
+     * Rewrites this expression bottom up: every child is rewritten first, and
+     * then the given function gets this expression with its rewritten
+     * children, and returns what to replace it with, which may be the same
+     * expression. An expression whose children all came back unchanged is
+     * kept as it was.
+     * @param f The rewrite.
+     * @return The rewritten expression.
+     */
+    public Expr rewrite(UnaryOperator<Expr> f) {
+        List<Expr> children = children();
+        Expr node = this;
+        if (!children.isEmpty()) {
+            List<Expr> rewritten = new ArrayList<>(children.size());
+            boolean changed = false;
+            for (Expr child : children) {
+                Expr r = child.rewrite(f);
+                changed |= r != child;
+                rewritten.add(r);
+            }
+            if (changed) {
+                node = withChildren(rewritten);
+            }
+        }
+        return f.apply(node);
+    }
+
+    /**
+     * Adds the name of every variable this expression reads to the given set.
+     * @param names The set to add to.
+     */
+    public void collectVariables(Set<String> names) {
+        for (Expr child : children()) {
+            child.collectVariables(names);
+        }
+    }
+
+    /**
+     * @return Whether this is a literal.
+     */
+    public boolean isConstant() {
+        return false;
+    }
+
+    /**
+     * @return Whether evaluating this expression can do anything other than
+     * produce a value, like throwing.
+     */
+    public boolean hasSideEffects() {
+        for (Expr child : children()) {
+            if (child.hasSideEffects()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The Java for this expression.
+     */
+    public String toJava() {
+        if (java != null) {
+            return java;
+        }
+        StringBuilder sb = new StringBuilder();
+        appendCanonical(sb);
+        return sb.toString();
+    }
+
+    /**
+     * Writes out an operand of this expression, in parentheses if Java would
+     * otherwise read it differently.
+     * @param sb Where to write it.
+     * @param operand The operand.
+     * @param precedence The precedence of this expression.
+     * @param right Whether the operand is on the right of a binary operator,
+     *              where an operand of the same precedence needs parentheses
+     *              too, since Java's operators group to the left.
+     */
+    static void appendOperand(StringBuilder sb, Expr operand, int precedence, boolean right) {
+        String java = operand.toJava();
+        boolean parens =
+            operand.precedence() < precedence ||
+            (right && operand.precedence() == precedence) ||
+            (right && java.startsWith("-")); //a - -1 is fine, a--1 isn't
+        if (parens) {
+            sb.append('(').append(java).append(')');
+        } else {
+            sb.append(java);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return toJava();
+    }
+
+    /**
+     * An int, boolean or String literal.
+     */
+    public static class Literal extends Expr {
+
+        public final Object value;
+
+        Literal(Type type, Object value, String java) {
+            super(type, java);
+            this.value = value;
+        }
+
+        /**
+         * @param value The value.
+         * @return An int literal.
+         */
+        public static Literal of(int value) {
+            return new Literal(Type.INT, value, null);
+        }
+
+        /**
+         * @param value The value.
+         * @return A boolean literal.
+         */
+        public static Literal of(boolean value) {
+            return new Literal(Type.BOOL, value, null);
+        }
+
+        public int intValue() {
+            return (Integer) value;
+        }
+
+        public boolean boolValue() {
+            return (Boolean) value;
+        }
+
+        @Override
+        public boolean isConstant() {
+            return true;
+        }
+
+        @Override
+        int precedence() {
+            return type == Type.INT && intValue() < 0 ? UNARY : PRIMARY;
+        }
+
+        @Override
+        void appendCanonical(StringBuilder sb) {
+            sb.append(value); //Strings keep the quotes they were written with
+        }
+    }
+
+    /**
+     * A variable being read.
+     */
+    public static class VarRef extends Expr {
+
+        public final String name;
+
+        public VarRef(String name, Type type) {
+            super(type, null);
+            this.name = name;
+        }
+
+        @Override
+        public void collectVariables(Set<String> names) {
+            names.add(name);
+        }
+
+        @Override
+        int precedence() {
+            return PRIMARY;
+        }
+
+        @Override
+        void appendCanonical(StringBuilder sb) {
+            sb.append(name);
+        }
+    }
+
+    /**
+     * Negation, -x, or logical not, !b.
+     */
+    public static class Unary extends Expr {
+
+        public final String op;
+        public final Expr operand;
+
+        public Unary(String op, Expr operand) {
+            this(op, operand, null);
+        }
+
+        Unary(String op, Expr operand, String java) {
+            super(op.equals("!") ? Type.BOOL : Type.INT, java);
+            this.op = op;
+            this.operand = operand;
+        }
+
+        @Override
+        public List<Expr> children() {
+            return Collections.singletonList(operand);
+        }
+
+        @Override
+        Expr withChildren(List<Expr> children) {
+            return new Unary(op, children.get(0));
+        }
+
+        @Override
+        int precedence() {
+            return UNARY;
+        }
+
+        @Override
+        void appendCanonical(StringBuilder sb) {
+            sb.append(op);
+            //--x and !!b would read as something else, or look like it
+            appendOperand(sb, operand, UNARY, operand.precedence() == UNARY);
+        }
+    }
+
+    /**
+     * Any of Java's binary operators, like a + b or a && b.
+     */
+    public static class Binary extends Expr {
+
+        public final String op;
+        public final Expr left;
+        public final Expr right;
+
+        public Binary(String op, Expr left, Expr right) {
+            this(op, left, right, null);
+        }
+
+        Binary(String op, Expr left, Expr right, String java) {
+            super(typeOf(op, left.type), java);
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        /**
+         * @param op A binary operator.
+         * @param operandType The type of its left operand.
+         * @return The type of the result.
+         */
+        static Type typeOf(String op, Type operandType) {
+            switch (op) {
+                case "+":
+                case "-":
+                case "*":
+                case "/":
+                case "%":
+                case "<<":
+                case ">>":
+                case ">>>":
+                    return Type.INT;
+                case "&":
+                case "|":
+                case "^":
+                    return operandType;
+                default:
+                    return Type.BOOL;
+            }
+        }
+
+        /**
+         * @param op A binary operator.
+         * @return Its precedence.
+         */
+        static int precedenceOf(String op) {
+            switch (op) {
+                case "||":
+                    return OR;
+                case "&&":
+                    return AND;
+                case "|":
+                    return BIT_OR;
+                case "^":
+                    return BIT_XOR;
+                case "&":
+                    return BIT_AND;
+                case "==":
+                case "!=":
+                    return EQUALITY;
+                case "<":
+                case "<=":
+                case ">":
+                case ">=":
+                    return RELATIONAL;
+                case "<<":
+                case ">>":
+                case ">>>":
+                    return SHIFT;
+                case "+":
+                case "-":
+                    return ADDITIVE;
+                default:
+                    return MULTIPLICATIVE;
+            }
+        }
+
+        @Override
+        public List<Expr> children() {
+            return Arrays.asList(left, right);
+        }
+
+        @Override
+        Expr withChildren(List<Expr> children) {
+            return new Binary(op, children.get(0), children.get(1));
+        }
+
+        @Override
+        public boolean hasSideEffects() {
+            //dividing by zero throws
+            boolean divides = op.equals("/") || op.equals("%");
+            if (divides && right.isConstant() && ((Literal) right).intValue() != 0) {
+                divides = false;
+            }
+            return divides || super.hasSideEffects();
+        }
+
+        @Override
+        int precedence() {
+            return precedenceOf(op);
+        }
+
+        @Override
+        void appendCanonical(StringBuilder sb) {
+            int precedence = precedence();
+            appendOperand(sb, left, precedence, false);
+            sb.append(op);
+            appendOperand(sb, right, precedence, true);
+        }
+    }
+
+    /**
+     * Reading one element of a ray, ray[index].
+     */
+    public static class Index extends Expr {
+
+        public final Expr ray;
+        public final Expr index;
+
+        public Index(Expr ray, Expr index) {
+            this(ray, index, null);
+        }
+
+        Index(Expr ray, Expr index, String java) {
+            super(ray.type.listOf, java);
+            this.ray = ray;
+            this.index = index;
+        }
+
+        @Override
+        public List<Expr> children() {
+            return Arrays.asList(ray, index);
+        }
+
+        @Override
+        Expr withChildren(List<Expr> children) {
+            return new Index(children.get(0), children.get(1));
+        }
+
+        @Override
+        public boolean hasSideEffects() {
+            return true; //can be out of bounds
+        }
+
+        @Override
+        int precedence() {
+            return PRIMARY;
+        }
+
+        @Override
+        void appendCanonical(StringBuilder sb) {
+            appendOperand(sb, ray, PRIMARY, false);
+            sb.append('[').append(index.toJava()).append(']');
+        }
+    }
+
+    /**
+     * Reading an element of a boolean ray BitPacking packed into bits,
+     * ray.get(index).
+     */
+    public static class PackedIndex extends Expr {
+
+        public final Expr ray;
+        public final Expr index;
+
+        public PackedIndex(Expr ray, Expr index) {
+            super(Type.BOOL, null);
+            this.ray = ray;
+            this.index = index;
+        }
+
+        @Override
+        public List<Expr> children() {
+            return Arrays.asList(ray, index);
+        }
+
+        @Override
+        Expr withChildren(List<Expr> children) {
+            return new PackedIndex(children.get(0), children.get(1));
+        }
+
+        @Override
+        public boolean hasSideEffects() {
+            return true; //can be out of bounds
+        }
+
+        @Override
+        int precedence() {
+            return PRIMARY;
+        }
+
+        @Override
+        void appendCanonical(StringBuilder sb) {
+            appendOperand(sb, ray, PRIMARY, false);
+            sb.append(".get(").append(index.toJava()).append(')');
+        }
+    }
+
+    /**
+     * Where row and column of a grid are in the flat ray it's stored in,
+     * row * columns + column, which throws if the column is out of bounds,
+     * since that could still be in the ray.
+     */
+    public static class GridOffset extends Expr {
+
+        public final Expr row;
+        public final Expr column;
+        public final Expr columns;
+
+        public GridOffset(Expr row, Expr column, Expr columns) {
+            super(Type.INT, null);
+            this.row = row;
+            this.column = column;
+            this.columns = columns;
+        }
+
+        /**
+         * @param grid The name of a grid variable.
+         * @return The name of the int variable that's kept next to it with
+         * how many columns it has, which can't clash with a Judo name.
+         */
+        public static String columnsOf(String grid) {
+            return grid + "$columns";
+        }
+
+        @Override
+        public List<Expr> children() {
+            return Arrays.asList(row, column, columns);
+        }
+
+        @Override
+        Expr withChildren(List<Expr> children) {
+            return new GridOffset(children.get(0), children.get(1), children.get(2));
+        }
+
+        @Override
+        public boolean hasSideEffects() {
+            return true; //can be out of bounds
+        }
+
+        @Override
+        int precedence() {
+            return PRIMARY;
+        }
+
+        @Override
+        void appendCanonical(StringBuilder sb) {
+            sb.append(GridSupport.CLASS_NAME).append(".offset(").append(row.toJava());
+            sb.append(", ").append(column.toJava()).append(", ").append(columns.toJava());
+            sb.append(')');
+        }
+    }
+
+    /**
+     * How many elements a grid of rows by columns has, which throws for
+     * negative sizes like new int[n] does, and for ones too big for a ray.
+     */
+    public static class GridSize extends Expr {
+
+        public final Expr rows;
+        public final Expr columns;
+
+        public GridSize(Expr rows, Expr columns) {
+            super(Type.INT, null);
+            this.rows = rows;
+            this.columns = columns;
+        }
+
+        @Override
+        public List<Expr> children() {
+            return Arrays.asList(rows, columns);
+        }
+
+        @Override
+        Expr withChildren(List<Expr> children) {
+            return new GridSize(children.get(0), children.get(1));
+        }
+
+        @Override
+        public boolean hasSideEffects() {
+            return true; //throws for negative or huge sizes
+        }
+
+        @Override
+        int precedence() {
+            return PRIMARY;
+        }
+
+        @Override
+        void appendCanonical(StringBuilder sb) {
+            sb.append(GridSupport.CLASS_NAME).append(".size(").append(rows.toJava());
+            sb.append(", ").append(columns.toJava()).append(')');
+        }
+    }
+
+    /**
+     * A new ray of a given size, new int[n].
+     */
+    public static class NewRay extends Expr {
+
+        public final Expr size;
+
+        public NewRay(Type type, Expr size) {
+            this(type, size, null);
+        }
+
+        NewRay(Type type, Expr size, String java) {
+            super(type, java);
+            this.size = size;
+        }
+
+        @Override
+        public List<Expr> children() {
+            return Collections.singletonList(size);
+        }
+
+        @Override
+        Expr withChildren(List<Expr> children) {
+            return new NewRay(type, children.get(0));
+        }
+
+        @Override
+        public boolean hasSideEffects() {
+            return true; //throws for negative sizes
+        }
+
+        @Override
+        int precedence() {
+            return PRIMARY;
+        }
+
+        @Override
+        void appendCanonical(StringBuilder sb) {
+            sb.append("new ").append(type.listOf.javaType);
+            sb.append('[').append(size.toJava()).append(']');
+        }
+    }
+
+    /**
+     * Reading an int, or every int that's left, from stdin, which the
+     * readint() and readints() builtins do.
+     */
+    public static class Read extends Expr {
+
+        /**
+         * @param type INT for one int, or INT_LIST for all of them.
+         */
+        public Read(Type type) {
+            super(type, null);
+        }
+
+        @Override
+        public boolean hasSideEffects() {
+            return true; //takes input, and throws for anything but ints
+        }
+
+        @Override
+        int precedence() {
+            return PRIMARY;
+        }
+
+        @Override
+        void appendCanonical(StringBuilder sb) {
+            sb.append(InputSupport.CLASS_NAME);
+            sb.append(type == Type.INT ? ".readInt()" : ".readInts()");
+        }
+    }
+
+    /**
+     * A ray literal, {a,b,c}, which Java only takes as it is when declaring a
+     * variable.
+     */
+    public static class RayLiteral extends Expr {
+
+        public final List<Expr> elements;
+
+        public RayLiteral(Type type, List<Expr> elements) {
+            this(type, elements, null);
+        }
+
+        RayLiteral(Type type, List<Expr> elements, String java) {
+            super(type, java);
+            this.elements = Collections.unmodifiableList(elements);
+        }
+
+        @Override
+        public List<Expr> children() {
+            return elements;
+        }
+
+        @Override
+        Expr withChildren(List<Expr> children) {
+            return new RayLiteral(type, children);
+        }
+
+        @Override
+        int precedence() {
+            return PRIMARY;
+        }
+
+        @Override
+        void appendCanonical(StringBuilder sb) {
+            sb.append('{');
+            for (int i = 0; i < elements.size(); i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append(elements.get(i).toJava());
+            }
+            sb.append('}');
+        }
+    }
+
+    /**
+     * Java text the IR doesn't understand, kept exactly as it was. Passes
+     * leave it alone, apart from knowing which variables it might read.
+     */
+    public static class Opaque extends Expr {
+
+        public Opaque(Type type, String java) {
+            super(type, java);
+        }
+
+        @Override
+        public void collectVariables(Set<String> names) {
+            Matcher m = IDENTIFIER.matcher(toJava());
+            while (m.find()) {
+                if (m.group("name") != null) {
+                    names.add(m.group("name"));
+                }
+            }
+        }
+
+        @Override
+        public boolean hasSideEffects() {
+            return true;
+        }
+
+        @Override
+        int precedence() {
+            return OPAQUE;
+        }
+
+        @Override
+        void appendCanonical(StringBuilder sb) {
+            sb.append(toJava());
+        }
+    }
+}
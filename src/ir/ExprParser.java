@@ -0,0 +1,283 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import parser.Type;
+
+/**
+ * Reads the Java the Parser generates for an expression back into the IR,
+ * following Java's precedence rules, since that's how the text will be
+ * evaluated once it's compiled. The Parser has already checked the Judo
+ * behind it, so this only has to handle what the grammars produce: int,
+ * boolean and String literals, variables, arithmetic, comparisons, logic,
+ * indexing, new rays and ray literals.
+ *
+ * Indexing a grid, grid[i][j], is lowered into indexing the flat ray it's
+ * stored in, so the text of anything around it can't be used as it is.
+ *
+ * Anything else, including anything whose types don't add up, comes back
+ * as an Opaque expression holding the text as it was, which is always safe.
+ */
+public final class ExprParser {
+
+    //binary operators by precedence level, loosest first, longest first
+    private static final String[][] LEVELS = {
+        { "||" },
+        { "&&" },
+        { "==", "!=" },
+        { "<=", ">=", "<", ">" },
+        { "+", "-" },
+        { "*", "/", "%" },
+    };
+
+    private final String java;
+    private final Function<String, Type> types;
+    private int pos;
+    private int end; //where the last token ended
+    private boolean lowered; //whether the Java no longer says what was parsed
+
+    private ExprParser(String java, Function<String, Type> types) {
+        this.java = java;
+        this.types = types;
+    }
+
+    /**
+     * @param java The Java text of an expression.
+     * @param expected The type the expression has to be.
+     * @param types The type of each variable in scope, or null for names
+     *              that aren't one.
+     * @return The expression, or an Opaque one holding java if it can't be
+     * understood.
+     */
+    public static Expr parse(String java, Type expected, Function<String, Type> types) {
+        String trimmed = java.trim();
+        ExprParser p = new ExprParser(trimmed, types);
+        try {
+            Expr e = expected.isRayType() && trimmed.startsWith("{")
+                ? p.rayLiteral(expected)
+                : p.binary(0);
+            p.skipSpaces();
+            if (p.pos == trimmed.length() && e.type == expected) {
+                if (!p.lowered) {
+                    e.java = trimmed; //parentheses around the whole thing included
+                }
+                return e;
+            }
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            //not something the IR understands
+        }
+        return new Expr.Opaque(expected, trimmed);
+    }
+
+    private Expr rayLiteral(Type rayType) {
+        int start = pos;
+        expect("{");
+        List<Expr> elements = new ArrayList<>();
+        if (!accept("}")) {
+            do {
+                elements.add(typed(binary(0), rayType.listOf));
+            } while (accept(","));
+            expect("}");
+        }
+        return new Expr.RayLiteral(rayType, elements, source(start));
+    }
+
+    private Expr binary(int level) {
+        if (level == LEVELS.length) {
+            return unary();
+        }
+        skipSpaces();
+        int start = pos;
+        Expr left = binary(level + 1);
+        String op;
+        while ((op = operator(LEVELS[level])) != null) {
+            Expr right = binary(level + 1);
+            checkOperands(op, left, right);
+            left = new Expr.Binary(op, left, right, source(start));
+        }
+        return left;
+    }
+
+    private Expr unary() {
+        skipSpaces();
+        int start = pos;
+        if (java.startsWith("!", pos) && !java.startsWith("!=", pos)) {
+            pos++;
+            return new Expr.Unary("!", typed(unary(), Type.BOOL), source(start));
+        } else if (java.startsWith("-", pos)) {
+            pos++;
+            return new Expr.Unary("-", typed(unary(), Type.INT), source(start));
+        }
+        return primary();
+    }
+
+    private Expr primary() {
+        skipSpaces();
+        int start = pos;
+        char c = java.charAt(pos);
+        if (accept("(")) {
+            Expr inner = binary(0);
+            expect(")");
+            return inner;
+        } else if (Character.isDigit(c)) {
+            while (pos < java.length() && Character.isDigit(java.charAt(pos))) {
+                pos++;
+            }
+            end = pos;
+            //throws for anything past Integer.MAX_VALUE, which only unary
+            //minus could make legal, and only for Integer.MIN_VALUE
+            return new Expr.Literal(Type.INT, Integer.parseInt(text(start)), text(start));
+        } else if (c == '"') {
+            pos++;
+            while (java.charAt(pos) != '"') {
+                pos += java.charAt(pos) == '\\' ? 2 : 1;
+            }
+            end = ++pos;
+            return new Expr.Literal(Type.STRING, text(start), text(start));
+        }
+        String name = identifier();
+        switch (name) {
+            case "true":
+            case "false":
+                return new Expr.Literal(Type.BOOL, name.equals("true"), name);
+            case "new":
+                Type rayType = rayTypeOf(identifier());
+                expect("[");
+                Expr size = typed(binary(0), Type.INT);
+                expect("]");
+                return new Expr.NewRay(rayType, size, source(start));
+            default:
+                Type t = types.apply(name);
+                if (t == null) {
+                    throw new IllegalArgumentException("Unknown variable " + name);
+                }
+                Expr ref = new Expr.VarRef(name, t);
+                if (accept("[")) {
+                    if (!t.isRayType()) {
+                        throw new IllegalArgumentException(name + " can't be indexed");
+                    }
+                    Expr index = typed(binary(0), Type.INT);
+                    expect("]");
+                    if (t.isGridType()) {
+                        expect("[");
+                        Expr column = typed(binary(0), Type.INT);
+                        expect("]");
+                        lowered = true;
+                        Expr columns = new Expr.VarRef(Expr.GridOffset.columnsOf(name), Type.INT);
+                        return new Expr.Index(ref, new Expr.GridOffset(index, column, columns));
+                    }
+                    return new Expr.Index(ref, index, source(start));
+                }
+                return ref;
+        }
+    }
+
+    private static Type rayTypeOf(String elementType) {
+        for (Type t : Type.values()) {
+            if (t.isRayType() && !t.isGridType() && t.listOf.javaType.equals(elementType)) {
+                return t;
+            }
+        }
+        throw new IllegalArgumentException("Unknown type " + elementType);
+    }
+
+    private static void checkOperands(String op, Expr left, Expr right) {
+        Type operands;
+        switch (op) {
+            case "&&":
+            case "||":
+                operands = Type.BOOL;
+                break;
+            case "==":
+            case "!=":
+                //comparing Strings with == compares references, so leave it be
+                operands = left.type == Type.STRING ? null : left.type;
+                break;
+            default:
+                operands = Type.INT;
+        }
+        typed(left, operands);
+        typed(right, operands);
+    }
+
+    private static Expr typed(Expr e, Type t) {
+        if (e.type != t) {
+            throw new IllegalArgumentException("Expected " + t + " but found " + e.type);
+        }
+        return e;
+    }
+
+    private String identifier() {
+        skipSpaces();
+        int start = pos;
+        while (
+            pos < java.length() &&
+            (Character.isLetterOrDigit(java.charAt(pos)) || java.charAt(pos) == '_')
+        ) {
+            pos++;
+        }
+        if (pos == start || Character.isDigit(java.charAt(start))) {
+            throw new IllegalArgumentException("Expected an identifier");
+        }
+        end = pos;
+        return java.substring(start, pos);
+    }
+
+    /**
+     * Consumes one of the given operators if it's next. An operator that's
+     * the start of a longer one, like < in <=, doesn't count.
+     */
+    private String operator(String[] ops) {
+        skipSpaces();
+        for (String op : ops) {
+            if (java.startsWith(op, pos)) {
+                int next = pos + op.length();
+                char after = next < java.length() ? java.charAt(next) : ' ';
+                if (op.length() == 1 && "=&|<>".indexOf(after) >= 0) {
+                    continue;
+                }
+                pos += op.length();
+                return op;
+            }
+        }
+        return null;
+    }
+
+    private boolean accept(String token) {
+        skipSpaces();
+        if (java.startsWith(token, pos)) {
+            pos += token.length();
+            end = pos;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(String token) {
+        if (!accept(token)) {
+            throw new IllegalArgumentException("Expected " + token);
+        }
+    }
+
+    private void skipSpaces() {
+        while (pos < java.length() && Character.isWhitespace(java.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    /**
+     * @return The text from start to the end of the last token.
+     */
+    private String text(int start) {
+        return java.substring(start, end);
+    }
+
+    /**
+     * @return The text from start to the end of the last token, or null if
+     * anything in it was lowered, so it's emitted from what it became.
+     */
+    private String source(int start) {
+        return lowered ? null : text(start);
+    }
+}
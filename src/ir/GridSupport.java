@@ -0,0 +1,47 @@
+package ir;
+
+/**
+ * The Java of the class generated programs work out where an element of a
+ * grid is through, which goes in every generated class that has a grid,
+ * like PrintSupport.
+ *
+ * A grid is one flat ray, row after row, so an element is at row * columns
+ * + column. A row that's out of bounds lands outside the ray, which throws
+ * by itself, but a column that's out of bounds could land in another row,
+ * so that's checked here, along with anything that overflows.
+ */
+final class GridSupport {
+
+    //$ can't be in a Judo identifier, so this can't clash with a module
+    static final String CLASS_NAME = "$Grid";
+
+    private static final String[] SOURCE = {
+        "private static final class " + CLASS_NAME + " {",
+        "",
+        "static int size(int rows, int columns) {",
+        "if (rows < 0 || columns < 0) {",
+        "throw new NegativeArraySizeException(rows + \" by \" + columns);",
+        "}",
+        "return Math.multiplyExact(rows, columns);",
+        "}",
+        "",
+        "static int offset(int row, int column, int columns) {",
+        "long offset = (long) row * columns + column;",
+        "if (column < 0 || column >= columns || offset < 0 || offset > Integer.MAX_VALUE) {",
+        "throw new ArrayIndexOutOfBoundsException(\"[\" + row + \"][\" + column + \"]\");",
+        "}",
+        "return (int) offset;",
+        "}",
+        "}",
+    };
+
+    private GridSupport() {}
+
+    /**
+     * @param indent The unit of indentation to indent it with.
+     * @return The class, indented as a member of the generated class.
+     */
+    static String source(String indent) {
+        return JavaEmitter.member(SOURCE, indent);
+    }
+}
@@ -0,0 +1,98 @@
+package ir;
+
+/**
+ * The Java of a class generated programs read ints from stdin through,
+ * which goes in every generated class that does, like PrintSupport.
+ *
+ * It reads stdin a large chunk at a time into a byte array it keeps, and
+ * works out each int from the digits in it, without ever making a String.
+ * Ints are separated by any whitespace, and anything else in the input is
+ * an error, as is an int that doesn't fit in an int.
+ */
+final class InputSupport {
+
+    //$ can't be in a Judo identifier, so this can't clash with a module
+    static final String CLASS_NAME = "$In";
+
+    private static final String[] SOURCE = {
+        "private static final class " + CLASS_NAME + " {",
+        "",
+        "private static final byte[] BUFFER = new byte[1 << 16];",
+        "private static int length;",
+        "private static int position;",
+        "",
+        "static int readInt() {",
+        "if (!skipSpaces()) {",
+        "throw new java.util.NoSuchElementException(\"Expected an int, but the input ended\");",
+        "}",
+        "boolean negative = peek() == '-';",
+        "if (negative) {",
+        "position++;",
+        "}",
+        "long limit = negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE;",
+        "long n = 0;",
+        "int digits = 0;",
+        "for (int c = peek(); c >= '0' && c <= '9'; c = peek()) {",
+        "n = n * 10 + c - '0';",
+        "if (n > limit) {",
+        "throw new NumberFormatException(\"An int in the input doesn't fit in an int\");",
+        "}",
+        "position++;",
+        "digits++;",
+        "}",
+        "if (digits == 0 || peek() > ' ') {",
+        "throw new NumberFormatException(\"Expected only ints in the input\");",
+        "}",
+        "return (int) (negative ? -n : n);",
+        "}",
+        "",
+        "static int[] readInts() {",
+        "int[] ints = new int[1024];",
+        "int count = 0;",
+        "while (skipSpaces()) {",
+        "if (count == ints.length) {",
+        "ints = java.util.Arrays.copyOf(ints, count * 2);",
+        "}",
+        "ints[count++] = readInt();",
+        "}",
+        "return java.util.Arrays.copyOf(ints, count);",
+        "}",
+        "",
+        "//whether there's anything left after them",
+        "private static boolean skipSpaces() {",
+        "int c = peek();",
+        "while (c >= 0 && c <= ' ') {",
+        "position++;",
+        "c = peek();",
+        "}",
+        "return c >= 0;",
+        "}",
+        "",
+        "//the next byte, without reading past it, or -1 once the input ended",
+        "private static int peek() {",
+        "if (position == length) {",
+        "position = 0;",
+        "try {",
+        "length = Math.max(0, System.in.read(BUFFER, 0, BUFFER.length));",
+        "} catch (java.io.IOException e) {",
+        "throw new java.io.UncheckedIOException(e);",
+        "}",
+        "if (length == 0) {",
+        "return -1;",
+        "}",
+        "}",
+        "return BUFFER[position] & 0xFF;",
+        "}",
+        "}",
+    };
+
+    private InputSupport() {}
+
+    /**
+     * @param indent The unit of indentation to indent it with.
+     * @return The class, indented as a member of the generated class.
+     */
+    static String source(String indent) {
+        return JavaEmitter.member(SOURCE, indent);
+    }
+}
@@ -0,0 +1,373 @@
+package ir;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import parser.Type;
+
+/**
+ * The last pass, which writes the program out as the body of a Java main
+ * method. Always runs, and can't be turned off.
+ *
+ * Every block's statements are indented by the whitespace of the block,
+ * which is the Judo file's indentation once per level, apart from the body
+ * of an if, which is indented like the if itself. That's wrong, but it's
+ * how the Java has always looked.
+ *
+ * System.out flushes on every print, which is a system call for every
+ * character a program like Stars prints. Unless the emitter is line
+ * flushed, for programs someone watches as they run, main points System.out
+ * at a buffer while it runs, and flushes it when main finishes, even when
+ * it's because of an exception. Modules do the same, so what a module
+ * prints goes into the buffer of main that imports it, in order.
+ *
+ * Ints and booleans are printed through PrintSupport, readint() and
+ * readints() go through InputSupport, boolean rays BitPacking packed are
+ * BitsSupport objects, and grids are indexed through GridSupport. Each of
+ * those goes in the class with main if anything uses it. Int rays
+ * RayNarrowing narrowed are declared as what it chose, with a cast on every
+ * store Java wouldn't narrow on its own.
+ *
+ * main's String arguments are parsed into the int ray argos once, before
+ * anything else, and only if the program reads argos, with an error that
+ * says which one isn't a number.
+ */
+public class JavaEmitter implements Pass {
+
+    public static final String NAME = "emit";
+    public static final int BUFFER_SIZE = 1 << 16;
+    /**
+     * What main calls its String arguments, leaving the name argos to the
+     * ints they're parsed into.
+     */
+    public static final String ARGS = "$args";
+
+    private static final String ARGOS = "argos";
+
+    private final boolean lineFlushed;
+
+    public JavaEmitter() {
+        this(false);
+    }
+
+    /**
+     * @param lineFlushed Whether programs print straight to System.out, so
+     *                    what they print shows up right away.
+     */
+    public JavaEmitter(boolean lineFlushed) {
+        this.lineFlushed = lineFlushed;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public String signature() {
+        return lineFlushed ? NAME + "(line-flushed)" : NAME;
+    }
+
+    @Override
+    public void run(Program program) {
+        String indent = program.indent;
+        StringBuilder java = new StringBuilder("{\n");
+        if (readsArgos(program.main)) {
+            argos(indent, java);
+        }
+        if (lineFlushed) {
+            statements(program.main, indent, program, java);
+        } else {
+            buffered(program, java);
+        }
+        java.append(indent).append("}\n");
+        program.setJava(java.toString());
+        String members = "";
+        if (printsThroughSupport(program.main)) {
+            members += PrintSupport.source(indent);
+        }
+        if (uses(program.main, Expr.Read.class)) {
+            members += InputSupport.source(indent);
+        }
+        if (packs(program.main, program)) {
+            members += BitsSupport.source(indent);
+        }
+        //a module's grids can be indexed by files that never make one
+        if (uses(program.main, Expr.GridSize.class) || uses(program.main, Expr.GridOffset.class)) {
+            members += GridSupport.source(indent);
+        }
+        program.setMembers(members);
+    }
+
+    /**
+     * @param lines The lines of a class member, unindented.
+     * @param indent The unit of indentation.
+     * @return The member, with every line indented by how many braces it's
+     * in.
+     */
+    static String member(String[] lines, String indent) {
+        StringBuilder java = new StringBuilder();
+        int depth = 0;
+        for (String line : lines) {
+            if (line.startsWith("}")) {
+                depth--;
+            }
+            if (!line.isEmpty()) {
+                for (int i = 0; i < depth; i++) {
+                    java.append(indent);
+                }
+            }
+            java.append(line).append('\n');
+            if (line.endsWith("{")) {
+                depth++;
+            }
+        }
+        return java.toString();
+    }
+
+    /**
+     * @return The Java for a new packed ray, from the b{n} or literal
+     * BitPacking checked it is.
+     */
+    private static String packed(Expr ray) {
+        if (ray instanceof Expr.NewRay) {
+            return "new " + BitsSupport.CLASS_NAME + "(" + ((Expr.NewRay) ray).size.toJava() + ")";
+        }
+        return BitsSupport.CLASS_NAME + ".of(new boolean[] " + ray.toJava() + ")";
+    }
+
+    /**
+     * @return The Java for a new narrowed ray, from the i{n} or literal
+     * RayNarrowing checked it is, or for an int stored into one, with casts
+     * where Java won't narrow a value on its own.
+     */
+    private static String narrowed(Expr value, String type) {
+        if (value instanceof Expr.NewRay) {
+            return "new " + type + "[" + ((Expr.NewRay) value).size.toJava() + "]";
+        } else if (value instanceof Expr.RayLiteral) {
+            StringBuilder java = new StringBuilder("{");
+            for (Expr element : ((Expr.RayLiteral) value).elements) {
+                java.append(java.length() > 1 ? "," : "").append(narrowed(element, type));
+            }
+            return java.append('}').toString();
+        } else if (value.isConstant()) {
+            //an int constant that fits is narrowed without a cast
+            return value.toJava();
+        }
+        String java = value.toJava();
+        return "(" + type + ") " + (value.precedence() == Expr.PRIMARY ? java : "(" + java + ")");
+    }
+
+    private static boolean packs(Block main, Program program) {
+        boolean[] packs = { false };
+        main.forEachStatement(s -> {
+            if (s instanceof Stmt.Declare && program.isPacked(s.target())) {
+                packs[0] = true;
+            }
+        });
+        return packs[0];
+    }
+
+    /**
+     * @return Whether any expression in main has a node of the given kind.
+     */
+    private static boolean uses(Block main, Class<? extends Expr> kind) {
+        boolean[] uses = { false };
+        main.forEachStatement(s -> {
+            for (Expr e : s.expressions()) {
+                e.rewrite(node -> {
+                    uses[0] |= kind.isInstance(node);
+                    return node;
+                });
+            }
+        });
+        return uses[0];
+    }
+
+    private static boolean printsThroughSupport(Block main) {
+        boolean[] prints = { false };
+        main.forEachStatement(s -> {
+            if (s instanceof Stmt.Print && isPrimitive((Stmt.Print) s)) {
+                prints[0] = true;
+            }
+        });
+        return prints[0];
+    }
+
+    private static boolean isPrimitive(Stmt.Print print) {
+        return (
+            print.argument != null &&
+            (print.argument.type == Type.INT || print.argument.type == Type.BOOL)
+        );
+    }
+
+    private static boolean readsArgos(Block main) {
+        Set<String> names = new HashSet<>();
+        main.forEachStatement(s -> {
+            for (Expr e : s.expressions()) {
+                e.collectVariables(names);
+            }
+        });
+        return names.contains(ARGOS);
+    }
+
+    private static void argos(String indent, StringBuilder java) {
+        String inner = indent + indent;
+        String innermost = inner + indent;
+        //$ can't be in a Judo identifier, so these can't clash with a variable
+        java.append(indent).append("int[] argos = new int[$args.length];\n");
+        java.append(indent).append("for (int $i = 0; $i < $args.length; $i++) {\n");
+        java.append(inner).append("try {\n");
+        java.append(innermost).append("argos[$i] = Integer.parseInt($args[$i]);\n");
+        java.append(innermost).append("}\n");
+        java.append(inner).append("catch (NumberFormatException $e) {\n");
+        java.append(innermost).append("throw new IllegalArgumentException(");
+        java.append("\"Expected argos[\" + $i + \"] to be an int, not `\" + $args[$i] + \"`\");\n");
+        java.append(innermost).append("}\n");
+        java.append(inner).append("}\n");
+    }
+
+    /**
+     * Writes the body of main in a try that puts System.out back the way
+     * it was once it's done.
+     */
+    private void buffered(Program program, StringBuilder java) {
+        String indent = program.indent;
+        String inner = indent + indent;
+        //$ can't be in a Judo identifier, so this can't clash with a variable
+        java.append(indent).append("java.io.PrintStream $stdout = System.out;\n");
+        java.append(indent).append("System.setOut(new java.io.PrintStream(");
+        java.append("new java.io.BufferedOutputStream($stdout, ").append(BUFFER_SIZE);
+        java.append("), false));\n");
+        java.append(indent).append("try ");
+        block(program.main, inner, program, java);
+        java.append(indent).append("finally {\n");
+        java.append(inner).append("System.out.flush();\n");
+        java.append(inner).append("System.setOut($stdout);\n");
+        java.append(inner).append("}\n");
+    }
+
+    private void block(Block block, String whitespace, Program program, StringBuilder java) {
+        java.append("{\n");
+        statements(block, whitespace, program, java);
+        java.append(whitespace).append("}\n");
+    }
+
+    private void statements(Block block, String whitespace, Program program, StringBuilder java) {
+        for (Stmt statement : block.statements) {
+            java.append(whitespace);
+            statement(statement, whitespace, program, java);
+        }
+    }
+
+    private void statement(Stmt s, String whitespace, Program program, StringBuilder java) {
+        String indent = program.indent;
+        String inner = whitespace + indent;
+        if (s instanceof Stmt.Declare) {
+            Stmt.Declare declare = (Stmt.Declare) s;
+            if (declare.isFinal) {
+                java.append("final ");
+            }
+            if (program.isPacked(declare.name)) {
+                java.append(BitsSupport.CLASS_NAME).append(" ").append(declare.name);
+                java.append(" = ").append(packed(declare.value)).append(";\n");
+                return;
+            }
+            String narrowed = program.narrowedType(declare.name);
+            if (narrowed != null) {
+                java.append(narrowed).append("[] ").append(declare.name).append(" = ");
+                java.append(narrowed(declare.value, narrowed)).append(";\n");
+                return;
+            }
+            java.append(declare.type.javaType).append(" ").append(declare.name);
+            java.append(" = ").append(declare.value.toJava()).append(";\n");
+        } else if (s instanceof Stmt.Assign) {
+            Stmt.Assign assign = (Stmt.Assign) s;
+            java.append(assign.name).append(" = ");
+            if (program.isPacked(assign.name)) {
+                java.append(packed(assign.value)).append(";\n");
+                return;
+            } else if (program.narrowedType(assign.name) != null) {
+                String narrowed = program.narrowedType(assign.name);
+                if (assign.value instanceof Expr.RayLiteral) {
+                    java.append("new ").append(narrowed).append("[] ");
+                }
+                java.append(narrowed(assign.value, narrowed)).append(";\n");
+                return;
+            } else if (assign.value.toJava().startsWith("{")) {
+                //Java only takes a bare {a,b} when declaring
+                java.append("new ").append(assign.type.listOf.javaType).append("[]");
+            }
+            java.append(assign.value.toJava()).append(";\n");
+        } else if (s instanceof Stmt.IndexAssign) {
+            Stmt.IndexAssign assign = (Stmt.IndexAssign) s;
+            if (program.isPacked(assign.ray.name)) {
+                java.append(assign.ray.toJava()).append(".set(").append(assign.index.toJava());
+                java.append(", ").append(assign.value.toJava()).append(");");
+                return;
+            }
+            String narrowed = program.narrowedType(assign.ray.name);
+            String value = narrowed == null
+                ? assign.value.toJava()
+                : narrowed(assign.value, narrowed);
+            java.append(assign.ray.toJava()).append("[").append(assign.index.toJava());
+            java.append("] = ").append(value).append(";");
+        } else if (s instanceof Stmt.Print) {
+            Stmt.Print print = (Stmt.Print) s;
+            java.append(isPrimitive(print) ? PrintSupport.CLASS_NAME : "System.out");
+            java.append(print.newline ? ".println(" : ".print(");
+            if (print.argument != null) {
+                java.append(print.argument.toJava());
+            }
+            java.append(");\n");
+        } else if (s instanceof Stmt.If) {
+            Stmt.If conditional = (Stmt.If) s;
+            for (int i = 0; i < conditional.arms.size(); i++) {
+                Stmt.Arm arm = conditional.arms.get(i);
+                if (i == 0) {
+                    java.append("if (").append(arm.condition.toJava()).append(") ");
+                    block(arm.body, whitespace, program, java);
+                    continue;
+                }
+                java.append(whitespace);
+                if (arm.condition == null) {
+                    java.append("else ");
+                } else {
+                    java.append("else if (").append(arm.condition.toJava()).append(") ");
+                }
+                block(arm.body, inner, program, java);
+            }
+        } else if (s instanceof Stmt.ForRange) {
+            Stmt.ForRange loop = (Stmt.ForRange) s;
+            String v = loop.variable;
+            java.append("for(int ").append(v).append(" = ").append(loop.lo.toJava());
+            java.append("; ").append(v).append(" < ").append(loop.hi.toJava());
+            java.append("; ").append(v).append(" += ").append(loop.step.toJava()).append(") ");
+            block(loop.body, inner, program, java);
+        } else if (s instanceof Stmt.ForEach) {
+            Stmt.ForEach loop = (Stmt.ForEach) s;
+            java.append("for(").append(loop.ray.type.listOf).append(" ").append(loop.variable);
+            java.append(" : ").append(loop.ray.toJava()).append(")");
+            block(loop.body, inner, program, java);
+        } else if (s instanceof Stmt.While) {
+            Stmt.While loop = (Stmt.While) s;
+            java.append("while(").append(loop.condition.toJava()).append(") ");
+            block(loop.body, inner, program, java);
+        } else if (s instanceof Stmt.Scope) {
+            block(((Stmt.Scope) s).body, inner, program, java);
+        } else if (s instanceof Stmt.Import) {
+            Stmt.Import module = (Stmt.Import) s;
+            java.append(module.className).append(".load(").append(ARGS).append(");\n");
+            for (Map.Entry<String, Type> export : module.exports.entrySet()) {
+                java.append(indent).append(export.getValue().javaType).append(" ");
+                java.append(export.getKey()).append(" = ").append(module.className);
+                java.append(".").append(export.getKey()).append(";\n");
+            }
+        } else if (s instanceof Stmt.Export) {
+            Stmt.Export export = (Stmt.Export) s;
+            java.append(export.className).append(".").append(export.variable.name);
+            java.append(" = ").append(export.variable.toJava()).append(";\n");
+        }
+        //hallpass is nothing at all
+    }
+}
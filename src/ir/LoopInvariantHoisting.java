@@ -0,0 +1,215 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import parser.Type;
+
+/**
+ * Moves int and boolean expressions that come out the same on every
+ * iteration of a loop into final locals right before it, so they're only
+ * evaluated once: the upper bound and step of a range, parts of a loop
+ * condition, and parts of anything in the body.
+ *
+ * An expression stays put if it reads a variable the loop assigns or
+ * declares, or indexes a ray while the loop assigns to any ray, since two
+ * ray variables can be the same ray. Hoisting can also make an expression
+ * run when it wouldn't have, or earlier than it would have, so one that can
+ * throw, like an index or a division, is only hoisted out of the
+ * bound of a range or the first test of a loop condition, and only if
+ * nothing that can throw would have run before it. Loops are handled from
+ * the outside in, so an expression goes as far out as it can.
+ */
+public class LoopInvariantHoisting implements Pass {
+
+    public static final String NAME = "hoist";
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public void run(Program program) {
+        block(program.main, new int[1]);
+    }
+
+    /**
+     * @param counter How many locals have been introduced so far, which
+     *                keeps their names apart.
+     */
+    private void block(Block block, int[] counter) {
+        List<Stmt> statements = new ArrayList<>(block.statements.size());
+        for (Stmt s : block.statements) {
+            if (
+                s instanceof Stmt.ForRange || s instanceof Stmt.ForEach || s instanceof Stmt.While
+            ) {
+                statements.addAll(new Loop(s, counter).hoist());
+            }
+            statements.add(s);
+        }
+        block.statements.clear();
+        block.statements.addAll(statements);
+        for (Stmt s : statements) {
+            for (Block inner : s.blocks()) {
+                block(inner, counter);
+            }
+        }
+    }
+
+    /**
+     * What one loop changes, and what's been hoisted out of it.
+     */
+    private static class Loop {
+
+        private final Stmt loop;
+        private final int[] counter;
+        private final Set<String> variant = new HashSet<>();
+        private boolean writesRays;
+        private final Map<String, Expr.VarRef> hoisted = new HashMap<>();
+        private final List<Stmt> declarations = new ArrayList<>();
+        private boolean mayThrow; //whether something that can throw was evaluated first
+
+        Loop(Stmt loop, int[] counter) {
+            this.loop = loop;
+            this.counter = counter;
+            variableOf(loop);
+            loop.blocks().get(0).forEachStatement(s -> {
+                variableOf(s);
+                if (s.target() != null) {
+                    variant.add(s.target());
+                }
+                writesRays |= s instanceof Stmt.IndexAssign;
+            });
+        }
+
+        private void variableOf(Stmt s) {
+            if (s instanceof Stmt.ForRange) {
+                variant.add(((Stmt.ForRange) s).variable);
+            } else if (s instanceof Stmt.ForEach) {
+                variant.add(((Stmt.ForEach) s).variable);
+            }
+        }
+
+        /**
+         * Replaces the invariant expressions of the loop with locals.
+         * @return The declarations of the locals, to go before the loop.
+         */
+        List<Stmt> hoist() {
+            if (loop instanceof Stmt.ForRange) {
+                Stmt.ForRange range = (Stmt.ForRange) loop;
+                //the bound is first compared right after lo is evaluated
+                mayThrow = range.lo.hasSideEffects();
+                range.hi = hoist(range.hi, true);
+                range.step = hoist(range.step, false);
+            } else if (loop instanceof Stmt.While) {
+                Stmt.While whileLoop = (Stmt.While) loop;
+                mayThrow = false;
+                whileLoop.condition = hoist(whileLoop.condition, true);
+            }
+            loop.blocks().get(0).forEachStatement(s -> s.replaceExpressions(e -> hoist(e, false)));
+            return declarations;
+        }
+
+        /**
+         * @param e An expression in the loop.
+         * @param first Whether e is always evaluated before the first
+         *              iteration.
+         * @return e, with the largest invariant expressions in it replaced.
+         */
+        private Expr hoist(Expr e, boolean first) {
+            if (isInvariant(e) && isWorthIt(e) && (!e.hasSideEffects() || (first && !mayThrow))) {
+                return local(e);
+            }
+            List<Expr> children = e.children();
+            List<Expr> replaced = new ArrayList<>(children.size());
+            boolean changed = false;
+            for (int i = 0; i < children.size(); i++) {
+                //the right of && and || isn't always evaluated
+                boolean shortCircuits =
+                    i == 1 &&
+                    e instanceof Expr.Binary &&
+                    (((Expr.Binary) e).op.equals("&&") || ((Expr.Binary) e).op.equals("||"));
+                Expr child = hoist(children.get(i), first && !shortCircuits);
+                changed |= child != children.get(i);
+                replaced.add(child);
+            }
+            Expr result = changed ? e.withChildren(replaced) : e;
+            mayThrow |= result.hasSideEffects();
+            return result;
+        }
+
+        private Expr.VarRef local(Expr e) {
+            String java = e.toJava();
+            Expr.VarRef ref = hoisted.get(java);
+            if (ref == null) {
+                ref = new Expr.VarRef("$inv" + counter[0]++, e.type);
+                hoisted.put(java, ref);
+                declarations.add(new Stmt.Declare(loop.line, e.type, ref.name, e, true));
+            }
+            return ref;
+        }
+
+        private boolean isInvariant(Expr e) {
+            if (!(e.type == Type.INT || e.type == Type.BOOL) || !isPlain(e)) {
+                return false;
+            }
+            Set<String> reads = new HashSet<>();
+            e.collectVariables(reads);
+            if (reads.isEmpty()) {
+                return false; //a constant, which is fold's job
+            }
+            for (String name : reads) {
+                if (variant.contains(name)) {
+                    return false;
+                }
+            }
+            return !(writesRays && indexes(e));
+        }
+
+        /**
+         * @return Whether e is made only of what a local can hold the value
+         * of: no Java the IR doesn't understand, and no new rays.
+         */
+        private static boolean isPlain(Expr e) {
+            if (
+                e instanceof Expr.Opaque ||
+                e instanceof Expr.NewRay ||
+                e instanceof Expr.RayLiteral
+            ) {
+                return false;
+            }
+            for (Expr child : e.children()) {
+                if (!isPlain(child)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean indexes(Expr e) {
+            if (e instanceof Expr.Index) {
+                return true;
+            }
+            for (Expr child : e.children()) {
+                if (indexes(child)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return Whether evaluating e costs more than reading a local.
+         */
+        private static boolean isWorthIt(Expr e) {
+            if (e instanceof Expr.Unary) {
+                return !((Expr.Unary) e).operand.children().isEmpty();
+            }
+            return !e.children().isEmpty();
+        }
+    }
+}
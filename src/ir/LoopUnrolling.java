@@ -0,0 +1,189 @@
+package ir;
+
+import static java.text.MessageFormat.format;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+import parser.Type;
+
+/**
+ * Unrolls ranges whose bounds and step are int literals. A loop whose body
+ * would be copied no more than the limit's worth of statements in all is
+ * replaced by a copy of the body for every iteration, with the variable
+ * replaced by its value, and folded. A longer one runs 8, 4 or 2 copies of
+ * the body per iteration, as many as fit in the limit, reading variable +
+ * step and so on, and the iterations left over are unrolled after it.
+ *
+ * A loop isn't unrolled if its variable is assigned, or a loop condition
+ * in it reads the variable, since javac would see the condition as
+ * constant once the variable is a literal, and could call code after the
+ * loop unreachable. Off by default, since a bigger main can be one the JIT
+ * is less willing to compile.
+ */
+public class LoopUnrolling implements Pass {
+
+    public static final String NAME = "unroll";
+    public static final int DEFAULT_LIMIT = 32;
+
+    private static final int[] FACTORS = { 8, 4, 2 };
+
+    private final int limit;
+
+    public LoopUnrolling() {
+        this(DEFAULT_LIMIT);
+    }
+
+    /**
+     * @param limit How many statements unrolling one loop can make.
+     */
+    public LoopUnrolling(int limit) {
+        this.limit = limit;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public boolean enabledByDefault() {
+        return false;
+    }
+
+    @Override
+    public String signature() {
+        return NAME + "(" + limit + ")";
+    }
+
+    @Override
+    public void run(Program program) {
+        block(program.main, program);
+    }
+
+    private void block(Block block, Program program) {
+        List<Stmt> statements = new ArrayList<>(block.statements.size());
+        for (Stmt s : block.statements) {
+            //inner loops first, so that what they unroll into counts
+            for (Block inner : s.blocks()) {
+                block(inner, program);
+            }
+            List<Stmt> unrolled = s instanceof Stmt.ForRange
+                ? unroll((Stmt.ForRange) s, program)
+                : null;
+            if (unrolled == null) {
+                statements.add(s);
+            } else {
+                statements.addAll(unrolled);
+            }
+        }
+        block.statements.clear();
+        block.statements.addAll(statements);
+    }
+
+    /**
+     * @return What replaces the loop, or null if it stays as it is.
+     */
+    private List<Stmt> unroll(Stmt.ForRange loop, Program program) {
+        if (!(loop.lo.isConstant() && loop.hi.isConstant() && loop.step.isConstant())) {
+            return null;
+        }
+        long lo = ((Expr.Literal) loop.lo).intValue();
+        long hi = ((Expr.Literal) loop.hi).intValue();
+        long step = ((Expr.Literal) loop.step).intValue();
+        //past Integer.MAX_VALUE, the variable would wrap around
+        if (step < 1 || hi - 1 + step > Integer.MAX_VALUE || !canSubstitute(loop)) {
+            return null;
+        }
+        long trips = hi <= lo ? 0 : (hi - lo + step - 1) / step;
+        int size = Math.max(1, size(loop.body));
+        List<Stmt> statements = new ArrayList<>();
+        if (trips * size <= limit) {
+            for (long trip = 0; trip < trips; trip++) {
+                copy(loop, Expr.Literal.of((int) (lo + trip * step)), statements);
+            }
+            program.remark(loop.line, format("{0}: {1} iterations unrolled", NAME, trips));
+            return statements;
+        }
+        for (int factor : FACTORS) {
+            //at least twice through, or it's no longer worth a loop
+            if (factor * size <= limit && trips >= 2 * factor) {
+                long mainTrips = trips / factor * factor;
+                Block body = new Block();
+                Expr.VarRef variable = new Expr.VarRef(loop.variable, Type.INT);
+                for (int k = 0; k < factor; k++) {
+                    Expr value = k == 0
+                        ? variable
+                        : new Expr.Binary("+", variable, Expr.Literal.of((int) (k * step)));
+                    copy(loop, value, body.statements);
+                }
+                statements.add(
+                    new Stmt.ForRange(
+                        loop.line,
+                        loop.variable,
+                        loop.lo,
+                        Expr.Literal.of((int) (lo + mainTrips * step)),
+                        Expr.Literal.of((int) (factor * step)),
+                        body
+                    )
+                );
+                for (long trip = mainTrips; trip < trips; trip++) {
+                    copy(loop, Expr.Literal.of((int) (lo + trip * step)), statements);
+                }
+                program.remark(loop.line, format("{0}: unrolled by {1}", NAME, factor));
+                return statements;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return Whether the loop's variable can be replaced by what it holds.
+     */
+    private static boolean canSubstitute(Stmt.ForRange loop) {
+        boolean[] can = { true };
+        loop.body.forEachStatement(s -> {
+            if (s instanceof Stmt.Assign && s.target().equals(loop.variable)) {
+                can[0] = false;
+            } else if (s instanceof Stmt.While) {
+                can[0] &= !reads(((Stmt.While) s).condition, loop.variable);
+            }
+        });
+        return can[0];
+    }
+
+    private static boolean reads(Expr e, String variable) {
+        Set<String> names = new HashSet<>();
+        e.collectVariables(names);
+        return names.contains(variable);
+    }
+
+    private static int size(Block block) {
+        int[] size = { 0 };
+        block.forEachStatement(s -> size[0]++);
+        return size[0];
+    }
+
+    /**
+     * Adds a copy of the body of the loop, with the variable replaced by the
+     * given value. The copy goes in a block of its own if it declares
+     * anything, so that the copies don't clash.
+     */
+    private static void copy(Stmt.ForRange loop, Expr value, List<Stmt> statements) {
+        Block copy = loop.body.copy();
+        UnaryOperator<Expr> substitute = e ->
+            e instanceof Expr.VarRef && ((Expr.VarRef) e).name.equals(loop.variable)
+                ? value
+                : ConstantFolding.fold(e);
+        copy.forEachStatement(s -> ConstantFolding.rewrite(s, substitute));
+        for (Stmt s : copy.statements) {
+            if (s instanceof Stmt.Declare) {
+                statements.add(new Stmt.Scope(loop.line, copy));
+                return;
+            }
+        }
+        statements.addAll(copy.statements);
+    }
+}
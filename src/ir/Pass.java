@@ -0,0 +1,35 @@
+package ir;
+
+/**
+ * Something done to a whole Program, like an optimization. Passes are
+ * shared by every translation, even ones running at the same time, so
+ * anything a pass works out belongs in the Program, not in the pass.
+ */
+public interface Pass {
+    /**
+     * @return The name the pass is turned on and off by.
+     */
+    String name();
+
+    /**
+     * @return Whether the pass runs unless it's turned off.
+     */
+    default boolean enabledByDefault() {
+        return true;
+    }
+
+    /**
+     * @return The name, along with anything the pass was configured with
+     * that changes what it does, for telling apart Java generated with
+     * different configurations.
+     */
+    default String signature() {
+        return name();
+    }
+
+    /**
+     * Does whatever the pass does to the program.
+     * @param program The program.
+     */
+    void run(Program program);
+}
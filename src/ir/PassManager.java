@@ -0,0 +1,237 @@
+package ir;
+
+import static java.text.MessageFormat.format;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Runs passes over a Program in the order they were registered, skipping
+ * the ones that are turned off, and times each one. Emission always runs
+ * last, so what comes out is the Java for the program as the passes left it.
+ *
+ * A PassManager is configured once, from command line flags for example,
+ * and then copied for every translation, since the timings belong to one
+ * translation. The passes themselves are shared.
+ */
+public class PassManager {
+
+    private Pass emitter = new JavaEmitter();
+    private final List<Pass> passes = new ArrayList<>();
+    private final Set<String> enabled = new LinkedHashSet<>();
+    private final Map<String, Long> timings = new LinkedHashMap<>();
+    private List<String> remarks = new ArrayList<>();
+
+    /**
+     * @return A PassManager with every pass the translator comes with,
+     * turned on or off by default.
+     */
+    public static PassManager standard() {
+        PassManager passes = new PassManager();
+        passes.register(new ConstantFolding());
+        passes.register(new ConstantPropagation());
+        passes.register(new LoopUnrolling());
+        passes.register(new DeadCodeElimination());
+        passes.register(new PrintCoalescing());
+        passes.register(new StrengthReduction());
+        passes.register(new LoopInvariantHoisting());
+        passes.register(new BitPacking());
+        passes.register(new RayNarrowing());
+        return passes;
+    }
+
+    /**
+     * Adds a pass to run after every pass registered so far.
+     * @param pass The pass.
+     * @throws IllegalArgumentException If a pass by that name is registered.
+     */
+    public void register(Pass pass) {
+        register(passes.size(), pass);
+    }
+
+    /**
+     * Adds a pass to run right before another.
+     * @param name The name of the pass to run it before.
+     * @param pass The pass.
+     * @throws IllegalArgumentException If there's no pass by that name, or
+     * there already is one by the new pass's name.
+     */
+    public void registerBefore(String name, Pass pass) {
+        register(indexOf(name), pass);
+    }
+
+    private void register(int index, Pass pass) {
+        if (pass.name().equals(JavaEmitter.NAME) || find(pass.name()) != null) {
+            throw new IllegalArgumentException("There already is a pass named " + pass.name());
+        }
+        passes.add(index, pass);
+        if (pass.enabledByDefault()) {
+            enabled.add(pass.name());
+        }
+    }
+
+    /**
+     * Puts a pass in place of the one by the same name, which is how a pass
+     * is configured differently, emission included. Whether it runs stays
+     * as it was.
+     * @param pass The pass.
+     * @throws IllegalArgumentException If there's no pass by that name.
+     */
+    public void replace(Pass pass) {
+        if (pass.name().equals(JavaEmitter.NAME)) {
+            emitter = pass;
+        } else {
+            passes.set(indexOf(pass.name()), pass);
+        }
+    }
+
+    /**
+     * Turns a pass on or off.
+     * @param name The pass's name.
+     * @param on Whether it should run.
+     * @throws IllegalArgumentException If there's no pass by that name.
+     */
+    public void setEnabled(String name, boolean on) {
+        indexOf(name);
+        if (on) {
+            enabled.add(name);
+        } else {
+            enabled.remove(name);
+        }
+    }
+
+    /**
+     * Turns every pass on or off, apart from emission.
+     * @param on Whether they should run.
+     */
+    public void setAllEnabled(boolean on) {
+        for (Pass pass : passes) {
+            setEnabled(pass.name(), on);
+        }
+    }
+
+    /**
+     * @param name A pass's name.
+     * @return Whether it runs.
+     */
+    public boolean isEnabled(String name) {
+        return enabled.contains(name);
+    }
+
+    /**
+     * @return The name of every pass, in the order they run, apart from
+     * emission, which comes after all of them.
+     */
+    public List<String> names() {
+        List<String> names = new ArrayList<>(passes.size());
+        for (Pass pass : passes) {
+            names.add(pass.name());
+        }
+        return names;
+    }
+
+    /**
+     * @return The signatures of the passes that run, in order, which tells
+     * apart configurations that can generate different Java for the same
+     * file. Emission is only in it when it isn't configured the usual way.
+     */
+    public String signature() {
+        List<String> names = new ArrayList<>();
+        for (Pass pass : passes) {
+            if (enabled.contains(pass.name())) {
+                names.add(pass.signature());
+            }
+        }
+        if (!emitter.signature().equals(JavaEmitter.NAME)) {
+            names.add(emitter.signature());
+        }
+        return String.join(",", names);
+    }
+
+    /**
+     * @return A PassManager with the same passes, turned on and off the same
+     * way, but no timings.
+     */
+    public PassManager copy() {
+        PassManager copy = new PassManager();
+        copy.emitter = emitter;
+        copy.passes.addAll(passes);
+        copy.enabled.addAll(enabled);
+        return copy;
+    }
+
+    /**
+     * Runs every pass that's on over the program, then emission.
+     * @param program The program.
+     * @return The Java emission generated.
+     */
+    public String run(Program program) {
+        timings.clear();
+        for (Pass pass : passes) {
+            if (enabled.contains(pass.name())) {
+                run(pass, program);
+            }
+        }
+        run(emitter, program);
+        remarks = program.remarks();
+        return program.java();
+    }
+
+    private void run(Pass pass, Program program) {
+        long start = System.nanoTime();
+        pass.run(program);
+        timings.put(pass.name(), System.nanoTime() - start);
+    }
+
+    /**
+     * @return How long each pass took in the latest run, in nanoseconds, in
+     * the order they ran.
+     */
+    public Map<String, Long> timings() {
+        return new LinkedHashMap<>(timings);
+    }
+
+    /**
+     * @return What the passes noted doing in the latest run, each starting
+     * with the line of the Judo file it was done to.
+     */
+    public List<String> remarks() {
+        return remarks;
+    }
+
+    private Pass find(String name) {
+        for (Pass pass : passes) {
+            if (pass.name().equals(name)) {
+                return pass;
+            }
+        }
+        return null;
+    }
+
+    private int indexOf(String name) {
+        Pass pass = find(name);
+        if (pass == null) {
+            String known = passes.isEmpty() ? "none" : String.join(", ", names());
+            throw new IllegalArgumentException(
+                format("Unknown pass `{0}`. Passes are: {1}", name, known)
+            );
+        }
+        return passes.indexOf(pass);
+    }
+
+    /**
+     * @return A human-readable summary of how long each pass took.
+     */
+    @Override
+    public String toString() {
+        List<String> parts = new ArrayList<>(timings.size());
+        for (Map.Entry<String, Long> timing : timings.entrySet()) {
+            parts.add(format("{0} {1,number,0.000} ms", timing.getKey(), timing.getValue() / 1e6));
+        }
+        return "Passes: " + String.join(", ", parts);
+    }
+}
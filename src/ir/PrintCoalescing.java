@@ -0,0 +1,124 @@
+package ir;
+
+import static java.text.MessageFormat.format;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import parser.Type;
+
+/**
+ * Merges prints of literals that come one after the other in the same
+ * block into one print of all their text, so `out(" ")` then `out("_")`
+ * becomes `out(" _")`. Runs never reach into or out of an if or a loop.
+ *
+ * A newline ends a run, since what println prints after the text depends on
+ * the platform, and a String literal can't say that. Folding first is what
+ * turns expressions like `2 * 3` into literals that can be merged.
+ */
+public class PrintCoalescing implements Pass {
+
+    public static final String NAME = "coalesce";
+
+    /**
+     * How long the Java text of a merged String can get, well under the
+     * 65535 bytes javac allows a constant, which unrolled loops could reach.
+     */
+    static final int MAX_LENGTH = 4096;
+
+    //an octal escape followed by a digit would become a longer escape
+    private static final Pattern OCTAL_ESCAPE_AT_END = Pattern.compile(".*\\\\[0-7]{1,2}");
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public void run(Program program) {
+        block(program.main, program);
+    }
+
+    private void block(Block block, Program program) {
+        List<Stmt> statements = new ArrayList<>(block.statements.size());
+        List<Stmt.Print> run = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        for (Stmt s : block.statements) {
+            for (Block inner : s.blocks()) {
+                block(inner, program);
+            }
+            String piece = s instanceof Stmt.Print ? text((Stmt.Print) s) : null;
+            if (piece == null || !canAppend(text, piece)) {
+                end(run, text, statements, program);
+            }
+            if (piece == null) {
+                statements.add(s);
+                continue;
+            }
+            run.add((Stmt.Print) s);
+            text.append(piece);
+            if (((Stmt.Print) s).newline) {
+                end(run, text, statements, program);
+            }
+        }
+        end(run, text, statements, program);
+        block.statements.clear();
+        block.statements.addAll(statements);
+    }
+
+    /**
+     * @return What the print prints before any newline, as it would be
+     * written in a Java String literal, or null if that isn't known.
+     */
+    private static String text(Stmt.Print print) {
+        Expr argument = print.argument;
+        if (argument == null) {
+            //print() with nothing to print doesn't compile, so leave it be
+            return print.newline ? "" : null;
+        } else if (!argument.isConstant()) {
+            return null;
+        } else if (argument.type == Type.STRING) {
+            String java = (String) ((Expr.Literal) argument).value;
+            return java.substring(1, java.length() - 1);
+        }
+        return String.valueOf(((Expr.Literal) argument).value);
+    }
+
+    private static boolean canAppend(StringBuilder text, String piece) {
+        if (text.length() + piece.length() > MAX_LENGTH) {
+            return false;
+        }
+        return (
+            piece.isEmpty() ||
+            piece.charAt(0) < '0' ||
+            piece.charAt(0) > '7' ||
+            !OCTAL_ESCAPE_AT_END.matcher(text).matches()
+        );
+    }
+
+    /**
+     * Adds the run of prints so far to the statements, as one print if
+     * there's more than one, and starts a new run.
+     */
+    private static void end(
+        List<Stmt.Print> run,
+        StringBuilder text,
+        List<Stmt> statements,
+        Program program
+    ) {
+        if (run.size() == 1) {
+            statements.add(run.get(0));
+        } else if (run.size() > 1) {
+            Stmt.Print first = run.get(0);
+            Stmt.Print last = run.get(run.size() - 1);
+            String java = "\"" + text + "\"";
+            Expr literal = text.length() == 0 && last.newline
+                ? null
+                : new Expr.Literal(Type.STRING, java, java);
+            statements.add(new Stmt.Print(first.line, literal, last.newline));
+            program.remark(first.line, format("{0}: {1} prints became one", NAME, run.size()));
+        }
+        run.clear();
+        text.setLength(0);
+    }
+}
@@ -0,0 +1,86 @@
+package ir;
+
+/**
+ * The Java of a class generated programs print ints and booleans through,
+ * which goes in every generated class that does, so the Java still compiles
+ * and runs on its own.
+ *
+ * PrintStream formats an int into a new String and then encodes it with the
+ * stream's charset. This writes the digits, or true or false, into a byte
+ * array it keeps reusing, and hands that to System.out as it is, since the
+ * digits are ASCII in any charset a console uses. It writes to System.out
+ * rather than a buffer of its own, so what it prints stays in order with
+ * Strings printed the usual way, and goes through whatever buffer main set
+ * up.
+ */
+final class PrintSupport {
+
+    //$ can't be in a Judo identifier, so this can't clash with a module
+    static final String CLASS_NAME = "$Out";
+
+    private static final String[] SOURCE = {
+        "private static final class " + CLASS_NAME + " {",
+        "",
+        "private static final byte[] NEWLINE = System.lineSeparator().getBytes();",
+        "private static final byte[] TRUE = { 't', 'r', 'u', 'e' };",
+        "private static final byte[] FALSE = { 'f', 'a', 'l', 's', 'e' };",
+        "//Integer.MIN_VALUE takes 11, and the newline is always right after",
+        "private static final int END = 11;",
+        "private static final byte[] BUFFER = new byte[END + NEWLINE.length];",
+        "",
+        "static {",
+        "System.arraycopy(NEWLINE, 0, BUFFER, END, NEWLINE.length);",
+        "}",
+        "",
+        "static void print(int n) {",
+        "write(digits(n), false);",
+        "}",
+        "",
+        "static void println(int n) {",
+        "write(digits(n), true);",
+        "}",
+        "",
+        "static void print(boolean b) {",
+        "write(copy(b ? TRUE : FALSE), false);",
+        "}",
+        "",
+        "static void println(boolean b) {",
+        "write(copy(b ? TRUE : FALSE), true);",
+        "}",
+        "",
+        "//works with the negative, since -Integer.MIN_VALUE doesn't fit",
+        "private static int digits(int n) {",
+        "int start = END;",
+        "int negative = n < 0 ? n : -n;",
+        "do {",
+        "BUFFER[--start] = (byte) ('0' - negative % 10);",
+        "negative /= 10;",
+        "} while (negative != 0);",
+        "if (n < 0) {",
+        "BUFFER[--start] = '-';",
+        "}",
+        "return start;",
+        "}",
+        "",
+        "private static int copy(byte[] text) {",
+        "System.arraycopy(text, 0, BUFFER, END - text.length, text.length);",
+        "return END - text.length;",
+        "}",
+        "",
+        "private static void write(int start, boolean newline) {",
+        "int end = newline ? END + NEWLINE.length : END;",
+        "System.out.write(BUFFER, start, end - start);",
+        "}",
+        "}",
+    };
+
+    private PrintSupport() {}
+
+    /**
+     * @param indent The unit of indentation to indent it with.
+     * @return The class, indented as a member of the generated class.
+     */
+    static String source(String indent) {
+        return JavaEmitter.member(SOURCE, indent);
+    }
+}
@@ -0,0 +1,107 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The IR of a whole Judo file: the body of its main method, and what the
+ * passes run over it have produced.
+ */
+public class Program {
+
+    public final Block main;
+    public final String indent;
+    private final List<String> remarks = new ArrayList<>();
+    private String java;
+    private String members = "";
+    private final Set<String> packed = new HashSet<>();
+    private final Map<String, String> narrowed = new HashMap<>();
+
+    /**
+     * @param main The body of main.
+     * @param indent The unit of indentation the Judo file uses, which the
+     *               Java is indented with too.
+     */
+    public Program(Block main, String indent) {
+        this.main = main;
+        this.indent = indent;
+    }
+
+    /**
+     * Notes something a pass did, for whoever wants to know.
+     * @param line The line of the Judo file it was done to.
+     * @param remark What was done.
+     */
+    public synchronized void remark(int line, String remark) {
+        remarks.add(line + ": " + remark);
+    }
+
+    /**
+     * @return Everything passes noted doing, in the order they did it.
+     */
+    public synchronized List<String> remarks() {
+        return Collections.unmodifiableList(new ArrayList<>(remarks));
+    }
+
+    /**
+     * Has a boolean ray variable stored as packed bits from now on.
+     * @param ray The variable's name, which is declared once.
+     */
+    public void pack(String ray) {
+        packed.add(ray);
+    }
+
+    /**
+     * @param variable A variable's name.
+     * @return Whether it's a boolean ray stored as packed bits.
+     */
+    public boolean isPacked(String variable) {
+        return packed.contains(variable);
+    }
+
+    /**
+     * Has an int ray variable stored as a narrower primitive from now on.
+     * @param ray The variable's name, which is declared once.
+     * @param elementType The Java type of its elements, byte or short.
+     */
+    public void narrow(String ray, String elementType) {
+        narrowed.put(ray, elementType);
+    }
+
+    /**
+     * @param variable A variable's name.
+     * @return The Java type of its elements if it's an int ray stored as a
+     * narrower primitive, or null.
+     */
+    public String narrowedType(String variable) {
+        return narrowed.get(variable);
+    }
+
+    /**
+     * @return The Java the emission pass generated, or null if it hasn't run.
+     */
+    public String java() {
+        return java;
+    }
+
+    void setJava(String java) {
+        this.java = java;
+    }
+
+    /**
+     * @return Java the emission pass generated to go in the class next to
+     * main, which main needs to run, or nothing.
+     */
+    public String members() {
+        return members;
+    }
+
+    void setMembers(String members) {
+        this.members = members;
+    }
+}
@@ -0,0 +1,296 @@
+package ir;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import parser.Type;
+
+/**
+ * What values int expressions can have, as far as can be told without
+ * running the program. Passes use it to know when rewriting an expression
+ * doesn't change what it evaluates to, like when it can't be negative.
+ *
+ * Only variables whose value is the same every time they're read count:
+ * range variables that are never assigned, and lets that are never assigned
+ * again, whose names have to be declared once in the whole program, like
+ * ConstantPropagation needs, so that a name always means the same variable.
+ * Range variables are known inside their loop, which passes walking the
+ * program get with inside. Anything that can overflow could be any int.
+ *
+ * Elements of int rays can be known too, when a pass like RayNarrowing
+ * already worked out what every one of them can be. Then so are reads of
+ * them, and the variable of a loop over one of them.
+ */
+public final class Ranges {
+
+    private final Map<String, Range> lets; //shared by every scope
+    private final Map<String, Range> loops = new HashMap<>();
+    private final Set<String> assigned;
+    private final Map<String, Range> rays;
+
+    private Ranges(Map<String, Range> lets, Set<String> assigned, Map<String, Range> rays) {
+        this.lets = lets;
+        this.assigned = assigned;
+        this.rays = rays;
+    }
+
+    /**
+     * @param program The program.
+     * @return The ranges of the variables in main itself.
+     */
+    public static Ranges of(Program program) {
+        return of(program, Collections.emptyMap());
+    }
+
+    /**
+     * @param program The program.
+     * @param rays What the elements of int rays can be, by the name of the
+     *             variable holding them, which has to be declared once.
+     * @return The ranges of the variables in main itself.
+     */
+    public static Ranges of(Program program, Map<String, Range> rays) {
+        Map<String, Integer> declarations = new HashMap<>();
+        Set<String> assigned = new HashSet<>();
+        program.main.forEachStatement(s -> {
+            for (String name : declaredBy(s)) {
+                declarations.merge(name, 1, Integer::sum);
+            }
+            if (s instanceof Stmt.Assign) {
+                assigned.add(s.target());
+            }
+        });
+        Ranges ranges = new Ranges(new HashMap<>(), assigned, rays);
+        ranges.collect(program.main, declarations);
+        return ranges;
+    }
+
+    /**
+     * Finds the range of every let that counts, in the order they're
+     * written, since a variable is declared before anything reads it.
+     */
+    private void collect(Block block, Map<String, Integer> declarations) {
+        for (Stmt s : block.statements) {
+            if (s instanceof Stmt.Declare && ((Stmt.Declare) s).type == Type.INT) {
+                String name = s.target();
+                if (declarations.get(name) == 1 && !assigned.contains(name)) {
+                    lets.put(name, of(((Stmt.Declare) s).value));
+                }
+            }
+            for (Block inner : s.blocks()) {
+                inside(s).collect(inner, declarations);
+            }
+        }
+    }
+
+    private static Iterable<String> declaredBy(Stmt s) {
+        if (s instanceof Stmt.Declare) {
+            return Collections.singleton(s.target());
+        } else if (s instanceof Stmt.ForRange) {
+            return Collections.singleton(((Stmt.ForRange) s).variable);
+        } else if (s instanceof Stmt.ForEach) {
+            return Collections.singleton(((Stmt.ForEach) s).variable);
+        } else if (s instanceof Stmt.Import) {
+            return ((Stmt.Import) s).exports.keySet();
+        }
+        return Collections.emptySet();
+    }
+
+    /**
+     * @param s A statement in the scope of these ranges.
+     * @return The ranges in its blocks, which know its variable if it's a
+     * range, or a loop over a ray whose elements are known.
+     */
+    public Ranges inside(Stmt s) {
+        String variable;
+        Range range;
+        if (s instanceof Stmt.ForRange) {
+            variable = ((Stmt.ForRange) s).variable;
+            range = ofLoop((Stmt.ForRange) s);
+        } else if (s instanceof Stmt.ForEach) {
+            variable = ((Stmt.ForEach) s).variable;
+            range = ofElements(((Stmt.ForEach) s).ray);
+        } else {
+            return this;
+        }
+        if (assigned.contains(variable) || range == null) {
+            return this;
+        }
+        Ranges inner = new Ranges(lets, assigned, rays);
+        inner.loops.putAll(loops);
+        inner.loops.put(variable, range);
+        return inner;
+    }
+
+    /**
+     * @return What the elements of the ray can be, or null if that isn't
+     * known.
+     */
+    private Range ofElements(Expr ray) {
+        return ray instanceof Expr.VarRef ? rays.get(((Expr.VarRef) ray).name) : null;
+    }
+
+    /**
+     * A range variable starts at lo and only goes up, staying under hi, as
+     * long as adding the step to the last value under hi can't overflow.
+     */
+    private Range ofLoop(Stmt.ForRange loop) {
+        Range lo = of(loop.lo);
+        Range hi = of(loop.hi);
+        Range step = of(loop.step);
+        if (step.min < 1 || hi.max - 1 + step.max > Integer.MAX_VALUE) {
+            return Range.ANY;
+        }
+        return Range.of(lo.min, Math.max(lo.min, hi.max - 1));
+    }
+
+    /**
+     * @param e An int expression.
+     * @return What it can evaluate to.
+     */
+    public Range of(Expr e) {
+        if (e.type != Type.INT) {
+            return Range.ANY;
+        } else if (e instanceof Expr.Literal) {
+            int value = ((Expr.Literal) e).intValue();
+            return Range.of(value, value);
+        } else if (e instanceof Expr.VarRef) {
+            String name = ((Expr.VarRef) e).name;
+            Range range = loops.containsKey(name) ? loops.get(name) : lets.get(name);
+            return range == null ? Range.ANY : range;
+        } else if (e instanceof Expr.Unary) {
+            Range operand = of(((Expr.Unary) e).operand);
+            return Range.of(-operand.max, -operand.min);
+        } else if (e instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) e;
+            return of(binary.op, of(binary.left), of(binary.right), binary.right);
+        } else if (e instanceof Expr.Index) {
+            Range elements = ofElements(((Expr.Index) e).ray);
+            return elements == null ? Range.ANY : elements;
+        } else if (e instanceof Expr.GridSize) {
+            //it throws unless both are at least 0 and the product fits
+            Range rows = of(((Expr.GridSize) e).rows);
+            Range columns = of(((Expr.GridSize) e).columns);
+            long min = Math.max(0, rows.min) * Math.max(0, columns.min);
+            long max = Math.max(0, rows.max) * Math.max(0, columns.max);
+            return Range.of(Math.min(min, Integer.MAX_VALUE), Math.min(max, Integer.MAX_VALUE));
+        }
+        return Range.ANY;
+    }
+
+    private static Range of(String op, Range l, Range r, Expr right) {
+        switch (op) {
+            case "+":
+                return Range.of(l.min + r.min, l.max + r.max);
+            case "-":
+                return Range.of(l.min - r.max, l.max - r.min);
+            case "*":
+                return Range.hull(l.min * r.min, l.min * r.max, l.max * r.min, l.max * r.max);
+            case "/":
+                if (r.min <= 0 && r.max >= 0) {
+                    return Range.ANY;
+                }
+                return Range.hull(l.min / r.min, l.min / r.max, l.max / r.min, l.max / r.max);
+            case "%":
+                return remainder(l, r);
+            case "&":
+                if (l.min >= 0 || r.min >= 0) {
+                    long max = l.min < 0 ? r.max : r.min < 0 ? l.max : Math.min(l.max, r.max);
+                    return Range.of(0, max);
+                }
+                return Range.ANY;
+            case "<<":
+            case ">>":
+            case ">>>":
+                if (!right.isConstant()) {
+                    return Range.ANY;
+                }
+                int shift = ((Expr.Literal) right).intValue() & 31;
+                if (op.equals("<<")) {
+                    return Range.of(l.min << shift, l.max << shift);
+                } else if (op.equals(">>") || l.min >= 0) {
+                    return Range.of(l.min >> shift, l.max >> shift);
+                }
+                return shift == 0 ? Range.ANY : Range.of(0, 0xFFFFFFFFL >>> shift);
+            default:
+                return Range.ANY;
+        }
+    }
+
+    /**
+     * A remainder takes the sign of the left, and is closer to zero than
+     * the right.
+     */
+    private static Range remainder(Range l, Range r) {
+        long bound = Math.max(Math.abs(r.min), Math.abs(r.max)) - 1;
+        if (bound < 0) {
+            return Range.ANY; //always divides by zero
+        }
+        return Range.of(
+            l.min >= 0 ? 0 : Math.max(l.min, -bound),
+            l.max <= 0 ? 0 : Math.min(l.max, bound)
+        );
+    }
+
+    /**
+     * @param e An int expression.
+     * @return Whether it's never negative.
+     */
+    public boolean isNonNegative(Expr e) {
+        return of(e).min >= 0;
+    }
+
+    /**
+     * The smallest and largest value something can have, both included.
+     */
+    public static final class Range {
+
+        public static final Range ANY = new Range(Integer.MIN_VALUE, Integer.MAX_VALUE);
+
+        public final long min;
+        public final long max;
+
+        private Range(long min, long max) {
+            this.min = min;
+            this.max = max;
+        }
+
+        /**
+         * @return The range from min to max, or ANY if that doesn't fit in
+         * an int, since the arithmetic it came from overflows.
+         */
+        static Range of(long min, long max) {
+            if (min < Integer.MIN_VALUE || max > Integer.MAX_VALUE) {
+                return ANY;
+            }
+            return new Range(min, max);
+        }
+
+        /**
+         * @return The smallest range with both this and the other in it.
+         */
+        Range union(Range other) {
+            return of(Math.min(min, other.min), Math.max(max, other.max));
+        }
+
+        /**
+         * @return Whether every value in the other range is in this one.
+         */
+        boolean contains(Range other) {
+            return min <= other.min && other.max <= max;
+        }
+
+        private static Range hull(long a, long b, long c, long d) {
+            return of(
+                Math.min(Math.min(a, b), Math.min(c, d)),
+                Math.max(Math.max(a, b), Math.max(c, d))
+            );
+        }
+
+        @Override
+        public String toString() {
+            return "[" + min + ", " + max + "]";
+        }
+    }
+}
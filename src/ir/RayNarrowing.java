@@ -0,0 +1,137 @@
+package ir;
+
+import static java.text.MessageFormat.format;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import parser.Type;
+
+/**
+ * Stores int rays whose elements always fit in a byte or a short as a
+ * byte[] or short[], so a board of cells that are only ever 0, 1 or 2
+ * takes a quarter of the memory, and a quarter of the cache. Reading an
+ * element widens it back to the same int, so nothing else changes.
+ *
+ * Like BitPacking, a ray is only narrowed if its variable is declared once
+ * in the whole program, only ever holds rays it made itself, with i{n} or a
+ * literal, and is only ever indexed or looped over. What its elements can
+ * be comes from Ranges: the 0s i{n} starts with, the literal's elements and
+ * every value stored into it. Stored values can read elements of rays too,
+ * so that starts out as just 0 and grows until every value stored fits in
+ * what was assumed, at which point nothing stored can ever leave it.
+ */
+public class RayNarrowing implements Pass {
+
+    public static final String NAME = "narrow";
+
+    //how many times what the elements can be grows before giving up
+    private static final int MAX_ROUNDS = 16;
+
+    private static final Ranges.Range BYTE = Ranges.Range.of(Byte.MIN_VALUE, Byte.MAX_VALUE);
+    private static final Ranges.Range SHORT = Ranges.Range.of(Short.MIN_VALUE, Short.MAX_VALUE);
+    private static final Ranges.Range ZERO = Ranges.Range.of(0, 0);
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public void run(Program program) {
+        Map<String, Integer> declarations = new HashMap<>();
+        Set<String> unnarrowable = new HashSet<>();
+        Set<String> rays = new HashSet<>();
+        program.main.forEachStatement(s -> {
+            if (s instanceof Stmt.Declare) {
+                declarations.merge(s.target(), 1, Integer::sum);
+            } else if (s instanceof Stmt.ForEach) {
+                declarations.merge(((Stmt.ForEach) s).variable, 1, Integer::sum);
+            } else if (s instanceof Stmt.Import) {
+                for (String name : ((Stmt.Import) s).exports.keySet()) {
+                    declarations.merge(name, 1, Integer::sum);
+                }
+            }
+            boolean stores = s instanceof Stmt.Declare || s instanceof Stmt.Assign;
+            if (stores && s.expressions().get(0).type.listOf == Type.INT) {
+                if (!BitPacking.isRay(s.expressions().get(0))) {
+                    unnarrowable.add(s.target());
+                } else if (s instanceof Stmt.Declare) {
+                    rays.add(s.target());
+                }
+            }
+            BitPacking.reads(s, unnarrowable);
+        });
+        rays.removeIf(name -> declarations.get(name) != 1 || unnarrowable.contains(name));
+        Map<String, Ranges.Range> elements = elements(program, rays);
+        program.main.forEachStatement(s -> {
+            if (s instanceof Stmt.Declare && elements.containsKey(s.target())) {
+                String type = BYTE.contains(elements.get(s.target())) ? "byte" : "short";
+                program.narrow(s.target(), type);
+                program.remark(s.line, format("{0}: `{1}` is a {2}[]", NAME, s.target(), type));
+            }
+        });
+    }
+
+    /**
+     * @return What the elements of every ray that fit in a short can be.
+     */
+    private static Map<String, Ranges.Range> elements(Program program, Set<String> rays) {
+        Map<String, Ranges.Range> assumed = new HashMap<>();
+        for (String ray : rays) {
+            assumed.put(ray, ZERO);
+        }
+        for (int round = 0; round < MAX_ROUNDS; round++) {
+            Map<String, Ranges.Range> stored = new HashMap<>(assumed);
+            stores(program.main, Ranges.of(program, assumed), stored);
+            boolean grew = false;
+            for (Map.Entry<String, Ranges.Range> ray : stored.entrySet()) {
+                if (!assumed.get(ray.getKey()).contains(ray.getValue())) {
+                    //past a short it can't be narrowed, and it can't grow past any int
+                    boolean fits = SHORT.contains(ray.getValue());
+                    ray.setValue(fits ? ray.getValue() : Ranges.Range.ANY);
+                    grew = true;
+                }
+            }
+            if (!grew) {
+                stored.values().removeIf(range -> !SHORT.contains(range));
+                return stored;
+            }
+            assumed = stored;
+        }
+        return new HashMap<>();
+    }
+
+    /**
+     * Grows what the elements of each ray can be by what the block stores
+     * into it.
+     */
+    private static void stores(Block block, Ranges ranges, Map<String, Ranges.Range> stored) {
+        for (Stmt s : block.statements) {
+            if (s instanceof Stmt.IndexAssign) {
+                Stmt.IndexAssign assign = (Stmt.IndexAssign) s;
+                store(assign.ray.name, ranges.of(assign.value), stored);
+            } else if (s instanceof Stmt.Declare || s instanceof Stmt.Assign) {
+                Expr value = s.expressions().get(0);
+                if (value instanceof Expr.NewRay) {
+                    store(s.target(), ZERO, stored);
+                } else if (value instanceof Expr.RayLiteral) {
+                    for (Expr element : ((Expr.RayLiteral) value).elements) {
+                        store(s.target(), ranges.of(element), stored);
+                    }
+                }
+            }
+            for (Block inner : s.blocks()) {
+                stores(inner, ranges.inside(s), stored);
+            }
+        }
+    }
+
+    private static void store(String ray, Ranges.Range value, Map<String, Ranges.Range> stored) {
+        Ranges.Range elements = stored.get(ray);
+        if (elements != null) {
+            stored.put(ray, elements.union(value));
+        }
+    }
+}
@@ -0,0 +1,500 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+import parser.Type;
+
+/**
+ * A statement in the IR, which remembers the line of the Judo file it came
+ * from so that passes can say where they did something. Unlike expressions,
+ * statements are mutable: passes replace their expressions in place, and
+ * add and remove statements from the blocks they're in.
+ */
+public abstract class Stmt {
+
+    public final int line;
+
+    Stmt(int line) {
+        this.line = line;
+    }
+
+    /**
+     * @return The expressions directly in this statement, not counting the
+     * ones in its blocks.
+     */
+    public List<Expr> expressions() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Rewrites every expression directly in this statement, not counting the
+     * ones in its blocks, with Expr.rewrite.
+     * @param f The rewrite.
+     */
+    public void rewriteExpressions(UnaryOperator<Expr> f) {
+        replaceExpressions(e -> e.rewrite(f));
+    }
+
+    /**
+     * Replaces every expression directly in this statement, not counting the
+     * ones in its blocks, with what the given function returns for it as a
+     * whole, for passes that look at expressions from the top down.
+     * @param f The replacement.
+     */
+    public void replaceExpressions(UnaryOperator<Expr> f) {}
+
+    /**
+     * @return A copy of this statement, with copies of its blocks, that
+     * passes can change without changing this one. Expressions are shared,
+     * since they can't change.
+     */
+    public abstract Stmt copy();
+
+    /**
+     * @return The blocks this statement is made of, like the body of a loop.
+     */
+    public List<Block> blocks() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * @return The name of the variable this statement declares or assigns
+     * as a whole, or null if it doesn't.
+     */
+    public String target() {
+        return null;
+    }
+
+    /**
+     * let name = value, which declares a variable.
+     */
+    public static class Declare extends Stmt {
+
+        public final Type type;
+        public final String name;
+        public Expr value;
+        public final boolean isFinal; //only for variables passes introduce
+
+        public Declare(int line, Type type, String name, Expr value) {
+            this(line, type, name, value, false);
+        }
+
+        public Declare(int line, Type type, String name, Expr value, boolean isFinal) {
+            super(line);
+            this.type = type;
+            this.name = name;
+            this.value = value;
+            this.isFinal = isFinal;
+        }
+
+        @Override
+        public List<Expr> expressions() {
+            return Collections.singletonList(value);
+        }
+
+        @Override
+        public void replaceExpressions(UnaryOperator<Expr> f) {
+            value = f.apply(value);
+        }
+
+        @Override
+        public String target() {
+            return name;
+        }
+
+        @Override
+        public Stmt copy() {
+            return new Declare(line, type, name, value, isFinal);
+        }
+    }
+
+    /**
+     * name = value, which reassigns a variable.
+     */
+    public static class Assign extends Stmt {
+
+        public final Type type;
+        public final String name;
+        public Expr value;
+
+        public Assign(int line, Type type, String name, Expr value) {
+            super(line);
+            this.type = type;
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        public List<Expr> expressions() {
+            return Collections.singletonList(value);
+        }
+
+        @Override
+        public void replaceExpressions(UnaryOperator<Expr> f) {
+            value = f.apply(value);
+        }
+
+        @Override
+        public String target() {
+            return name;
+        }
+
+        @Override
+        public Stmt copy() {
+            return new Assign(line, type, name, value);
+        }
+    }
+
+    /**
+     * ray[index] = value.
+     */
+    public static class IndexAssign extends Stmt {
+
+        public final Expr.VarRef ray;
+        public Expr index;
+        public Expr value;
+
+        public IndexAssign(int line, Expr.VarRef ray, Expr index, Expr value) {
+            super(line);
+            this.ray = ray;
+            this.index = index;
+            this.value = value;
+        }
+
+        @Override
+        public List<Expr> expressions() {
+            List<Expr> expressions = new ArrayList<>(3);
+            expressions.add(ray);
+            expressions.add(index);
+            expressions.add(value);
+            return expressions;
+        }
+
+        @Override
+        public void replaceExpressions(UnaryOperator<Expr> f) {
+            index = f.apply(index);
+            value = f.apply(value);
+        }
+
+        @Override
+        public Stmt copy() {
+            return new IndexAssign(line, ray, index, value);
+        }
+    }
+
+    /**
+     * out(argument) and outln(argument).
+     */
+    public static class Print extends Stmt {
+
+        public Expr argument; //null for outln()
+        public final boolean newline;
+
+        public Print(int line, Expr argument, boolean newline) {
+            super(line);
+            this.argument = argument;
+            this.newline = newline;
+        }
+
+        @Override
+        public List<Expr> expressions() {
+            return argument == null
+                ? Collections.<Expr>emptyList()
+                : Collections.singletonList(argument);
+        }
+
+        @Override
+        public void replaceExpressions(UnaryOperator<Expr> f) {
+            if (argument != null) {
+                argument = f.apply(argument);
+            }
+        }
+
+        @Override
+        public Stmt copy() {
+            return new Print(line, argument, newline);
+        }
+    }
+
+    /**
+     * An if, and the elf and else arms that follow it, in the order they're
+     * written.
+     */
+    public static class If extends Stmt {
+
+        public final List<Arm> arms = new ArrayList<>();
+
+        public If(int line) {
+            super(line);
+        }
+
+        /**
+         * @return Whether the arms are an if, any number of elfs, and at most
+         * one else, last. Judo lets an elf follow an else, which Java doesn't.
+         */
+        public boolean isWellFormed() {
+            for (int i = 0; i < arms.size() - 1; i++) {
+                if (arms.get(i).condition == null) {
+                    return false;
+                }
+            }
+            return !arms.isEmpty() && arms.get(0).condition != null;
+        }
+
+        @Override
+        public List<Expr> expressions() {
+            List<Expr> expressions = new ArrayList<>(arms.size());
+            for (Arm arm : arms) {
+                if (arm.condition != null) {
+                    expressions.add(arm.condition);
+                }
+            }
+            return expressions;
+        }
+
+        @Override
+        public void replaceExpressions(UnaryOperator<Expr> f) {
+            for (Arm arm : arms) {
+                if (arm.condition != null) {
+                    arm.condition = f.apply(arm.condition);
+                }
+            }
+        }
+
+        @Override
+        public List<Block> blocks() {
+            List<Block> blocks = new ArrayList<>(arms.size());
+            for (Arm arm : arms) {
+                blocks.add(arm.body);
+            }
+            return blocks;
+        }
+
+        @Override
+        public Stmt copy() {
+            If copy = new If(line);
+            for (Arm arm : arms) {
+                copy.arms.add(new Arm(arm.line, arm.condition, arm.body.copy()));
+            }
+            return copy;
+        }
+    }
+
+    /**
+     * One arm of an If.
+     */
+    public static class Arm {
+
+        public final int line;
+        public Expr condition; //null for else
+        public final Block body;
+
+        public Arm(int line, Expr condition, Block body) {
+            this.line = line;
+            this.condition = condition;
+            this.body = body;
+        }
+    }
+
+    /**
+     * for variable in lo..hi[step].
+     */
+    public static class ForRange extends Stmt {
+
+        public final String variable;
+        public Expr lo;
+        public Expr hi;
+        public Expr step;
+        public final Block body;
+
+        public ForRange(int line, String variable, Expr lo, Expr hi, Expr step, Block body) {
+            super(line);
+            this.variable = variable;
+            this.lo = lo;
+            this.hi = hi;
+            this.step = step;
+            this.body = body;
+        }
+
+        @Override
+        public List<Expr> expressions() {
+            List<Expr> expressions = new ArrayList<>(3);
+            expressions.add(lo);
+            expressions.add(hi);
+            expressions.add(step);
+            return expressions;
+        }
+
+        @Override
+        public void replaceExpressions(UnaryOperator<Expr> f) {
+            lo = f.apply(lo);
+            hi = f.apply(hi);
+            step = f.apply(step);
+        }
+
+        @Override
+        public List<Block> blocks() {
+            return Collections.singletonList(body);
+        }
+
+        @Override
+        public Stmt copy() {
+            return new ForRange(line, variable, lo, hi, step, body.copy());
+        }
+    }
+
+    /**
+     * for variable in ray.
+     */
+    public static class ForEach extends Stmt {
+
+        public final String variable;
+        public final Expr ray;
+        public final Block body;
+
+        public ForEach(int line, String variable, Expr ray, Block body) {
+            super(line);
+            this.variable = variable;
+            this.ray = ray;
+            this.body = body;
+        }
+
+        @Override
+        public List<Expr> expressions() {
+            return Collections.singletonList(ray);
+        }
+
+        @Override
+        public List<Block> blocks() {
+            return Collections.singletonList(body);
+        }
+
+        @Override
+        public Stmt copy() {
+            return new ForEach(line, variable, ray, body.copy());
+        }
+    }
+
+    /**
+     * loop condition.
+     */
+    public static class While extends Stmt {
+
+        public Expr condition;
+        public final Block body;
+
+        public While(int line, Expr condition, Block body) {
+            super(line);
+            this.condition = condition;
+            this.body = body;
+        }
+
+        @Override
+        public List<Expr> expressions() {
+            return Collections.singletonList(condition);
+        }
+
+        @Override
+        public void replaceExpressions(UnaryOperator<Expr> f) {
+            condition = f.apply(condition);
+        }
+
+        @Override
+        public List<Block> blocks() {
+            return Collections.singletonList(body);
+        }
+
+        @Override
+        public Stmt copy() {
+            return new While(line, condition, body.copy());
+        }
+    }
+
+    /**
+     * A block on its own, which only some passes make, to keep what it
+     * declares to itself.
+     */
+    public static class Scope extends Stmt {
+
+        public final Block body;
+
+        public Scope(int line, Block body) {
+            super(line);
+            this.body = body;
+        }
+
+        @Override
+        public List<Block> blocks() {
+            return Collections.singletonList(body);
+        }
+
+        @Override
+        public Stmt copy() {
+            return new Scope(line, body.copy());
+        }
+    }
+
+    /**
+     * import module, which runs the module and declares what it exports.
+     */
+    public static class Import extends Stmt {
+
+        public final String className;
+        public final Map<String, Type> exports;
+
+        public Import(int line, String className, Map<String, Type> exports) {
+            super(line);
+            this.className = className;
+            this.exports = exports;
+        }
+
+        @Override
+        public Stmt copy() {
+            return new Import(line, className, exports);
+        }
+    }
+
+    /**
+     * Copies a top-level variable into the field a module exports it
+     * through, once the module's main is done.
+     */
+    public static class Export extends Stmt {
+
+        public final String className;
+        public final Expr.VarRef variable;
+
+        public Export(int line, String className, Expr.VarRef variable) {
+            super(line);
+            this.className = className;
+            this.variable = variable;
+        }
+
+        @Override
+        public List<Expr> expressions() {
+            return Collections.singletonList(variable);
+        }
+
+        @Override
+        public Stmt copy() {
+            return new Export(line, className, variable);
+        }
+    }
+
+    /**
+     * hallpass, which does nothing.
+     */
+    public static class Hallpass extends Stmt {
+
+        public Hallpass(int line) {
+            super(line);
+        }
+
+        @Override
+        public Stmt copy() {
+            return new Hallpass(line);
+        }
+    }
+}
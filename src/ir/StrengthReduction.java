@@ -0,0 +1,149 @@
+package ir;
+
+import static java.text.MessageFormat.format;
+
+import parser.Type;
+
+/**
+ * Rewrites int arithmetic by constants into cheaper operations that always
+ * give the same result, and remarks on every rewrite it makes.
+ *
+ * Multiplying by a power of two is a left shift, even when it overflows.
+ * Multiplying a variable by a sum or difference of two powers of two is
+ * the sum or difference of two shifts. Dividing by a power of two is a
+ * right shift, and mod by a power of two is a mask, but only when the left
+ * side can't be negative, since Java rounds towards zero rather than down.
+ * Whether mod by a power of two is zero doesn't depend on the sign, so
+ * that's always a mask.
+ */
+public class StrengthReduction implements Pass {
+
+    public static final String NAME = "strength";
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public void run(Program program) {
+        block(program.main, Ranges.of(program), program);
+    }
+
+    private void block(Block block, Ranges ranges, Program program) {
+        for (Stmt s : block.statements) {
+            s.rewriteExpressions(e -> {
+                Expr reduced = reduce(e, ranges);
+                if (reduced != e) {
+                    program.remark(
+                        s.line,
+                        format("{0}: `{1}` became `{2}`", NAME, e.toJava(), reduced.toJava())
+                    );
+                }
+                return reduced;
+            });
+            for (Block inner : s.blocks()) {
+                block(inner, ranges.inside(s), program);
+            }
+        }
+    }
+
+    /**
+     * @param e An expression whose children are already reduced.
+     * @param ranges The ranges of the variables in its scope.
+     * @return e, or what's cheaper to evaluate and always equal to it.
+     */
+    static Expr reduce(Expr e, Ranges ranges) {
+        if (!(e instanceof Expr.Binary)) {
+            return e;
+        }
+        Expr.Binary binary = (Expr.Binary) e;
+        if (binary.left.isConstant() && binary.right.isConstant()) {
+            return e; //fold's job
+        }
+        switch (binary.op) {
+            case "*":
+                if (binary.left.isConstant()) {
+                    return multiply(binary.right, (Expr.Literal) binary.left, e);
+                } else if (binary.right.isConstant()) {
+                    return multiply(binary.left, (Expr.Literal) binary.right, e);
+                }
+                return e;
+            case "/":
+            case "%":
+                int k = log2(binary.right);
+                if (k < 1 || !ranges.isNonNegative(binary.left)) {
+                    return e;
+                } else if (binary.op.equals("/")) {
+                    return new Expr.Binary(">>", binary.left, Expr.Literal.of(k));
+                }
+                return new Expr.Binary("&", binary.left, Expr.Literal.of((1 << k) - 1));
+            case "==":
+            case "!=":
+                if (isZero(binary.right) && isModOfPowerOfTwo(binary.left)) {
+                    return new Expr.Binary(binary.op, mask(binary.left), binary.right);
+                } else if (isZero(binary.left) && isModOfPowerOfTwo(binary.right)) {
+                    return new Expr.Binary(binary.op, binary.left, mask(binary.right));
+                }
+                return e;
+            default:
+                return e;
+        }
+    }
+
+    private static Expr multiply(Expr x, Expr.Literal factor, Expr e) {
+        int c = factor.intValue();
+        if (c <= 1) {
+            return e;
+        }
+        int a = 31 - Integer.numberOfLeadingZeros(c);
+        int b = Integer.numberOfTrailingZeros(c);
+        if (a == b) {
+            return shift(x, a);
+        } else if (!(x instanceof Expr.VarRef)) {
+            //anything else would be evaluated twice
+            return e;
+        } else if (Integer.bitCount(c) == 2) {
+            return new Expr.Binary("+", shift(x, a), shift(x, b));
+        } else if (a < 30 && Integer.bitCount(c + (1 << b)) == 1) {
+            //a run of ones, like 7 = 8 - 1
+            return new Expr.Binary("-", shift(x, a + 1), shift(x, b));
+        }
+        return e;
+    }
+
+    private static Expr shift(Expr x, int k) {
+        return k == 0 ? x : new Expr.Binary("<<", x, Expr.Literal.of(k));
+    }
+
+    private static Expr mask(Expr mod) {
+        Expr.Binary binary = (Expr.Binary) mod;
+        int mask = (1 << log2(binary.right)) - 1;
+        return new Expr.Binary("&", binary.left, Expr.Literal.of(mask));
+    }
+
+    private static boolean isModOfPowerOfTwo(Expr e) {
+        return (
+            e instanceof Expr.Binary &&
+            ((Expr.Binary) e).op.equals("%") &&
+            log2(((Expr.Binary) e).right) >= 1
+        );
+    }
+
+    private static boolean isZero(Expr e) {
+        return e.isConstant() && e.type == Type.INT && ((Expr.Literal) e).intValue() == 0;
+    }
+
+    /**
+     * @return k if e is the int literal 2 to the k, or -1.
+     */
+    private static int log2(Expr e) {
+        if (!e.isConstant() || e.type != Type.INT) {
+            return -1;
+        }
+        int value = ((Expr.Literal) e).intValue();
+        return value > 0 && Integer.bitCount(value) == 1
+            ? Integer.numberOfTrailingZeros(value)
+            : -1;
+    }
+}
@@ -0,0 +1,217 @@
+package parser;
+
+import static java.text.MessageFormat.format;
+
+import grammars.VarRule;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Remembers what the grammars had to say about expressions that were already
+ * seen during one translation, so that an expression like {@code i mod 2 == 0}
+ * that shows up a hundred times only goes through the grammar cascade once.
+ *
+ * Expressions are looked up by their text with leading and trailing spaces
+ * removed and runs of spaces outside of string literals collapsed into one, so
+ * {@code n  -  1} and {@code n - 1} are the same entry. Since what a grammar
+ * says about an expression depends on the variables in it, every entry also
+ * remembers which Variable each identifier in it resolved to when the entry
+ * was made, which works as the version of that binding. If any identifier
+ * resolves to a Variable of a different type now, or to nothing, because it
+ * was shadowed, went out of scope, or was declared since, the entry is
+ * dropped and the answer is worked out again. A binding that changed to a
+ * Variable of the same type doesn't change any answer, so the entry is kept,
+ * which is what lets the {@code x} declared in every iteration of a loop body
+ * share one entry.
+ *
+ * Safe to use from several threads at once, which parallel translation does.
+ */
+public class ExpressionCache {
+
+    /**
+     * Used in place of null answers, since the maps can't hold null.
+     */
+    private static final Object NULL = new Object();
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Gets the answer to a question about the given expression, working it out
+     * with compute if it isn't known yet for the current bindings.
+     * @param expression The expression the question is about.
+     * @param question What is being asked, like "type" or "java int". Answers
+     *                 to different questions about the same expression are
+     *                 kept separately.
+     * @param scopes The ScopeStack the expression would be validated against.
+     * @param compute Works out the answer, given the normalized expression. If
+     *                this throws, nothing is remembered.
+     * @param <T> The type of the answer.
+     * @return The answer, which may be null.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(
+        CharSequence expression,
+        String question,
+        ScopeStack scopes,
+        Function<String, T> compute
+    ) {
+        String normalized = normalize(expression);
+        Entry entry = entries.get(normalized);
+        if (entry == null || !entry.isCurrent(scopes)) {
+            entry = new Entry(normalized, scopes);
+            entries.put(normalized, entry);
+        }
+        Object answer = entry.answers.get(question);
+        if (answer != null) {
+            hits.increment();
+            return answer == NULL ? null : (T) answer;
+        }
+        misses.increment();
+        T computed = compute.apply(normalized);
+        entry.answers.put(question, computed == null ? NULL : computed);
+        return computed;
+    }
+
+    /**
+     * @return How many questions were answered from the cache.
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return How many questions had to be worked out.
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * Trims the expression and collapses runs of spaces into one space, except
+     * for those inside string literals, which are left alone.
+     * @param expression The expression to normalize.
+     * @return The normalized expression.
+     */
+    static String normalize(CharSequence expression) {
+        StringBuilder sb = new StringBuilder(expression.length());
+        boolean inString = false;
+        for (int i = 0; i < expression.length(); i++) {
+            char c = expression.charAt(i);
+            if (c == '"') {
+                inString = !inString;
+            } else if (c == ' ' && !inString) {
+                if (sb.length() == 0 || sb.charAt(sb.length() - 1) == ' ') {
+                    continue;
+                }
+            }
+            sb.append(c);
+        }
+        int end = sb.length();
+        while (end > 0 && sb.charAt(end - 1) == ' ') {
+            end--;
+        }
+        sb.setLength(end);
+        return sb.toString();
+    }
+
+    /**
+     * Finds every identifier in the given expression that could be a variable,
+     * skipping string literals and keywords.
+     * @param expression A normalized expression.
+     * @return The identifiers, in order of appearance, possibly repeated.
+     */
+    static List<String> identifiers(String expression) {
+        List<String> ids = new ArrayList<>();
+        boolean inString = false;
+        int i = 0;
+        while (i < expression.length()) {
+            char c = expression.charAt(i);
+            if (c == '"') {
+                inString = !inString;
+                i++;
+            } else if (!inString && (Character.isLetter(c) || c == '_')) {
+                int start = i;
+                while (i < expression.length() && isIdentifierChar(expression.charAt(i))) {
+                    i++;
+                }
+                String id = expression.substring(start, i);
+                if (!VarRule.RESERVED_KEYWORDS.contains(id) && !isOperatorKeyword(id)) {
+                    ids.add(id);
+                }
+            } else if (!inString && Character.isDigit(c)) {
+                //skip the whole number so it isn't mistaken for part of a name
+                while (i < expression.length() && isIdentifierChar(expression.charAt(i))) {
+                    i++;
+                }
+            } else {
+                i++;
+            }
+        }
+        return ids;
+    }
+
+    private static boolean isIdentifierChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    private static boolean isOperatorKeyword(String id) {
+        return id.equals("and") || id.equals("or") || id.equals("not");
+    }
+
+    /**
+     * @return A human-readable summary of how useful the cache was.
+     */
+    @Override
+    public String toString() {
+        long hits = hits();
+        long total = hits + misses();
+        double rate = total == 0 ? 0 : 100.0 * hits / total;
+        return format(
+            "Expression cache: {0} hits, {1} misses ({2,number,0.0}% hit rate)",
+            hits,
+            misses(),
+            rate
+        );
+    }
+
+    /**
+     * Everything known about one normalized expression, along with the
+     * bindings its identifiers had when it was learned.
+     */
+    private static class Entry {
+
+        final String[] identifiers;
+        final Variable[] bindings;
+        final Map<String, Object> answers = new ConcurrentHashMap<>();
+
+        Entry(String expression, ScopeStack scopes) {
+            List<String> ids = identifiers(expression);
+            this.identifiers = ids.toArray(new String[0]);
+            this.bindings = new Variable[identifiers.length];
+            for (int i = 0; i < identifiers.length; i++) {
+                bindings[i] = scopes.find(identifiers[i], false);
+            }
+        }
+
+        /**
+         * @param scopes The ScopeStack the expression is being used with.
+         * @return Whether every identifier still resolves to a Variable equal
+         * to the one it did when this entry was made.
+         */
+        boolean isCurrent(ScopeStack scopes) {
+            for (int i = 0; i < identifiers.length; i++) {
+                Variable current = scopes.find(identifiers[i], false);
+                if (current != bindings[i] && (current == null || !current.equals(bindings[i]))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
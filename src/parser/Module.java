@@ -0,0 +1,20 @@
+package parser;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Simple dataclass representing a translated Judo module: the Java class it
+ * was translated into, and the name and type of every variable it exports,
+ * which is every variable it declares at the top level.
+ */
+public class Module {
+
+    public final String className;
+    public final Map<String, Type> exports;
+
+    public Module(String className, Map<String, Type> exports) {
+        this.className = className;
+        this.exports = Collections.unmodifiableMap(exports);
+    }
+}
@@ -0,0 +1,15 @@
+package parser;
+
+/**
+ * Finds the module an import statement names. The Parser only knows about
+ * the file it's translating, so whoever runs it decides where modules live
+ * and whether they need translating first.
+ */
+public interface ModuleResolver {
+    /**
+     * @param name The module name, as written after import.
+     * @return The module, or null if there is no module by that name.
+     * @throws parser.errors.ParseError If the module exists but isn't valid.
+     */
+    Module resolve(String name);
+}
@@ -9,21 +9,38 @@ import grammars.RayGrammar;
 import grammars.StringGrammar;
 import grammars.VarGrammar;
 import grammars.VarRule;
+import ir.Block;
+import ir.Expr;
+import ir.ExprParser;
+import ir.JavaEmitter;
+import ir.PassManager;
+import ir.Program;
+import ir.Stmt;
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import parser.errors.IndentationError;
 import parser.errors.InvalidStatementError;
+import parser.errors.ParseError;
 import parser.errors.TypeError;
 import parser.errors.VariableError;
+import parser.events.Events;
 
 /**
  * This is the main parser class. It has some instance variables, but this whole
@@ -32,18 +49,24 @@ import parser.errors.VariableError;
  */
 public class Parser {
 
+    public static final String GENERATED_HEADER = "// GENERATED: ";
     private static final String COMMENT_SYMBOL = "?";
     private static final Pattern WS_YANK = Pattern.compile("(?<whitespace>[ \\t]+)(?<rest>.*)");
     private static final Pattern WS_SPLIT = Pattern.compile("(?<whitespace>[ \\t]*)(?<rest>.*)");
     private static final Pattern EMPTY_LINE = Pattern.compile("\\s*(\\?.*)?");
     private static final Pattern RAY_EXTRACTOR = Pattern.compile("\\[ *(?<innerRay>.*) *]");
+    //a grid is indexed with a column too, grid[i][j]
     private static final Pattern INDEXER_ACCESS = Pattern.compile(
-        " *(?<var>[\\w&&[^\\d]][\\w]{0,31}) *\\[ *(?<index>.*?) *]"
+        " *(?<var>[\\w&&[^\\d]][\\w]{0,31}) *\\[ *(?<index>.*?) *](\\[ *(?<column>.*?) *])?"
     );
     private static final Pattern INDEXER_ASSIGN = Pattern.compile(
-        " *(?<var>[\\w&&[^\\d]][\\w]{0,31}) *\\[ *(?<index>.*?) *] *= *(?<value>.+)"
+        " *(?<var>[\\w&&[^\\d]][\\w]{0,31}) *\\[ *(?<index>.*?) *](\\[ *(?<column>.*?) *])? *= *(?<value>.+)"
     );
-    private static final Pattern RAY_INIT = Pattern.compile(" *(?<type>[bsi])\\{ *(?<n>.*?) *} *");
+    //a grid has columns too, i{rows, columns}
+    private static final Pattern RAY_INIT = Pattern.compile(
+        " *(?<type>[bsi])\\{ *(?<n>.*?) *(, *(?<columns>.*?) *)?} *"
+    );
+    private static final Pattern READ_CALL = Pattern.compile(" *read(?<all>ints|int) *\\( *\\) *");
 
     private static final Pattern IF_STMT = Pattern.compile("[ \\t]*if +(?<condition>.*?) *: *");
     private static final Pattern ELF_STMT = Pattern.compile("[ \\t]*elf +(?<condition>.*?) *: *");
@@ -65,8 +88,13 @@ public class Parser {
         "[ \\t]*out(?<line>ln)?\\((?<argument>.*)\\)[ \\t]*"
     );
     private static final Pattern PASS_STMT = Pattern.compile("[ \\t]*hallpass[ \\t]*");
+    private static final Pattern IMPORT_STMT = Pattern.compile(
+        "[ \\t]*import +(?<module>[\\w&&[^\\d]]+[\\w]*)[ \\t]*"
+    );
 
     public static final Variable ARGOS = new Variable("argos", Type.INT_LIST);
+    private static final String MAIN_SIGNATURE =
+        "public static void main(String[] " + JavaEmitter.ARGS + ") ";
     private static final VarGrammar VAR_GRAMMAR = new VarGrammar();
     private static final StringGrammar STRING_GRAMMAR = new StringGrammar(VAR_GRAMMAR);
     private static final MathGrammar MATH_GRAMMAR = new MathGrammar(VAR_GRAMMAR);
@@ -80,6 +108,19 @@ public class Parser {
     private final List<Line> lines;
     private String whitespace;
     private String wsEnglishName;
+    private boolean checkOnly;
+    private ForkJoinPool pool;
+    private final List<ForkJoinTask<?>> deferredBlocks = new ArrayList<>();
+    private Map<String, Variable> sharedGlobals;
+    private ExpressionCache expressions = new ExpressionCache();
+    private int sourceLines;
+    private ModuleResolver modules;
+    private TranslationStats stats;
+    private String fileName = "";
+    private Map<String, Variable> globals;
+    private final Set<String> imported = new HashSet<>();
+    private Map<String, Type> exports = new TreeMap<>();
+    private PassManager passes = PassManager.standard();
 
     /**
      * Ingests the Judo file at the given filename. The file is broken down
@@ -90,45 +131,10 @@ public class Parser {
      */
     public Parser(String filename) {
         this.whitespace = this.wsEnglishName = "";
+        this.fileName = filename;
         lines = new ArrayList<>();
-        try {
-            FileReader fr = new FileReader(filename);
-            BufferedReader br = new BufferedReader(fr);
-            int lineNum = 0;
-            while (br.ready()) {
-                lineNum++;
-                String line = br.readLine();
-                if (EMPTY_LINE.matcher(line).matches()) {
-                    //lines of all whitespace or only comments are skipped
-                    continue;
-                }
-                StringBuilder sb = new StringBuilder(line);
-                Matcher wsm = WS_YANK.matcher(line);
-                if (
-                    wsm.matches() &&
-                    !wsm.group("rest").startsWith(COMMENT_SYMBOL) &&
-                    this.whitespace.isEmpty()
-                ) {
-                    //This finds the first instance of leading whitespace (that isn't a comment)
-                    //and remembers it as this file's base unit of whitespace.
-                    this.whitespace = wsm.group("whitespace"); //leading whitespace
-                    if (stringIsHeterogeneous(this.whitespace)) {
-                        throw new IndentationError("Invalid mixing of tabs and spaces", lineNum);
-                    }
-                    int numChars = this.whitespace.length();
-                    String charInUse = this.whitespace.charAt(0) == ' ' ? "space" : "tab";
-                    String plural = numChars == 1 ? "" : "s";
-                    this.wsEnglishName = String.format("%d %s%s", numChars, charInUse, plural);
-                    //result will be something like "1 tab", "4 spaces", etc.
-                    //This is for error messages.
-                }
-                int index = sb.indexOf(COMMENT_SYMBOL);
-                if (index > 0) {
-                    sb.setLength(index); //cut off comments entirely
-                    sb.trimToSize();
-                }
-                lines.add(new Line(sb, lineNum));
-            }
+        try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
+            ingest(br);
         } catch (FileNotFoundException e) {
             System.err.printf("File `%s` not found!\n", filename);
             System.exit(1);
@@ -138,6 +144,67 @@ public class Parser {
         }
     }
 
+    /**
+     * Same as Parser(String), but leaves a missing or unreadable file up to
+     * the caller instead of exiting the program. For callers that translate
+     * many files in one go.
+     * @param file The path to the Judo file to translate to java.
+     * @throws IOException If the file can't be read.
+     */
+    public Parser(Path file) throws IOException {
+        this.whitespace = this.wsEnglishName = "";
+        this.fileName = file.toString();
+        lines = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(file.toFile()))) {
+            ingest(br);
+        }
+    }
+
+    /**
+     * Reads the whole Judo file into lines, skipping blank and comment-only
+     * lines, and works out which whitespace the file indents with.
+     * @param br A reader over the Judo file.
+     * @throws IOException If the file can't be read.
+     */
+    private void ingest(BufferedReader br) throws IOException {
+        int lineNum = 0;
+        while (br.ready()) {
+            lineNum++;
+            String line = br.readLine();
+            if (EMPTY_LINE.matcher(line).matches()) {
+                //lines of all whitespace or only comments are skipped
+                continue;
+            }
+            StringBuilder sb = new StringBuilder(line);
+            Matcher wsm = WS_YANK.matcher(line);
+            if (
+                wsm.matches() &&
+                !wsm.group("rest").startsWith(COMMENT_SYMBOL) &&
+                this.whitespace.isEmpty()
+            ) {
+                //This finds the first instance of leading whitespace (that isn't a comment)
+                //and remembers it as this file's base unit of whitespace.
+                this.whitespace = wsm.group("whitespace"); //leading whitespace
+                if (stringIsHeterogeneous(this.whitespace)) {
+                    throw new IndentationError("Invalid mixing of tabs and spaces", lineNum);
+                }
+                int numChars = this.whitespace.length();
+                String charInUse = this.whitespace.charAt(0) == ' ' ? "space" : "tab";
+                String plural = numChars == 1 ? "" : "s";
+                this.wsEnglishName = String.format("%d %s%s", numChars, charInUse, plural);
+                //result will be something like "1 tab", "4 spaces", etc.
+                //This is for error messages.
+            }
+            int index = sb.indexOf(COMMENT_SYMBOL);
+            if (index > 0) {
+                sb.setLength(index); //cut off comments entirely
+                sb.trimToSize();
+            }
+            lines.add(new Line(sb, lineNum));
+        }
+        this.sourceLines = lineNum;
+    }
+
     /**
      * Testing constructor
      * @param whitespace characters to use as the "file"'s whitespace
@@ -151,6 +218,7 @@ public class Parser {
         for (String line : lines) {
             this.lines.add(new Line(line, i++));
         }
+        this.sourceLines = lines.length;
     }
 
     /**
@@ -195,6 +263,27 @@ public class Parser {
         return ws.length() / whitespace.length();
     }
 
+    /**
+     * The first line of every generated Java file, saying when it was
+     * generated. For reproducible builds, the time can be fixed by setting
+     * the SOURCE_DATE_EPOCH environment variable to a number of seconds since
+     * the epoch, which is then used as UTC.
+     * @return The line, with its newline.
+     */
+    public static String generatedHeader() {
+        String epoch = System.getenv("SOURCE_DATE_EPOCH");
+        LocalDateTime timestamp;
+        try {
+            timestamp =
+                epoch == null
+                    ? LocalDateTime.now()
+                    : LocalDateTime.ofEpochSecond(Long.parseLong(epoch.trim()), 0, ZoneOffset.UTC);
+        } catch (NumberFormatException e) {
+            timestamp = LocalDateTime.now();
+        }
+        return GENERATED_HEADER + timestamp + "\n";
+    }
+
     /**
      * Using the already ingested Judo file (from the constructor), attempts to
      * create an entire legal Java file and return it as a string for the
@@ -204,22 +293,213 @@ public class Parser {
      * path was provided in the constructor.
      */
     public String parseFull(String className) {
+        return parseFull(className, null);
+    }
+
+    /**
+     * Same as parseFull(className), but the bodies of top-level loops and
+     * conditionals are handed to the given pool and validated and translated
+     * in parallel. Those bodies can only read the global scope as it was when
+     * they started, and nothing they declare escapes them, so each one gets its
+     * own snapshot of the ScopeStack. The output is identical to the sequential
+     * translation, and so is the error thrown for an invalid file: the one
+     * that comes first in the Judo source.
+     * @param className The classname to give the new Java file.
+     * @param pool The pool to parse top-level bodies on, or null to parse
+     *             everything on the calling thread.
+     * @return An entire legal Java file, translated from the Judo file whose
+     * path was provided in the constructor.
+     */
+    public String parseFull(String className, ForkJoinPool pool) {
+        Object event = Events.RECORDER.fileStarted(fileName, className, "full", sourceLines);
+        Program program = translateMain(pool);
+        StringBuilder java = new StringBuilder(generatedHeader())
+            .append("public class ")
+            .append(className)
+            .append(" {\n")
+            .append(MAIN_SIGNATURE)
+            .append(emit(program))
+            .append(program.members())
+            .append("}"); //closes class {
+        Events.RECORDER.fileDone(event);
+        return java.toString();
+    }
+
+    /**
+     * Same as parseFull(className), but translates the Judo file as a module
+     * that other files can import. On top of its main method, the class gets
+     * a public static field for every variable the file declares at the top
+     * level, which main fills in as it finishes, and a load method that runs
+     * main the first time it's called, no matter how many files import it.
+     * @param className The classname to give the new Java file.
+     * @return An entire legal Java file, translated from the Judo file whose
+     * path was provided in the constructor.
+     */
+    public String parseModule(String className) {
+        Object event = Events.RECORDER.fileStarted(fileName, className, "module", sourceLines);
+        Program program = translateMain(null);
+        StringBuilder java = new StringBuilder(generatedHeader())
+            .append("public class ")
+            .append(className)
+            .append(" {\n");
+        for (Map.Entry<String, Type> export : exports.entrySet()) {
+            java.append(format("public static {0} {1};\n", export.getValue(), export.getKey()));
+            Expr.VarRef variable = new Expr.VarRef(export.getKey(), export.getValue());
+            program.main.add(new Stmt.Export(sourceLines, className, variable));
+        }
+        //$ can't be in a Judo identifier, so this can't clash with an export
+        java
+            .append("private static boolean $loaded;\n")
+            .append("public static void load(String[] argos) {\n")
+            .append("if (!$loaded) {\n$loaded = true;\nmain(argos);\n}\n}\n");
+        java.append(MAIN_SIGNATURE).append(emit(program)).append(program.members()).append("}");
+        Events.RECORDER.fileDone(event);
+        return java.toString();
+    }
+
+    /**
+     * Translates the Judo file into the IR of the body of a main method.
+     * @param pool The pool to parse top-level bodies on, or null to parse
+     *             everything on the calling thread.
+     * @return The program, with every deferred body in place.
+     */
+    private Program translateMain(ForkJoinPool pool) {
+        this.checkOnly = false;
+        this.pool = pool;
+        this.expressions = new ExpressionCache();
+        ScopeStack scopes = newGlobalScopes();
+        Block main = new Block();
+        try {
+            parseBlock(0, scopes, main);
+        } catch (RuntimeException e) {
+            //a deferred block that failed comes earlier in the file than this.
+            joinDeferredBlocks();
+            throw e;
+        } finally {
+            this.pool = null;
+            this.sharedGlobals = null;
+        }
+        collectExports();
+        joinDeferredBlocks();
+        return new Program(main, this.whitespace);
+    }
+
+    /**
+     * Runs the passes over the program, the last of which generates its Java.
+     * @param program The program.
+     * @return The body of main, braces included.
+     */
+    private String emit(Program program) {
+        String java = passes.run(program);
+        if (stats != null) {
+            stats.addPasses(passes.timings());
+        }
+        return java;
+    }
+
+    /**
+     * Runs the same indentation, scope, and type checking as parseFull, but
+     * skips keyword replacement and never builds any Java. Meant for callers
+     * that only care whether the Judo file is valid, which makes it quite a
+     * bit cheaper than a full translation.
+     * Any problem with the file is thrown as one of the ParseError subclasses,
+     * exactly as parseFull would throw it.
+     */
+    public void validate() {
+        this.checkOnly = true;
+        this.expressions = new ExpressionCache();
+        Object event = Events.RECORDER.fileStarted(fileName, "", "validate", sourceLines);
+        parseBlock(0, newGlobalScopes(), null);
+        collectExports();
+        Events.RECORDER.fileDone(event);
+    }
+
+    /**
+     * Has the Parser time each phase of translation, and each statement, from
+     * now on. Timing costs a little, so it's off unless asked for.
+     * @param stats Where the timings go, or null to stop timing.
+     */
+    public void setStats(TranslationStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Sets the passes run over the IR of the file before its Java is
+     * generated. By default, that's PassManager.standard().
+     * @param passes The passes, which should be a copy for this Parser alone,
+     *               since they keep the timings of its latest translation.
+     */
+    public void setPasses(PassManager passes) {
+        this.passes = passes;
+    }
+
+    /**
+     * @return The passes run over the IR of the file, along with how long
+     * each one took in the latest translation.
+     */
+    public PassManager getPasses() {
+        return passes;
+    }
+
+    /**
+     * Tells the Parser where to find the modules that import statements
+     * name. Without one, every import fails.
+     * @param modules The resolver to use, or null for none.
+     */
+    public void setModuleResolver(ModuleResolver modules) {
+        this.modules = modules;
+    }
+
+    /**
+     * @return The name and type of every variable the latest call to
+     * parseFull, parseModule or validate found declared at the top level,
+     * apart from argos and anything imported, sorted by name. These are what
+     * the file exports when it's imported as a module.
+     */
+    public Map<String, Type> getExports() {
+        return exports;
+    }
+
+    private void collectExports() {
+        Map<String, Type> found = new TreeMap<>();
+        for (Variable v : globals.values()) {
+            if (!v.equals(ARGOS) && !imported.contains(v.identifier)) {
+                found.put(v.identifier, v.type);
+            }
+        }
+        this.exports = found;
+    }
+
+    /**
+     * @return How many lines the Judo file had, including blank and
+     * comment-only ones.
+     */
+    public int getSourceLineCount() {
+        return sourceLines;
+    }
+
+    /**
+     * @return The ExpressionCache used by the latest call to parseFull or
+     * validate, which is mostly interesting for its hit and miss counts.
+     */
+    public ExpressionCache getExpressionCache() {
+        return expressions;
+    }
+
+    /**
+     * Builds the ScopeStack that every translation starts with, which only has
+     * argos in it, and points VarRule at it.
+     * @return A fresh ScopeStack with the global scope pushed.
+     */
+    private ScopeStack newGlobalScopes() {
         ScopeStack scopes = new ScopeStack();
         VarRule.useScopes(scopes); //not proud of this
         Map<String, Variable> defaultScope = new HashMap<>(1);
         defaultScope.put("argos", ARGOS);
         scopes.push(defaultScope);
-        StringBuilder java = new StringBuilder();
-        java
-            .append("// GENERATED: ")
-            .append(LocalDateTime.now()) //timestamp
-            .append("\n")
-            .append("public class ")
-            .append(className)
-            .append(" {\npublic static void main(String[] argos) ");
-        parseBlock(0, scopes, java, this.whitespace);
-        java.append("}"); //closes class {
-        return java.toString();
+        this.globals = defaultScope; //parseBlock pops it, but exports are read from it after
+        this.imported.clear();
+        return scopes;
     }
 
     /**
@@ -249,14 +529,64 @@ let arr = i{100}
      * @return The appropriate type for this ray.
      */
     private Type initMatcherType(Matcher initMatcher) {
+        Type t;
         switch (initMatcher.group("type")) {
             case "i":
-                return Type.INT_LIST;
+                t = Type.INT_LIST;
+                break;
             case "b":
-                return Type.BOOL_LIST;
+                t = Type.BOOL_LIST;
+                break;
             default:
-                return Type.STRING_LIST;
+                t = Type.STRING_LIST;
+        }
+        return initMatcher.group("columns") == null ? t : t.gridOf();
+    }
+
+    /**
+     * Checks that a ray is indexed the way it has to be, with one index, or
+     * with a row and a column if it's a grid, and that they're ints.
+     * @param indexer A matcher of INDEXER_ACCESS or INDEXER_ASSIGN.
+     * @param line The line it's on.
+     * @param scopes The ScopeStack representing current variables.
+     * @return The type of the ray's elements.
+     */
+    private Type indexedType(Matcher indexer, Line line, ScopeStack scopes) {
+        String rayName = indexer.group("var");
+        Variable ray = scopes.find(rayName);
+        if (!ray.type.isRayType()) {
+            throw new TypeError(
+                format("Variable `{0}` isn't an array type and can't be indexed", rayName),
+                line.lineNum
+            );
+        } else if (ray.type.isGridType() != (indexer.group("column") != null)) {
+            throw new TypeError(
+                format(
+                    ray.type.isGridType()
+                        ? "Grid `{0}` has to be indexed with a row and a column, like {0}[i][j]"
+                        : "Variable `{0}` isn't a grid and can't be indexed twice",
+                    rayName
+                ),
+                line.lineNum
+            );
+        }
+        validateByScalarType(indexer.group("index"), Type.INT, scopes);
+        if (ray.type.isGridType()) {
+            validateByScalarType(indexer.group("column"), Type.INT, scopes);
         }
+        return ray.type.listOf;
+    }
+
+    /**
+     * @param grid A matcher of RAY_INIT for a grid.
+     * @param t The grid's type.
+     * @param columns The variable that has how many columns it has.
+     * @param scopes The ScopeStack representing current variables.
+     * @return A new flat ray with room for the whole grid.
+     */
+    private Expr newGrid(Matcher grid, Type t, String columns, ScopeStack scopes) {
+        Expr rows = expr(grid.group("n"), Type.INT, scopes);
+        return new Expr.NewRay(t, new Expr.GridSize(rows, new Expr.VarRef(columns, Type.INT)));
     }
 
     /**
@@ -265,19 +595,104 @@ let arr = i{100}
      * the throwing version of validation.
      * @param expression A scalar type, i.e. INT, BOOL, or STRING
      * @param expected The type expression is expected to validate as.
+     * @param scopes The ScopeStack representing current variables.
      */
-    private void validateByScalarType(CharSequence expression, Type expected) {
+    private void validateByScalarType(CharSequence expression, Type expected, ScopeStack scopes) {
         if (expected.isRayType()) {
             //The RayGrammar's .validate() method doesn't really supply satisfactory
             //validation because it doesn't check types.
             throw new IllegalArgumentException("Only use this function with scalar types");
         } else {
-            if (!typeToGrammar(expected).validate(expression)) {
+            if (!validates(expression, expected, scopes)) {
                 throw new TypeError(format("Expected expression `{0}` to be of type {1}", expression, expected.javaType));
             }
         }
     }
 
+    /**
+     * Validates the given expression under the grammar pertaining to t, using
+     * the throwing version of validation. The answer is cached, exceptions
+     * are not.
+     * @param expression The expression to validate.
+     * @param t A scalar type, i.e. INT, BOOL, or STRING.
+     * @param scopes The ScopeStack representing current variables.
+     * @return Whether the grammar for t accepted the expression.
+     */
+    private boolean validates(CharSequence expression, Type t, ScopeStack scopes) {
+        long started = stats == null ? 0 : System.nanoTime();
+        try {
+            return expressions.get(
+                expression,
+                "valid " + t,
+                scopes,
+                e -> grammarValidates(typeToGrammar(t), e, true)
+            );
+        } finally {
+            if (stats != null) {
+                stats.addNested(TranslationStats.Phase.VALIDATION, started);
+            }
+        }
+    }
+
+    /**
+     * Infers the type of an expression by trying the math, boolean, string,
+     * and ray grammars in that order, without throwing TypeErrors. The answer
+     * is cached.
+     * @param expression The expression whose type to infer.
+     * @param scopes The ScopeStack representing current variables.
+     * @return The type of the expression, or null if no grammar accepted it.
+     */
+    private Type inferType(CharSequence expression, ScopeStack scopes) {
+        long started = stats == null ? 0 : System.nanoTime();
+        try {
+            return expressions.get(
+                expression,
+                "type",
+                scopes,
+                e -> {
+                    if (grammarValidates(MATH_GRAMMAR, e, false)) {
+                        return Type.INT;
+                    } else if (grammarValidates(BOOL_GRAMMAR, e, false)) {
+                        return Type.BOOL;
+                    } else if (grammarValidates(STRING_GRAMMAR, e, false)) {
+                        return Type.STRING;
+                    }
+                    Object event = Events.RECORDER.grammarStarted(fileName, RAY_GRAMMAR, e);
+                    Type t = null;
+                    try {
+                        t = RAY_GRAMMAR.categorizeNoThrow(e);
+                        return t;
+                    } finally {
+                        Events.RECORDER.grammarDone(event, t != null);
+                    }
+                }
+            );
+        } finally {
+            if (stats != null) {
+                stats.addNested(TranslationStats.Phase.VALIDATION, started);
+            }
+        }
+    }
+
+    /**
+     * Runs an expression through a grammar, uncached, recording a JFR event
+     * for it if anything is recording.
+     * @param g The grammar.
+     * @param expression The expression.
+     * @param throwing Whether to use the throwing version of validation.
+     * @return Whether the grammar accepted the expression.
+     */
+    private boolean grammarValidates(Grammar g, CharSequence expression, boolean throwing) {
+        Object event = Events.RECORDER.grammarStarted(fileName, g, expression);
+        boolean accepted = false;
+        try {
+            accepted = throwing ? g.validate(expression) : g.validateNoThrow(expression);
+            return accepted;
+        } finally {
+            Events.RECORDER.grammarDone(event, accepted);
+        }
+    }
+
     /**
      * Returns the Grammar pertaining to the given type
      * @param t The type of the grammar to fetch
@@ -301,13 +716,58 @@ let arr = i{100}
      * Intelligently replaces all necessary replacements for Java legality.
      * Should be done just before being appended to the Java StringBuilder,
      * because the result of these replacements will no longer be valid Judo.
+     * The result is cached, so an expression that shows up over and over only
+     * goes through the grammar once.
      * @param expression The expression to replace in.
      * @param t The type of expression.
+     * @param scopes The ScopeStack representing current variables.
      * @return expression with the necessary replacements made, which may
      * actually be none at all. For example strings don't need any replacements
      * done.
      */
-    private String finalReplacements(CharSequence expression, Type t) {
+    private String finalReplacements(CharSequence expression, Type t, ScopeStack scopes) {
+        return expressions.get(
+            expression,
+            "java " + t,
+            scopes,
+            e -> replaceKeywords(e, t, scopes)
+        );
+    }
+
+    /**
+     * Builds the IR of an expression from the Java finalReplacements makes
+     * of it. The result is cached the same way.
+     * @param expression The expression.
+     * @param t The type of expression.
+     * @param scopes The ScopeStack representing current variables.
+     * @return The expression, typed, which emits exactly the Java
+     * finalReplacements returns until a pass changes it.
+     */
+    private Expr expr(CharSequence expression, Type t, ScopeStack scopes) {
+        return expressions.get(
+            expression,
+            "ir " + t,
+            scopes,
+            e ->
+                ExprParser.parse(
+                    finalReplacements(e, t, scopes),
+                    t,
+                    name -> {
+                        Variable v = scopes.find(name, false);
+                        return v == null ? null : v.type;
+                    }
+                )
+        );
+    }
+
+    /**
+     * Does the actual work of finalReplacements, without any caching.
+     * @param expression The expression to replace in.
+     * @param t The type of expression.
+     * @param scopes The ScopeStack representing current variables.
+     * @return expression with the necessary replacements made.
+     */
+    private String replaceKeywords(CharSequence expression, Type t, ScopeStack scopes) {
         String trimmed = expression.toString().trim();
         String res = null;
         if (t == null) {
@@ -320,7 +780,7 @@ let arr = i{100}
                 String[] els = m.group("innerRay").split(",");
                 StringBuilder sb = new StringBuilder("{");
                 for (int i = 0; i < els.length; i++) {
-                    sb.append(finalReplacements(els[i], t.listOf));
+                    sb.append(finalReplacements(els[i], t.listOf, scopes));
                     if (i < els.length - 1) {
                         sb.append(",");
                     }
@@ -330,7 +790,11 @@ let arr = i{100}
         } else if (t != Type.STRING) {
             //strings require no replacements
             Grammar g = typeToGrammar(t);
+            long started = stats == null ? 0 : System.nanoTime();
             res = g.keywordsToJava(trimmed);
+            if (stats != null) {
+                stats.addNested(TranslationStats.Phase.REPLACEMENT, started);
+            }
         }
         return res == null ? trimmed : res;
     }
@@ -341,97 +805,244 @@ let arr = i{100}
      *                  variable lines.
      * @param scopes The ScopeStack to query and modify as the block is parsed
      *               and translated.
-     * @param java The ongoing Java document which is appended to by the various
-     *             handle* functions, all of which are called from in here.
-     * @param currWhitespace The current amount of whitespace to put before each
-     *                       line of Java. This doesn't work perfectly, but it's
-     *                       a little better than zero indentation.
+     * @param block The block the various handle* functions, all of which are
+     *              called from in here, add their statements to. Null when
+     *              only validating, since nothing is built then.
      * @return The total number of lines that were parsed as a result of this
      * call, including all recursive calls.
      */
-    public int parseBlock(
-        int lineStart,
-        ScopeStack scopes,
-        StringBuilder java,
-        String currWhitespace
-    ) {
-        java.append("{\n"); //open the block with a {
+    public int parseBlock(int lineStart, ScopeStack scopes, Block block) {
+        Object blockEvent = null;
+        if (lineStart < lines.size()) {
+            int firstLine = lines.get(lineStart).lineNum;
+            blockEvent = Events.RECORDER.blockStarted(fileName, firstLine, scopes.size() - 1);
+        }
         boolean ifOpen = false;
         int linesParsed = 0;
         for (int i = lineStart; i < lines.size(); i++) {
             int currDepth = scopes.size() - 1; //-1 because scopes includes the global scope of argos
             Line lineObj = lines.get(i);
-            if (countIndents(lineObj.judo) < currDepth) {
+            long indenting = stats == null ? 0 : System.nanoTime();
+            int indents = countIndents(lineObj.judo);
+            if (stats != null) {
+                stats.add(TranslationStats.Phase.INDENTATION, indenting);
+            }
+            if (indents < currDepth) {
                 //this indicates that the current block is over because we went
                 //up by an indentation level.
                 break;
             }
             linesParsed++;
             Line trimmed = lineObj.trimmedCopy();
-            StringBuilder line = lineObj.judo;
             int ln = lineObj.lineNum;
-            boolean wasConditional = false;
-            java.append(currWhitespace);
-            if (ASSIGN_STMT.matcher(line).matches()) {
-                handleAssignment(trimmed, java, scopes);
-            } else if (REASSIGN_STMT.matcher(line).matches()) {
-                handleReassignment(trimmed, java, scopes);
-            } else if (IF_STMT.matcher(line).matches()) {
-                wasConditional = true;
-                handleIf(trimmed, java, scopes);
-                ifOpen = true;
-                int parsed = parseBlock(i + 1, scopes, java, currWhitespace);
+            long dispatching = stats == null ? 0 : System.nanoTime();
+            StatementKind kind = classify(lineObj);
+            if (stats != null) {
+                stats.add(TranslationStats.Phase.DISPATCH, dispatching);
+            }
+            if (kind.isConditional() && kind != StatementKind.IF && !ifOpen) {
+                throw new InvalidStatementError("No if is currently open", ln);
+            }
+            Object event = Events.RECORDER.statementStarted(fileName, ln, kind.name);
+            long started = stats == null ? 0 : stats.beginStatement();
+            Block body = handle(kind, trimmed, block, scopes);
+            if (stats != null) {
+                stats.endStatement(kind, ln, started);
+            }
+            Events.RECORDER.statementDone(event);
+            if (kind.opensBlock) {
+                int parsed = parseBody(i + 1, scopes, body);
                 i += parsed;
                 linesParsed += parsed;
-                //you'd think all these identical 3 line blocks could be in a
-                //statement at the end of the loop but that breaks things
-            } else if (ELF_STMT.matcher(line).matches()) {
-                wasConditional = true;
-                if (!ifOpen) {
-                    throw new InvalidStatementError("No if is currently open", ln);
+            }
+            ifOpen = kind.isConditional();
+        }
+        scopes.pop();
+        Events.RECORDER.blockDone(blockEvent, linesParsed);
+        return linesParsed;
+    }
+
+    /**
+     * Works out which kind of statement a line is, by trying each statement's
+     * pattern in turn.
+     * @param line The line to classify.
+     * @return The kind of statement the line is.
+     */
+    private StatementKind classify(Line line) {
+        StringBuilder judo = line.judo;
+        if (IMPORT_STMT.matcher(judo).matches()) {
+            return StatementKind.IMPORT;
+        } else if (ASSIGN_STMT.matcher(judo).matches()) {
+            return StatementKind.LET;
+        } else if (REASSIGN_STMT.matcher(judo).matches()) {
+            return StatementKind.REASSIGN;
+        } else if (IF_STMT.matcher(judo).matches()) {
+            return StatementKind.IF;
+        } else if (ELF_STMT.matcher(judo).matches()) {
+            return StatementKind.ELF;
+        } else if (ELSE_STMT.matcher(judo).matches()) {
+            return StatementKind.ELSE;
+        } else if (FORRANGE_STMT.matcher(judo).matches()) {
+            return StatementKind.FOR_RANGE;
+        } else if (FOREACH_STMT.matcher(judo).matches()) {
+            return StatementKind.FOR_EACH;
+        } else if (LOOP_STMT.matcher(judo).matches()) {
+            return StatementKind.LOOP;
+        } else if (PRINT_STMT.matcher(judo).matches()) {
+            return StatementKind.OUT;
+        } else if (INDEXER_ASSIGN.matcher(judo).matches()) {
+            return StatementKind.INDEX_ASSIGN;
+        } else if (PASS_STMT.matcher(judo).matches()) {
+            return StatementKind.HALLPASS;
+        }
+        throw new InvalidStatementError("`" + judo.toString().trim() + "`", line.lineNum);
+    }
+
+    /**
+     * Hands a line to the handle* function for its kind of statement. The
+     * bodies of loops and conditionals are left to the caller.
+     * @param kind The kind of statement the line is.
+     * @param line The line to process, trimmed.
+     * @param block The block to add the statement to.
+     * @param scopes The ScopeStack representing current variables.
+     * @return The block the statement's body goes in, if it has one and
+     * anything is being built.
+     */
+    private Block handle(StatementKind kind, Line line, Block block, ScopeStack scopes) {
+        switch (kind) {
+            case IMPORT:
+                handleImport(line, block, scopes);
+                return null;
+            case LET:
+                handleAssignment(line, block, scopes);
+                return null;
+            case REASSIGN:
+                handleReassignment(line, block, scopes);
+                return null;
+            case IF:
+                return handleIf(line, block, scopes);
+            case ELF:
+                return handleElf(line, block, scopes);
+            case ELSE:
+                return handleElse(line, block, scopes);
+            case FOR_RANGE:
+                return handleForRange(line, block, scopes);
+            case FOR_EACH:
+                return handleForEach(line, block, scopes);
+            case LOOP:
+                return handleLoop(line, block, scopes);
+            case OUT:
+                handlePrint(line, block, scopes);
+                return null;
+            case INDEX_ASSIGN:
+                handleRayIndexAssignment(line, block, scopes);
+                return null;
+            default:
+                if (!checkOnly) {
+                    block.add(new Stmt.Hallpass(line.lineNum)); //which does nothing
                 }
-                handleElf(trimmed, java, scopes);
-                int parsed = parseBlock(i + 1, scopes, java, currWhitespace + this.whitespace);
-                i += parsed;
-                linesParsed += parsed;
-            } else if (ELSE_STMT.matcher(line).matches()) {
-                wasConditional = true;
-                if (!ifOpen) {
-                    throw new InvalidStatementError("No if is currently open", ln);
+                return null;
+        }
+    }
+
+    /**
+     * Parses the body of a loop or conditional whose header was just handled.
+     * Normally that's just a recursive parseBlock, but if a pool was given to
+     * parseFull and this is the body of a top-level statement, the body is
+     * parsed on the pool against a snapshot of the current scopes, and its
+     * statements are only in the block once joinDeferredBlocks is done.
+     * @param lineStart The first line of the body.
+     * @param scopes The ScopeStack, with the body's scope already pushed by
+     *               the header's handler.
+     * @param body The block the body's statements go in.
+     * @return The total number of lines in the body.
+     */
+    private int parseBody(int lineStart, ScopeStack scopes, Block body) {
+        if (pool == null || scopes.size() != 2) {
+            //2 is the global scope plus the scope of the top-level statement
+            return parseBlock(lineStart, scopes, body);
+        }
+        int end = lineStart;
+        while (end < lines.size()) {
+            try {
+                if (countIndents(lines.get(end).judo) < 1) {
+                    break;
+                }
+            } catch (IndentationError e) {
+                //the body will throw this itself, once it gets here.
+                end++;
+                break;
+            }
+            end++;
+        }
+        ScopeStack snapshot = snapshotForBody(scopes);
+        scopes.pop(); //normally popped by the body's parseBlock
+        deferredBlocks.add(
+            pool.submit(() -> {
+                long allocated = stats == null ? -1 : stats.beginTask();
+                VarRule.useScopes(snapshot);
+                try {
+                    parseBlock(lineStart, snapshot, body);
+                } finally {
+                    //pool threads outlive the translation, and would keep the snapshot alive
+                    VarRule.clearScopes();
+                    if (stats != null) {
+                        stats.endTask(allocated);
+                    }
+                }
+            })
+        );
+        return end - lineStart;
+    }
+
+    /**
+     * Takes the snapshot a deferred top-level body is parsed against. Bodies
+     * never modify the global scope, they only read it, so consecutive bodies
+     * share one copy of it for as long as no new global is declared. That
+     * keeps files with thousands of top-level blocks from copying the whole
+     * global scope for each one.
+     * @param scopes The ScopeStack holding the global scope and the body's
+     *               scope.
+     * @return A ScopeStack safe to use on another thread.
+     */
+    private ScopeStack snapshotForBody(ScopeStack scopes) {
+        Map<String, Variable> globals = scopes.firstElement();
+        if (sharedGlobals == null || sharedGlobals.size() != globals.size()) {
+            //globals are only ever added, so the size says if this is stale
+            sharedGlobals = new HashMap<>(globals);
+        }
+        ScopeStack snapshot = new ScopeStack();
+        snapshot.push(sharedGlobals);
+        snapshot.push(new HashMap<>(scopes.peek()));
+        return snapshot;
+    }
+
+    /**
+     * Waits for every block deferred by parseBody to be parsed into its
+     * block. If any of them failed, the error of the one earliest in the file
+     * is thrown.
+     */
+    private void joinDeferredBlocks() {
+        try {
+            for (ForkJoinTask<?> task : deferredBlocks) {
+                try {
+                    task.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw new IllegalStateException(e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
                 }
-                handleElse(trimmed, java, scopes);
-                int parsed = parseBlock(i + 1, scopes, java, currWhitespace + this.whitespace);
-                i += parsed;
-                linesParsed += parsed;
-            } else if (FORRANGE_STMT.matcher(line).matches()) {
-                handleForRange(trimmed, java, scopes);
-                int parsed = parseBlock(i + 1, scopes, java, currWhitespace + this.whitespace);
-                i += parsed;
-                linesParsed += parsed;
-            } else if (FOREACH_STMT.matcher(line).matches()) {
-                handleForEach(trimmed, java, scopes);
-                int parsed = parseBlock(i + 1, scopes, java, currWhitespace + this.whitespace);
-                i += parsed;
-                linesParsed += parsed;
-            } else if (LOOP_STMT.matcher(line).matches()) {
-                handleLoop(trimmed, java, scopes);
-                int parsed = parseBlock(i + 1, scopes, java, currWhitespace + this.whitespace);
-                i += parsed;
-                linesParsed += parsed;
-            } else if (PRINT_STMT.matcher(line).matches()) {
-                handlePrint(trimmed, java, scopes);
-            } else if (INDEXER_ASSIGN.matcher(line).matches()) {
-                handleRayIndexAssignment(trimmed, java, scopes);
-            } else if (!PASS_STMT.matcher(line).matches()) {
-                throw new InvalidStatementError("`" + trimmed.judo.toString() + "`", ln);
             }
-            if (!wasConditional) {
-                ifOpen = false;
+        } finally {
+            for (ForkJoinTask<?> task : deferredBlocks) {
+                task.cancel(false);
             }
+            deferredBlocks.clear();
         }
-        scopes.pop();
-        java.append(currWhitespace).append("}\n"); //close the block with a }
-        return linesParsed;
     }
 
     /**
@@ -442,10 +1053,10 @@ let arr = i{100}
      * until one validates. The type connected to the variable here cannot be
      * changed.
      * @param line The line to process.
-     * @param java The ongoing Java file to append translated java to.
+     * @param block The block to add the statement to.
      * @param scopes The ScopeStack representing current variables.
      */
-    public void handleAssignment(Line line, StringBuilder java, ScopeStack scopes) {
+    public void handleAssignment(Line line, Block block, ScopeStack scopes) {
         Matcher m = armMatcher(ASSIGN_STMT, line.judo);
         String varName = m.group("var");
         String value = m.group("rValue");
@@ -456,48 +1067,30 @@ let arr = i{100}
                 line.lineNum
             );
         }
-        Type t;
-        if (MATH_GRAMMAR.validateNoThrow(value)) {
-            //int literal expression or variable
-            curScope.put(varName, new Variable(varName, Type.INT));
-            t = Type.INT;
-        } else if (BOOL_GRAMMAR.validateNoThrow(value)) {
-            //boolean literal expression or variable
-            curScope.put(varName, new Variable(varName, Type.BOOL));
-            t = Type.BOOL;
-        } else if (STRING_GRAMMAR.validateNoThrow(value)) {
-            //string literal expression or variable
-            curScope.put(varName, new Variable(varName, Type.STRING));
-            t = Type.STRING;
-        } else if (RAY_GRAMMAR.validateNoThrow(value)) {
-            //array literal expression or variable
-            t = RAY_GRAMMAR.categorizeNoThrow(value);
+        Type t = inferType(value, scopes);
+        if (t != null) {
+            //int, boolean, string, or array literal expression or variable
             curScope.put(varName, new Variable(varName, t));
         } else if (INDEXER_ACCESS.matcher(value).matches()) {
             //Assigning FROM an array, i.e. let b = arr[10]
-            Matcher indexer = armMatcher(INDEXER_ACCESS, value);
-            String rayName = indexer.group("var");
-            //the variable being indexed
-            Variable ray = scopes.find(rayName);
-            if (!ray.type.isRayType()) {
-                throw new TypeError(
-                    format("Variable `{0}` isn't an array type and can't be indexed", rayName),
-                    line.lineNum
-                );
-            } else if (ray.equals(ARGOS)) {
-                //special treatment for argos, our alias for the program args
-                value = format("Integer.parseInt({0})", value);
-            }
-            t = ray.type.listOf;
-            validateByScalarType(indexer.group("index"), t);
+            t = indexedType(armMatcher(INDEXER_ACCESS, value), line, scopes);
             curScope.put(varName, new Variable(varName, t));
         } else if (RAY_INIT.matcher(value).matches()) {
-            //ray initiation using the syntax: let a = i{N}
+            //ray initiation using the syntax: let a = i{N}, or i{N, M} for a grid
             Matcher rayInit = armMatcher(RAY_INIT, value);
             t = initMatcherType(rayInit);
             String n = rayInit.group("n");
-            validateByScalarType(n, Type.INT);
+            validateByScalarType(n, Type.INT, scopes);
             value = format("new {0}[{1}]", t.listOf.javaType, n);
+            if (t.isGridType()) {
+                validateByScalarType(rayInit.group("columns"), Type.INT, scopes);
+                String columns = Expr.GridOffset.columnsOf(varName);
+                curScope.put(columns, new Variable(columns, Type.INT));
+            }
+            curScope.put(varName, new Variable(varName, t));
+        } else if (READ_CALL.matcher(value).matches()) {
+            //let x = readint(), or let xs = readints() for every int left
+            t = readType(value);
             curScope.put(varName, new Variable(varName, t));
         } else {
             throw new InvalidStatementError(
@@ -506,13 +1099,72 @@ let arr = i{100}
             );
         }
         VAR_GRAMMAR.validate(varName);
-        java
-            .append(t.javaType)
-            .append(" ")
-            .append(varName)
-            .append(" = ")
-            .append(finalReplacements(value, t))
-            .append(";\n");
+        if (checkOnly) {
+            return;
+        } else if (t.isGridType()) {
+            Matcher grid = armMatcher(RAY_INIT, m.group("rValue"));
+            String columns = Expr.GridOffset.columnsOf(varName);
+            Expr n = expr(grid.group("columns"), Type.INT, scopes);
+            block.add(new Stmt.Declare(line.lineNum, Type.INT, columns, n));
+            block.add(
+                new Stmt.Declare(line.lineNum, t, varName, newGrid(grid, t, columns, scopes))
+            );
+            return;
+        }
+        block.add(new Stmt.Declare(line.lineNum, t, varName, rValue(value, t, scopes)));
+    }
+
+    /**
+     * Handles our import statement, which is
+     * <pre>
+import module
+     * </pre>
+     * Which runs the module named, once no matter how many times it's
+     * imported, and declares every variable it exports in the global scope,
+     * with the type the module gave it. Imports can only be at the top level.
+     * @param line The line to process.
+     * @param block The block to add the statement to.
+     * @param scopes The ScopeStack representing current variables.
+     */
+    public void handleImport(Line line, Block block, ScopeStack scopes) {
+        Matcher m = armMatcher(IMPORT_STMT, line.judo);
+        String name = m.group("module");
+        if (scopes.size() != 1) {
+            throw new InvalidStatementError(
+                "Modules can only be imported at the top level",
+                line.lineNum
+            );
+        }
+        Module module;
+        try {
+            module = modules == null ? null : modules.resolve(name);
+        } catch (ParseError e) {
+            throw new InvalidStatementError(
+                format("Module `{0}` is invalid: {1}", name, e.toString().trim()),
+                line.lineNum
+            );
+        } finally {
+            VarRule.useScopes(scopes); //translating the module may have pointed it elsewhere
+        }
+        if (module == null) {
+            throw new InvalidStatementError(format("Module `{0}` not found", name), line.lineNum);
+        }
+        Map<String, Variable> curScope = scopes.peek();
+        for (Map.Entry<String, Type> export : module.exports.entrySet()) {
+            String varName = export.getKey();
+            if (curScope.containsKey(varName)) {
+                throw new VariableError(
+                    format("Variable `{0}` is already defined in this scope.", varName),
+                    line.lineNum
+                );
+            }
+            curScope.put(varName, new Variable(varName, export.getValue()));
+            imported.add(varName);
+        }
+        if (checkOnly) {
+            return;
+        }
+        block.add(new Stmt.Import(line.lineNum, module.className, module.exports));
     }
 
     /**
@@ -522,34 +1174,33 @@ let arr = i{100}
      * the value being assigned to the variable must be of the same type as the
      * variable was originally.
      * @param line The line to process.
-     * @param java The ongoing Java file to append translated java to.
+     * @param block The block to add the statement to.
      * @param scopes The ScopeStack representing current variables.
      */
-    public void handleReassignment(Line line, StringBuilder java, ScopeStack scopes) {
+    public void handleReassignment(Line line, Block block, ScopeStack scopes) {
         Matcher m = armMatcher(REASSIGN_STMT, line.judo);
         String varName = m.group("var");
         String value = m.group("rValue");
         Variable toReassign = scopes.find(varName);
         boolean passed;
-        String arrayReinit = "";
         Matcher indexer = INDEXER_ACCESS.matcher(value);
         if (indexer.matches()) {
-            String rayName = indexer.group("var");
-            Variable ray = scopes.find(rayName);
-            if (ray.type.isRayType()) {
-                throw new TypeError(
-                    format("Variable `{0}` isn't an array type and can't be indexed", rayName),
-                    line.lineNum
-                );
-            }
-            Type t = ray.type.listOf;
-            MATH_GRAMMAR.validate(indexer.group("index"));
-            //^ this will throw if it isn't valid
-            passed = true;
+            passed = indexedType(indexer, line, scopes) == toReassign.type;
         } else if (RAY_INIT.matcher(value).matches()) {
             Matcher rayInit = armMatcher(RAY_INIT, value);
             Type t = initMatcherType(rayInit);
-            if (toReassign.type != t) {
+            if (toReassign.type.isGridType() != t.isGridType()) {
+                //both have the same Java type, so say which one it is instead
+                throw new TypeError(
+                    format(
+                        toReassign.type.isGridType()
+                            ? "Variable `{0}` is a grid, and needs a number of columns too"
+                            : "Variable `{0}` isn't a grid, and can't be given columns",
+                        varName
+                    ),
+                    line.lineNum
+                );
+            } else if (toReassign.type != t) {
                 throw new TypeError(
                     format(
                         "Variable `{0}` was expected to be of type {1}, but found {2}",
@@ -561,24 +1212,37 @@ let arr = i{100}
                 );
             }
             String n = rayInit.group("n");
-            validateByScalarType(n, Type.INT);
+            validateByScalarType(n, Type.INT, scopes);
+            if (t.isGridType()) {
+                validateByScalarType(rayInit.group("columns"), Type.INT, scopes);
+            }
             value = format("new {0}[{1}]", t.listOf.javaType, n);
             passed = true;
+        } else if (READ_CALL.matcher(value).matches()) {
+            passed = readType(value) == toReassign.type;
+        } else if (toReassign.type.isGridType()) {
+            //there's no such thing as a grid literal, and a grid's columns
+            //only ever come from making one
+            throw new InvalidStatementError(
+                format(
+                    "Grid `{0}` can only be given a new grid, like {0} = i'{'rows, columns'}'",
+                    varName
+                ),
+                line.lineNum
+            );
         } else {
-            //switch on the type of the variable being reassigned.
-            switch (toReassign.type) {
-                case INT:
-                    passed = MATH_GRAMMAR.validateNoThrow(value);
-                    break;
-                case BOOL:
-                    passed = BOOL_GRAMMAR.validateNoThrow(value);
-                    break;
-                case STRING:
-                    passed = STRING_GRAMMAR.validateNoThrow(value);
-                    break;
-                default: //one of the list types
-                    passed = RAY_GRAMMAR.categorize(value) == toReassign.type;
-                    arrayReinit = format("new {0}[]", toReassign.type.listOf.javaType);
+            //the grammars don't overlap, so this is the same as asking the
+            //grammar of the variable's type whether it accepts the value.
+            passed = inferType(value, scopes) == toReassign.type;
+            if (toReassign.type.isRayType() && !passed) {
+                Type literal = RAY_GRAMMAR.categorizeNoThrow(value);
+                if (literal == null) {
+                    throw new InvalidStatementError(
+                        format("Invalid syntax or mixed types in ray declaration: {0}", value),
+                        line.lineNum
+                    );
+                }
+                passed = literal == toReassign.type;
             }
         }
         if (!passed) {
@@ -591,12 +1255,36 @@ let arr = i{100}
                 line.lineNum
             );
         }
-        java
-            .append(varName)
-            .append(" = ")
-            .append(arrayReinit)
-            .append(finalReplacements(value, toReassign.type))
-            .append(";\n");
+        if (checkOnly) {
+            return;
+        } else if (toReassign.type.isGridType()) {
+            //the new grid can have a different number of columns
+            Matcher grid = armMatcher(RAY_INIT, m.group("rValue"));
+            String columns = Expr.GridOffset.columnsOf(varName);
+            Expr n = expr(grid.group("columns"), Type.INT, scopes);
+            block.add(new Stmt.Assign(line.lineNum, Type.INT, columns, n));
+            Expr rValue = newGrid(grid, toReassign.type, columns, scopes);
+            block.add(new Stmt.Assign(line.lineNum, toReassign.type, varName, rValue));
+            return;
+        }
+        Expr rValue = rValue(value, toReassign.type, scopes);
+        block.add(new Stmt.Assign(line.lineNum, toReassign.type, varName, rValue));
+    }
+
+    /**
+     * @param read A call to readint or readints.
+     * @return The type of what it reads.
+     */
+    private Type readType(String read) {
+        return armMatcher(READ_CALL, read).group("all").equals("ints") ? Type.INT_LIST : Type.INT;
+    }
+
+    /**
+     * @return The IR of the value of a let or reassignment, which the
+     * builtins that read input aren't expressions of their own for.
+     */
+    private Expr rValue(String value, Type t, ScopeStack scopes) {
+        return READ_CALL.matcher(value).matches() ? new Expr.Read(t) : expr(value, t, scopes);
     }
 
     /**
@@ -607,15 +1295,23 @@ if condition:
      * </pre>
      * As with all conditionals, the condition does not have to be in parentheses.
      * @param line The line to process.
-     * @param java The ongoing Java file to append translated java to.
+     * @param block The block to add the statement to.
      * @param scopes The ScopeStack representing current variables.
+     * @return The block the body goes in, or null when only validating.
      */
-    public void handleIf(Line line, StringBuilder java, ScopeStack scopes) {
+    public Block handleIf(Line line, Block block, ScopeStack scopes) {
         Matcher m = armMatcher(IF_STMT, line.judo);
         String condition = m.group("condition");
-        BOOL_GRAMMAR.validate(condition);
+        validates(condition, Type.BOOL, scopes);
         scopes.pushNewScope();
-        java.append("if (").append(finalReplacements(condition, Type.BOOL)).append(") ");
+        if (checkOnly) {
+            return null;
+        }
+        Stmt.If conditional = new Stmt.If(line.lineNum);
+        Block body = new Block();
+        conditional.arms.add(new Stmt.Arm(line.lineNum, expr(condition, Type.BOOL, scopes), body));
+        block.add(conditional);
+        return body;
     }
 
     /**
@@ -628,27 +1324,40 @@ efl condition:
      * also because we thought elf is funny. There must be an if statement already
      * "open" for an elf statement to be valid.
      * @param line The line to process.
-     * @param java The ongoing Java file to append translated java to.
+     * @param block The block to add the statement to.
      * @param scopes The ScopeStack representing current variables.
+     * @return The block the body goes in, or null when only validating.
      */
-    public void handleElf(Line line, StringBuilder java, ScopeStack scopes) {
+    public Block handleElf(Line line, Block block, ScopeStack scopes) {
         Matcher m = armMatcher(ELF_STMT, line.judo);
         String condition = m.group("condition");
-        BOOL_GRAMMAR.validate(condition);
+        validates(condition, Type.BOOL, scopes);
         scopes.pushNewScope();
-        java.append("else if (").append(finalReplacements(condition, Type.BOOL)).append(") ");
+        if (checkOnly) {
+            return null;
+        }
+        Block body = new Block();
+        Expr javaCondition = expr(condition, Type.BOOL, scopes);
+        ((Stmt.If) block.last()).arms.add(new Stmt.Arm(line.lineNum, javaCondition, body));
+        return body;
     }
 
     /**
      * Handles our else statement. There must be an if statement already "open"
      * for an else statement to be valid.
      * @param line The line to process.
-     * @param java The ongoing Java file to append translated java to.
+     * @param block The block to add the statement to.
      * @param scopes The ScopeStack representing current variables.
+     * @return The block the body goes in, or null when only validating.
      */
-    public void handleElse(Line line, StringBuilder java, ScopeStack scopes) {
+    public Block handleElse(Line line, Block block, ScopeStack scopes) {
         scopes.pushNewScope();
-        java.append("else ");
+        if (checkOnly) {
+            return null;
+        }
+        Block body = new Block();
+        ((Stmt.If) block.last()).arms.add(new Stmt.Arm(line.lineNum, null, body));
+        return body;
     }
 
     /**
@@ -659,10 +1368,11 @@ for i in 1..10:
      * </pre>
      * Which translates to a normal for loop in Java.
      * @param line The line to process.
-     * @param java The ongoing Java file to append translated java to.
+     * @param block The block to add the statement to.
      * @param scopes The ScopeStack representing current variables.
+     * @return The block the body goes in, or null when only validating.
      */
-    public void handleForRange(Line line, StringBuilder java, ScopeStack scopes) {
+    public Block handleForRange(Line line, Block block, ScopeStack scopes) {
         Matcher m = armMatcher(FORRANGE_STMT, line.judo);
         String loopVar = m.group("loopVar");
         scopes.pushNewScope();
@@ -671,29 +1381,30 @@ for i in 1..10:
         //Groups are as follows: for (int loopVar = lo; lo < hi; loopVar+=step)
         String lo = m.group("lo");
         String hi = m.group("hi");
-        MATH_GRAMMAR.validate(lo);
-        MATH_GRAMMAR.validate(hi);
+        validates(lo, Type.INT, scopes);
+        validates(hi, Type.INT, scopes);
 
         String stepGroup = m.group("step");
         String step = "1";
         //step is optional and defaults to 1. null if not included.
-        if (stepGroup != null && MATH_GRAMMAR.validate(stepGroup)) {
+        if (stepGroup != null && validates(stepGroup, Type.INT, scopes)) {
             step = stepGroup;
         }
-        java
-            .append("for(int ")
-            .append(loopVar)
-            .append(" = ")
-            .append(finalReplacements(lo, Type.INT))
-            .append("; ")
-            .append(loopVar)
-            .append(" < ")
-            .append(finalReplacements(hi, Type.INT))
-            .append("; ")
-            .append(loopVar)
-            .append(" += ")
-            .append(finalReplacements(step, Type.INT))
-            .append(") ");
+        if (checkOnly) {
+            return null;
+        }
+        Block body = new Block();
+        block.add(
+            new Stmt.ForRange(
+                line.lineNum,
+                loopVar,
+                expr(lo, Type.INT, scopes),
+                expr(hi, Type.INT, scopes),
+                expr(step, Type.INT, scopes),
+                body
+            )
+        );
+        return body;
     }
 
     /**
@@ -704,23 +1415,23 @@ for element in array:
      * </pre>
      * which translates to Java's "enhanced" for loop.
      * @param line The line to process.
-     * @param java The ongoing Java file to append translated java to.
+     * @param block The block to add the statement to.
      * @param scopes The ScopeStack representing current variables.
+     * @return The block the body goes in, or null when only validating.
      */
-    public void handleForEach(Line line, StringBuilder java, ScopeStack scopes) {
+    public Block handleForEach(Line line, Block block, ScopeStack scopes) {
         Matcher m = armMatcher(FOREACH_STMT, line.judo);
         String loopVar = m.group("loopVar");
         Type rayType = scopes.find(m.group("array")).type;
         scopes.pushNewScope();
         scopes.addToCurrScope(loopVar, new Variable(loopVar, rayType.listOf));
-        java
-            .append("for(")
-            .append(rayType.listOf)
-            .append(" ")
-            .append(loopVar)
-            .append(" : ")
-            .append(m.group("array"))
-            .append(")");
+        if (checkOnly) {
+            return null;
+        }
+        Block body = new Block();
+        Expr ray = new Expr.VarRef(m.group("array"), rayType);
+        block.add(new Stmt.ForEach(line.lineNum, loopVar, ray, body));
+        return body;
     }
 
     /**
@@ -730,15 +1441,21 @@ loop condition:
      do stuff
      * </pre>
      * @param line The line to process.
-     * @param java The ongoing Java file to append translated java to.
+     * @param block The block to add the statement to.
      * @param scopes The ScopeStack representing current variables.
+     * @return The block the body goes in, or null when only validating.
      */
-    public void handleLoop(Line line, StringBuilder java, ScopeStack scopes) {
+    public Block handleLoop(Line line, Block block, ScopeStack scopes) {
         scopes.pushNewScope();
         Matcher m = armMatcher(LOOP_STMT, line.judo);
         String condition = m.group("condition");
-        BOOL_GRAMMAR.validate(condition); //throws on its own
-        java.append("while(").append(finalReplacements(condition, Type.BOOL)).append(") ");
+        validates(condition, Type.BOOL, scopes); //throws on its own
+        if (checkOnly) {
+            return null;
+        }
+        Block body = new Block();
+        block.add(new Stmt.While(line.lineNum, expr(condition, Type.BOOL, scopes), body));
+        return body;
     }
 
     /**
@@ -750,10 +1467,10 @@ outln(expr)
      * out() prints the given expression, and outln() does the same but followed
      * by a newline.
      * @param line The line to process.
-     * @param java The ongoing Java file to append translated java to.
+     * @param block The block to add the statement to.
      * @param scopes The ScopeStack representing current variables.
      */
-    public void handlePrint(Line line, StringBuilder java, ScopeStack scopes) {
+    public void handlePrint(Line line, Block block, ScopeStack scopes) {
         Matcher m = armMatcher(PRINT_STMT, line.judo);
         String arg = m.group("argument");
         String ln = m.group("line");
@@ -763,29 +1480,23 @@ outln(expr)
         } else if (VAR_GRAMMAR.validateNoThrow(arg)) {
             Variable v = scopes.find(arg);
             argType = v.type;
-        } else if (MATH_GRAMMAR.validateNoThrow(arg)) {
-            argType = Type.INT;
-        } else if (BOOL_GRAMMAR.validateNoThrow(arg)) {
-            argType = Type.BOOL;
-        } else if (STRING_GRAMMAR.validateNoThrow(arg)) {
-            argType = Type.STRING;
-        } else if (INDEXER_ACCESS.matcher(arg).matches()) {
-            Matcher idxM = armMatcher(INDEXER_ACCESS, arg);
-            Variable v = scopes.find(idxM.group("var"));
-            if (!v.type.isRayType()) {
-                throw new TypeError(
-                    format("Variable `{0}` isn't an array type and can't be indexed", arg),
-                    line.lineNum
-                );
-            }
-            argType = v.type.listOf;
         } else {
-            throw new InvalidStatementError("Invalid argument to out: " + arg, line.lineNum);
+            //int, boolean, or string literal expression
+            argType = inferType(arg, scopes);
+            if (argType != null && argType.isRayType()) {
+                argType = null; //ray literals can't be printed
+            }
+            if (argType == null && INDEXER_ACCESS.matcher(arg).matches()) {
+                argType = indexedType(armMatcher(INDEXER_ACCESS, arg), line, scopes);
+            } else if (argType == null) {
+                throw new InvalidStatementError("Invalid argument to out: " + arg, line.lineNum);
+            }
         }
-        java
-            .append(ln == null ? "System.out.print(" : "System.out.println(")
-            .append(finalReplacements(arg, argType))
-            .append(");\n");
+        if (checkOnly) {
+            return;
+        }
+        Expr argument = argType == null ? null : expr(arg, argType, scopes);
+        block.add(new Stmt.Print(line.lineNum, argument, ln != null));
     }
 
     /**
@@ -794,31 +1505,34 @@ outln(expr)
 list[2] = 10
      * </pre>
      * @param line The line to process.
-     * @param java The ongoing Java file to append translated java to.
+     * @param block The block to add the statement to.
      * @param scopes The ScopeStack representing current variables.
      */
-    public void handleRayIndexAssignment(Line line, StringBuilder java, ScopeStack scopes) {
+    public void handleRayIndexAssignment(Line line, Block block, ScopeStack scopes) {
         Matcher m = armMatcher(INDEXER_ASSIGN, line.judo);
         String rayName = m.group("var");
-        String index = m.group("index");
         String value = m.group("value");
         Variable ray = scopes.find(rayName);
-        if (!ray.type.isRayType()) {
-            throw new TypeError(
-                format("Variable `{0}` isn't an array type and can't be indexed", rayName),
-                line.lineNum
-            );
+        Type scalarType = indexedType(m, line, scopes);
+        validateByScalarType(value, scalarType, scopes);
+        if (checkOnly) {
+            return;
         }
-        Type scalarType = ray.type.listOf;
-        validateByScalarType(index, Type.INT);
-        validateByScalarType(value, scalarType);
-        java
-            .append(rayName)
-            .append("[")
-            .append(finalReplacements(index, Type.INT))
-            .append("] = ")
-            .append(finalReplacements(value, scalarType))
-            .append(";");
+        Expr index = expr(m.group("index"), Type.INT, scopes);
+        if (ray.type.isGridType()) {
+            //the row and column of a grid are a place in the flat ray it's in
+            Expr column = expr(m.group("column"), Type.INT, scopes);
+            Expr columns = new Expr.VarRef(Expr.GridOffset.columnsOf(rayName), Type.INT);
+            index = new Expr.GridOffset(index, column, columns);
+        }
+        block.add(
+            new Stmt.IndexAssign(
+                line.lineNum,
+                new Expr.VarRef(rayName, ray.type),
+                index,
+                expr(value, scalarType, scopes)
+            )
+        );
     }
 
     /**
@@ -0,0 +1,43 @@
+package parser;
+
+/**
+ * Simple enum representing the kinds of statement a line of Judo can be,
+ * named the way they're written. Kinds that open a block of their own, like
+ * loops and conditionals, are followed by an indented body.
+ */
+public enum StatementKind {
+    IMPORT("import", false),
+    LET("let", false),
+    REASSIGN("reassign", false),
+    IF("if", true),
+    ELF("elf", true),
+    ELSE("else", true),
+    FOR_RANGE("for range", true),
+    FOR_EACH("for each", true),
+    LOOP("loop", true),
+    OUT("out", false),
+    INDEX_ASSIGN("index assign", false),
+    HALLPASS("hallpass", false);
+
+    public final String name;
+    public final boolean opensBlock;
+
+    StatementKind(String name, boolean opensBlock) {
+        this.name = name;
+        this.opensBlock = opensBlock;
+    }
+
+    /**
+     * @return Whether this is part of an if/elf/else chain.
+     */
+    public boolean isConditional() {
+        return this == IF || this == ELF || this == ELSE;
+    }
+
+    /**
+     * @return The name of the kind, as it's written.
+     */
+    public String toString() {
+        return this.name;
+    }
+}
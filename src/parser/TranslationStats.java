@@ -0,0 +1,324 @@
+package parser;
+
+import ir.JavaEmitter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Where the time translating one Judo file went, phase by phase, along with
+ * how much was translated, which statements took longest, and how much heap
+ * was allocated on the way. Written out as JSON for build dashboards.
+ *
+ * Statements in parallel blocks are timed on whichever thread parses them,
+ * so phase times add up the time of every thread, not the wall clock time.
+ * Allocations are counted the same way: on the thread the stats were made
+ * on, and on a pool thread only while it parses a block of this file, so
+ * whatever else the JVM is doing at the same time isn't counted.
+ * Time spent validating and replacing expressions during a statement is
+ * counted under those phases, and the rest of the statement's time, which
+ * goes into building its IR, under emission, along with the pass that
+ * generates the Java. Every other pass counts under optimization, and each
+ * pass is reported on its own too.
+ */
+public class TranslationStats {
+
+    public static final int DEFAULT_SLOWEST = 10;
+
+    /**
+     * The phases of translation, named the way they're written in the report.
+     */
+    public enum Phase {
+        INGEST("ingest"),
+        INDENTATION("indentation"),
+        DISPATCH("dispatch"),
+        VALIDATION("validation"),
+        REPLACEMENT("replacement"),
+        OPTIMIZATION("optimization"),
+        EMISSION("emission"),
+        WRITE("write");
+
+        public final String name;
+
+        Phase(String name) {
+            this.name = name;
+        }
+    }
+
+    private final int slowestCount;
+    private final Map<Phase, LongAdder> phases = new EnumMap<>(Phase.class);
+    private final LongAdder statements = new LongAdder();
+    private final PriorityQueue<StatementTiming> slowest = new PriorityQueue<>();
+    private final Map<String, Long> passes = new LinkedHashMap<>();
+    /**
+     * Per thread: how long validation and replacement took so far, and how
+     * long they had taken when the current statement started.
+     */
+    private final ThreadLocal<long[]> nested = ThreadLocal.withInitial(() -> new long[2]);
+    private final long thread = Thread.currentThread().getId();
+    private final long allocatedAtStart;
+    private final LongAdder allocatedOnPool = new LongAdder();
+    private final long start = System.nanoTime();
+    private long totalNanos = -1;
+    private long allocatedBytes = -1;
+    private String file = "";
+    private int sourceLines;
+    private long expressions;
+    private long expressionCacheHits;
+    private boolean cached;
+
+    /**
+     * Starts the clock, and counting allocations.
+     * @param slowestCount How many of the slowest statements to remember.
+     */
+    public TranslationStats(int slowestCount) {
+        this.slowestCount = slowestCount;
+        for (Phase phase : Phase.values()) {
+            phases.put(phase, new LongAdder());
+        }
+        this.allocatedAtStart = allocatedByThisThread();
+    }
+
+    /**
+     * Adds the time since the given start to a phase.
+     * @param phase The phase.
+     * @param startNanos When the phase started, from System.nanoTime().
+     */
+    public void add(Phase phase, long startNanos) {
+        phases.get(phase).add(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Adds how long each pass took, emission under its own phase and the
+     * rest under optimization.
+     * @param timings Nanoseconds by pass name, from PassManager.timings().
+     */
+    public synchronized void addPasses(Map<String, Long> timings) {
+        for (Map.Entry<String, Long> timing : timings.entrySet()) {
+            boolean emission = timing.getKey().equals(JavaEmitter.NAME);
+            phases
+                .get(emission ? Phase.EMISSION : Phase.OPTIMIZATION)
+                .add(timing.getValue());
+            passes.merge(timing.getKey(), timing.getValue(), Long::sum);
+        }
+    }
+
+    /**
+     * Same as add(phase, startNanos), for phases that happen in the middle of
+     * a statement, so they aren't counted as its emission too.
+     */
+    void addNested(Phase phase, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        phases.get(phase).add(nanos);
+        nested.get()[0] += nanos;
+    }
+
+    /**
+     * @return When the statement about to be handled started.
+     */
+    long beginStatement() {
+        long[] times = nested.get();
+        times[1] = times[0];
+        return System.nanoTime();
+    }
+
+    /**
+     * Records how long a statement took, not counting its body.
+     * @param kind The kind of statement.
+     * @param line Its line number.
+     * @param startNanos What beginStatement returned.
+     */
+    void endStatement(StatementKind kind, int line, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        long[] times = nested.get();
+        phases.get(Phase.EMISSION).add(nanos - (times[0] - times[1]));
+        statements.increment();
+        if (slowestCount < 1) {
+            return;
+        }
+        synchronized (slowest) {
+            if (slowest.size() < slowestCount) {
+                slowest.add(new StatementTiming(kind, line, nanos));
+            } else if (slowest.peek().nanos < nanos) {
+                slowest.poll();
+                slowest.add(new StatementTiming(kind, line, nanos));
+            }
+        }
+    }
+
+    /**
+     * @return What to hand endTask once the block about to be parsed on this
+     * thread is done.
+     */
+    long beginTask() {
+        //the thread the stats were made on is counted as a whole already
+        return Thread.currentThread().getId() == thread ? -1 : allocatedByThisThread();
+    }
+
+    /**
+     * Counts what a block parsed on a pool thread allocated.
+     * @param allocatedAtStart What beginTask returned.
+     */
+    void endTask(long allocatedAtStart) {
+        long allocated = allocatedAtStart < 0 ? -1 : allocatedByThisThread();
+        if (allocated >= 0) {
+            allocatedOnPool.add(allocated - allocatedAtStart);
+        }
+    }
+
+    /**
+     * Fills in what only the caller knows about the translation.
+     * @param file The Judo file.
+     * @param parser Its Parser, or null if it never got one because its
+     *               translation was cached.
+     */
+    public void describe(String file, Parser parser) {
+        this.file = file;
+        this.cached = parser == null;
+        if (parser != null) {
+            this.sourceLines = parser.getSourceLineCount();
+            ExpressionCache cache = parser.getExpressionCache();
+            this.expressions = cache.hits() + cache.misses();
+            this.expressionCacheHits = cache.hits();
+        }
+    }
+
+    /**
+     * Stops the clock, and counting allocations, which is only possible on
+     * the thread the stats were made on.
+     */
+    public void finish() {
+        totalNanos = System.nanoTime() - start;
+        long allocated = Thread.currentThread().getId() == thread ? allocatedByThisThread() : -1;
+        if (allocated >= 0 && allocatedAtStart >= 0) {
+            allocatedBytes = allocated - allocatedAtStart + allocatedOnPool.sum();
+        }
+    }
+
+    /**
+     * @param phase A phase.
+     * @return How long it took, in nanoseconds.
+     */
+    public long nanos(Phase phase) {
+        return phases.get(phase).sum();
+    }
+
+    /**
+     * @return How many bytes of heap the translation allocated, or -1 if the
+     * JVM can't tell, or finish wasn't called on the thread that made these.
+     */
+    public long allocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * @return How many statements were handled.
+     */
+    public long statements() {
+        return statements.sum();
+    }
+
+    /**
+     * @return The report, as a JSON object.
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"file\": ").append(quote(file)).append(",\n");
+        json.append("  \"cached\": ").append(cached).append(",\n");
+        json.append("  \"totalNanos\": ").append(totalNanos).append(",\n");
+        json.append("  \"phaseNanos\": {\n");
+        Phase[] all = Phase.values();
+        for (int i = 0; i < all.length; i++) {
+            json.append("    ").append(quote(all[i].name)).append(": ").append(nanos(all[i]));
+            json.append(i < all.length - 1 ? ",\n" : "\n");
+        }
+        json.append("  },\n");
+        json.append("  \"passNanos\": {");
+        synchronized (this) {
+            int i = 0;
+            for (Map.Entry<String, Long> pass : passes.entrySet()) {
+                json.append(i++ == 0 ? "\n    " : ",\n    ").append(quote(pass.getKey()));
+                json.append(": ").append(pass.getValue());
+            }
+            json.append(passes.isEmpty() ? "},\n" : "\n  },\n");
+        }
+        json.append("  \"sourceLines\": ").append(sourceLines).append(",\n");
+        json.append("  \"statements\": ").append(statements()).append(",\n");
+        json.append("  \"expressions\": ").append(expressions).append(",\n");
+        json.append("  \"expressionCacheHits\": ").append(expressionCacheHits).append(",\n");
+        json.append("  \"heapAllocatedBytes\": ").append(allocatedBytes).append(",\n");
+        json.append("  \"slowestStatements\": [");
+        List<StatementTiming> timings;
+        synchronized (slowest) {
+            timings = new ArrayList<>(slowest);
+        }
+        timings.sort((a, b) -> Long.compare(b.nanos, a.nanos));
+        for (int i = 0; i < timings.size(); i++) {
+            StatementTiming timing = timings.get(i);
+            json.append(i == 0 ? "\n" : ",\n");
+            json.append("    {\"line\": ").append(timing.line);
+            json.append(", \"kind\": ").append(quote(timing.kind.name));
+            json.append(", \"nanos\": ").append(timing.nanos).append("}");
+        }
+        json.append(timings.isEmpty() ? "]\n" : "\n  ]\n");
+        return json.append("}\n").toString();
+    }
+
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < ' ') {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Asks the JVM how much the current thread has allocated.
+     * @return Bytes allocated so far, or -1 if the JVM can't tell.
+     */
+    private static long allocatedByThisThread() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) threads;
+        if (!sun.isThreadAllocatedMemorySupported() || !sun.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        return sun.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * How long one statement took. Orders shortest first, so the shortest of
+     * the slowest is the one to drop.
+     */
+    private static class StatementTiming implements Comparable<StatementTiming> {
+
+        final StatementKind kind;
+        final int line;
+        final long nanos;
+
+        StatementTiming(StatementKind kind, int line, long nanos) {
+            this.kind = kind;
+            this.line = line;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public int compareTo(StatementTiming other) {
+            return Long.compare(nanos, other.nanos);
+        }
+    }
+}
@@ -3,7 +3,9 @@ package parser;
 /**
  * Simple enum representing our types. Has a slightly recursive structure in that
  * ray/list types point at the Type that they are a list of. Also has the legal
- * Java type identifier associated with each type.
+ * Java type identifier associated with each type. Two dimensional rays, grids,
+ * are stored in one flat array, row after row, so their Java type is the same
+ * as a ray's.
  */
 public enum Type {
     INT("int", null),
@@ -11,14 +13,23 @@ public enum Type {
     STRING("String", null),
     INT_LIST("int[]", INT),
     STRING_LIST("String[]", STRING),
-    BOOL_LIST("boolean[]", BOOL);
+    BOOL_LIST("boolean[]", BOOL),
+    INT_GRID("int[]", INT, true),
+    STRING_GRID("String[]", STRING, true),
+    BOOL_GRID("boolean[]", BOOL, true);
 
     public final String javaType;
     public final Type listOf;
+    private final boolean grid;
 
     Type(String javaType, Type listOf) {
+        this(javaType, listOf, false);
+    }
+
+    Type(String javaType, Type listOf, boolean grid) {
         this.javaType = javaType;
         this.listOf = listOf;
+        this.grid = grid;
     }
 
     /**
@@ -28,6 +39,26 @@ public enum Type {
         return this.javaType.endsWith("[]");
     }
 
+    /**
+     * @return Whether this type is a ray indexed by a row and a column, like
+     * grid[i][j], which is also a ray type.
+     */
+    public boolean isGridType() {
+        return this.grid;
+    }
+
+    /**
+     * @return The grid type of the same elements as this ray type.
+     */
+    public Type gridOf() {
+        for (Type t : values()) {
+            if (t.grid && t.listOf == this.listOf) {
+                return t;
+            }
+        }
+        throw new IllegalArgumentException(this + " isn't a ray type");
+    }
+
     /**
      * @return The Java type identifier
      */
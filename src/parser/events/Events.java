@@ -0,0 +1,37 @@
+package parser.events;
+
+/**
+ * The translator's Java Flight Recorder events, for profiling where its time
+ * goes one Judo line at a time. JFR is only there from JDK 8u262 on, and
+ * isn't part of Java 8 itself, so the events are built from src-jfr on their
+ * own and only loaded, by name, when the JVM has JFR. Anywhere else, and in
+ * a build without them, the translator runs just the same, without events.
+ *
+ * While nothing is recording, creating an event and checking whether it's
+ * enabled is all the work done, which the JIT compiles down to next to
+ * nothing, so the events are always left in.
+ */
+public final class Events {
+
+    /**
+     * Where the translator reports its work, which is JFR if it can be.
+     */
+    public static final TranslationEvents RECORDER = load();
+
+    private static final String JFR_EVENTS = "parser.events.jfr.JfrEvents";
+
+    private Events() {}
+
+    private static TranslationEvents load() {
+        ClassLoader loader = Events.class.getClassLoader();
+        try {
+            Class.forName("jdk.jfr.Event", false, loader);
+            return (TranslationEvents) Class
+                .forName(JFR_EVENTS, true, loader)
+                .getConstructor()
+                .newInstance();
+        } catch (ReflectiveOperationException | LinkageError | ClassCastException e) {
+            return TranslationEvents.NONE;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package parser.events;
+
+/**
+ * Where the translator reports the work it does, for profiling it one Judo
+ * line at a time. Each kind of work is started, which gives back an event,
+ * or null if nothing is recording it, and then done with that event.
+ *
+ * Nothing here refers to JFR, so the translator builds and runs without it.
+ * Every method does nothing by default, which is all {@link #NONE} does.
+ */
+public interface TranslationEvents {
+
+    /**
+     * Records nothing.
+     */
+    TranslationEvents NONE = new TranslationEvents() {};
+
+    /**
+     * Translating, or only checking, one whole Judo file.
+     * @param file The Judo file, empty for files that didn't come from disk.
+     * @param className The Java class it's translated into, empty when only
+     *                  checking.
+     * @param mode full, module or validate.
+     * @param lines How many lines the file has, including blank ones.
+     * @return The started event, or null if it isn't being recorded.
+     */
+    default Object fileStarted(String file, String className, String mode, int lines) {
+        return null;
+    }
+
+    default void fileDone(Object event) {}
+
+    /**
+     * Parsing one block of Judo, including every block nested in it.
+     * @param file The Judo file.
+     * @param firstLine The line number of the block's first line.
+     * @param depth How deeply the block is nested, 0 being the top level.
+     * @return The started event, or null if it isn't being recorded.
+     */
+    default Object blockStarted(String file, int firstLine, int depth) {
+        return null;
+    }
+
+    /**
+     * @param lines How many lines the block turned out to have.
+     */
+    default void blockDone(Object event, int lines) {}
+
+    /**
+     * Handling one statement, not counting the body of a loop or conditional.
+     * @param file The Judo file.
+     * @param line The statement's line number.
+     * @param kind What kind of statement it is, like let, for range or out.
+     * @return The started event, or null if it isn't being recorded.
+     */
+    default Object statementStarted(String file, int line, String kind) {
+        return null;
+    }
+
+    default void statementDone(Object event) {}
+
+    /**
+     * Running one expression through one grammar.
+     * @param file The Judo file.
+     * @param grammar The grammar.
+     * @param expression The expression.
+     * @return The started event, or null if it isn't being recorded.
+     */
+    default Object grammarStarted(String file, Object grammar, CharSequence expression) {
+        return null;
+    }
+
+    /**
+     * @param accepted Whether the grammar accepted the expression. Throwing
+     *                 counts as not.
+     */
+    default void grammarDone(Object event, boolean accepted) {}
+}
@@ -1,21 +1,66 @@
 package tests;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import ir.BitPacking;
+import ir.ConstantFolding;
+import ir.ConstantPropagation;
+import ir.DeadCodeElimination;
+import ir.Expr;
+import ir.JavaEmitter;
+import ir.LoopInvariantHoisting;
+import ir.LoopUnrolling;
+import ir.Pass;
+import ir.PassManager;
+import ir.PrintCoalescing;
+import ir.Program;
+import ir.StrengthReduction;
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import parser.Parser;
+import parser.TranslationStats;
+import parser.Type;
 import parser.errors.IndentationError;
 import parser.errors.InvalidStatementError;
 import parser.errors.TypeError;
 import parser.errors.VariableError;
+import translator.BatchTranslator;
+import translator.InMemoryCompiler;
+import translator.ModuleGraph;
+import translator.SourceFile;
+import translator.TranslationCache;
+import translator.TranslationServer;
+import translator.Watcher;
 
 public class ParserTests {
 
@@ -168,6 +213,1095 @@ public class ParserTests {
         runGeneratedJava(code, className);
     }
 
+    @Test
+    void testValidateOnly() {
+        new Parser("testing-judo-files/valid/Checkerboard.txt").validate();
+        new Parser("testing-judo-files/valid/general.judo").validate();
+        final Parser typeError = new Parser("testing-judo-files/invalid/badtypereassign.judo");
+        assertThrows(TypeError.class, typeError::validate);
+        final Parser statementError = new Parser("testing-judo-files/invalid/badprint.judo");
+        assertThrows(InvalidStatementError.class, statementError::validate);
+        final Parser variableError = new Parser("testing-judo-files/invalid/reserved.judo");
+        assertThrows(VariableError.class, variableError::validate);
+    }
+
+    @Test
+    void testParallelMatchesSequential() {
+        List<String> judo = new ArrayList<>();
+        judo.add("let total = 0");
+        for (int i = 0; i < 200; i++) {
+            judo.add("for i in 0..10:");
+            judo.add("    let x = i mod " + (i % 5 + 2));
+            judo.add("    if x == 0:");
+            judo.add("        total = total + x");
+            judo.add("if total > " + i + ":");
+            judo.add("    outln(total)");
+            judo.add("else:");
+            judo.add("    out(\"small\")");
+            judo.add("let v" + i + " = total");
+        }
+        String[] lines = judo.toArray(new String[0]);
+        String sequential = new Parser("    ", lines).parseFull("TestParallel");
+        String parallel = new Parser("    ", lines)
+            .parseFull("TestParallel", ForkJoinPool.commonPool());
+        //the first line is a timestamp
+        assertEquals(dropFirstLine(sequential), dropFirstLine(parallel));
+    }
+
+    @Test
+    void testParallelThrowsFirstError() {
+        final Parser p = new Parser(
+            "    ",
+            "let a = 1",
+            "for i in 0..10:",
+            "    a = T",
+            "for j in 0..10:",
+            "    out(1 or 10)"
+        );
+        assertThrows(TypeError.class, () -> p.parseFull("Test", ForkJoinPool.commonPool()));
+    }
+
+    @Test
+    void testExpressionCache() {
+        final Parser p = new Parser(
+            "    ",
+            "let x = 1",
+            "let a = x + 1",
+            "for i in 0..2:",
+            "    let b = x + 1",
+            "    let x = T",
+            "    let c = x and T"
+        );
+        p.parseFull("Test");
+        assertTrue(p.getExpressionCache().hits() > 0);
+        final Parser shadowed = new Parser(
+            "    ",
+            "let x = 1",
+            "let a = x + 1",
+            "for i in 0..2:",
+            "    let x = T",
+            "    let b = x + 1"
+        );
+        //a stale answer for `x + 1` would let this through
+        assertThrows(InvalidStatementError.class, () -> shadowed.parseFull("Test"));
+    }
+
+    @Test
+    void testBatchCheck() {
+        Path cwd = Paths.get("").toAbsolutePath();
+        List<SourceFile> files = SourceFile.expand(
+            Arrays.asList(
+                "testing-judo-files/invalid",
+                "testing-judo-files/valid/*.txt",
+                "missing.judo",
+                "testing-judo-files/valid/Stars.txt"
+            ),
+            cwd
+        );
+        //4 invalid, 3 .txt, the missing file, and Stars.txt only once
+        assertEquals(8, files.size());
+        assertEquals("testing-judo-files/invalid/badprint.judo", files.get(0).name);
+        assertEquals("testing-judo-files/valid/Checkerboard.txt", files.get(4).name);
+        assertEquals("File not found", files.get(7).error);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BatchTranslator batch = new BatchTranslator(cwd, 4, true);
+        assertFalse(batch.run(files, new PrintStream(bytes)));
+        String[] out = bytes.toString().split(System.lineSeparator());
+        assertEquals("FAILED  testing-judo-files/invalid/badprint.judo", out[0]);
+        assertEquals("ok      testing-judo-files/valid/Checkerboard.txt", out[8]);
+        assertEquals("FAILED  missing.judo", out[11]);
+        assertEquals("8 file(s) checked, 5 failed", out[13]);
+    }
+
+    @Test
+    void testTranslationServer() throws IOException {
+        TranslationServer server = new TranslationServer(
+            (args, cwd, in, out, err) -> {
+                out.println(String.join(" ", args));
+                out.printf("in %s", cwd);
+                err.println("on stderr");
+                return args.length;
+            }
+        );
+        String requests = "/tmp\ta.judo\tb.judo\nrelative\n/\t--shutdown\n/tmp\tignored\n";
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        server.serve(new ByteArrayInputStream(requests.getBytes()), bytes);
+        String[] replies = bytes.toString().split("\n");
+        assertEquals("out a.judo b.judo", replies[0]);
+        assertEquals("err on stderr", replies[1]);
+        //without a newline of its own, so the client mustn't add one
+        assertEquals("part out in /tmp", replies[2]);
+        assertEquals("exit 2", replies[3]);
+        assertEquals("err Expected an absolute working directory, not relative", replies[4]);
+        assertEquals("exit 1", replies[5]);
+        assertEquals("exit 0", replies[6]);
+        assertEquals(7, replies.length);
+    }
+
+    @Test
+    void testTranslationServerToken() throws IOException, InterruptedException {
+        Path tokenFile = Files.createTempDirectory("judo-server").resolve("token");
+        int port;
+        try (ServerSocket free = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = free.getLocalPort();
+        }
+        TranslationServer server = new TranslationServer(
+            (args, cwd, in, out, err) -> {
+                out.println("ran " + args[0]);
+                return 0;
+            }
+        );
+        Thread listening = new Thread(
+            () -> {
+                try {
+                    server.listen(port, tokenFile);
+                } catch (IOException e) {
+                    Assertions.fail(e.toString());
+                }
+            }
+        );
+        listening.start();
+        for (int i = 0; i < 100 && !Files.exists(tokenFile); i++) {
+            Thread.sleep(50);
+        }
+        String token = new String(Files.readAllBytes(tokenFile), StandardCharsets.UTF_8);
+        assertEquals(64, token.length());
+        if (tokenFile.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            assertEquals(
+                "rw-------",
+                PosixFilePermissions.toString(Files.getPosixFilePermissions(tokenFile))
+            );
+        }
+        String rejected = "err Expected the token in " + tokenFile + " first\nexit 1\n";
+        assertEquals(rejected, request(port, "/tmp\ta.judo\n"));
+        assertEquals(rejected, request(port, "not" + token + "\n/tmp\ta.judo\n"));
+        assertEquals("out ran a.judo\nexit 0\n", request(port, token + "\n/tmp\ta.judo\n"));
+        assertEquals("exit 0\n", request(port, token + "\n/\t--shutdown\n"));
+        listening.join(5000);
+        assertFalse(listening.isAlive());
+        assertFalse(Files.exists(tokenFile));
+    }
+
+    @Test
+    void testTranslationServerInput() throws IOException {
+        final Parser p = new Parser(
+            "    ",
+            "let xs = readints()",
+            "let total = 0",
+            "for x in xs:",
+            "    total = total + x",
+            "outln(total)"
+        );
+        Map<String, byte[]> classes = InMemoryCompiler.compile(
+            "TestServerInput",
+            p.parseFull("TestServerInput"),
+            System.err
+        );
+        TranslationServer server = new TranslationServer(
+            (args, cwd, in, out, err) ->
+                InMemoryCompiler.run("TestServerInput", classes, args, in, out, err)
+        );
+        //the client's stdin is "12\n34\n5", sent when the program asks for it
+        String requests = "/tmp\nin 12\nin 34\nmore\npart 5\neof\n/\t--shutdown\n";
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        server.serve(new ByteArrayInputStream(requests.getBytes()), bytes);
+        assertEquals("in\nin\nout 51\nexit 0\nexit 0\n", bytes.toString());
+    }
+
+    private static String request(int port, String request) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.getOutputStream().write(request.getBytes(StandardCharsets.UTF_8));
+            socket.shutdownOutput();
+            ByteArrayOutputStream reply = new ByteArrayOutputStream();
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[1024];
+            for (int n; (n = in.read(buffer)) > 0;) {
+                reply.write(buffer, 0, n);
+            }
+            return new String(reply.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    void testRunInMemory() {
+        final Parser p = new Parser(
+            "    ",
+            "let n = 0",
+            "let top = argos[0]",
+            "let at = argos[1]",
+            "for i in 0..top:",
+            "    n = n + i",
+            "outln(n)",
+            "let r = [1, 2]",
+            "out(r[at])"
+        );
+        String code = p.parseFull("TestRunInMemory");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        Map<String, byte[]> classes = InMemoryCompiler.compile(
+            "TestRunInMemory",
+            code,
+            new PrintStream(err)
+        );
+        String[] argos = { "5", "1" };
+        int exit = InMemoryCompiler.run(
+            "TestRunInMemory",
+            classes,
+            argos,
+            new PrintStream(out),
+            new PrintStream(err)
+        );
+        assertEquals(0, exit);
+        assertEquals("10" + System.lineSeparator() + "2", out.toString());
+        argos[1] = "2";
+        out.reset();
+        exit =
+            InMemoryCompiler.run(
+                "TestRunInMemory",
+                classes,
+                argos,
+                new PrintStream(out),
+                new PrintStream(err)
+            );
+        assertEquals(1, exit);
+        assertTrue(err.toString().startsWith("Exception in thread \"main\""));
+    }
+
+    @Test
+    void testTranslationCache() throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("judo-cache");
+        TranslationCache cache = TranslationCache.open(dir, 250);
+        String a = cache.key("let a = 1".getBytes(), "A");
+        String b = cache.key("let b = 1".getBytes(), "B");
+        String c = cache.key("let c = 1".getBytes(), "C");
+        assertEquals(a, cache.key("let a = 1".getBytes(), "A"));
+        assertTrue(!a.equals(cache.key("let a = 1".getBytes(), "Other")));
+        String body = String.format("%0100d", 0);
+        cache.putJava(a, Parser.generatedHeader() + body);
+        Thread.sleep(20);
+        cache.putJava(b, Parser.generatedHeader() + body);
+        Thread.sleep(20);
+        assertEquals(body, dropFirstLine(cache.getJava(a)));
+        Thread.sleep(20);
+        //over the limit, so b, which was used least recently, has to go
+        cache.putJava(c, Parser.generatedHeader() + body);
+        assertTrue(cache.getJava(a).startsWith(Parser.GENERATED_HEADER));
+        assertEquals(null, cache.getJava(b));
+        assertEquals(body, dropFirstLine(cache.getJava(c)));
+        assertEquals(3, cache.hits());
+        assertEquals(1, cache.misses());
+        //opening it again, like a later request to the server, applies the new limit
+        assertTrue(cache == TranslationCache.open(dir, 1000));
+        cache.putJava(b, Parser.generatedHeader() + body);
+        assertEquals(body, dropFirstLine(cache.getJava(a)));
+        assertEquals(body, dropFirstLine(cache.getJava(b)));
+        assertEquals(body, dropFirstLine(cache.getJava(c)));
+    }
+
+    @Test
+    void testWatcher() throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("judo-watch");
+        Path judo = dir.resolve("watched.judo");
+        Files.write(judo, "let x = 1\n".getBytes());
+        List<String> seen = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch twice = new CountDownLatch(2);
+        Watcher watcher = new Watcher(Arrays.asList(dir.toString()), dir, 50);
+        Thread watching = new Thread(
+            () -> {
+                try {
+                    watcher.watch(
+                        file -> {
+                            seen.add(file.path.getFileName().toString());
+                            twice.countDown();
+                            return 0;
+                        },
+                        new PrintStream(new ByteArrayOutputStream())
+                    );
+                } catch (IOException e) {
+                    Assertions.fail(e.toString());
+                }
+            }
+        );
+        watching.start();
+        Thread.sleep(500);
+        //several saves in a row should only be acted on once
+        for (int i = 0; i < 3; i++) {
+            Files.write(judo, ("let x = " + i + "\n").getBytes());
+        }
+        Files.write(dir.resolve("ignored.txt"), "not judo".getBytes());
+        assertTrue(twice.await(10, TimeUnit.SECONDS));
+        Thread.sleep(300);
+        watching.interrupt();
+        watching.join(5000);
+        assertEquals(Arrays.asList("watched.judo", "watched.judo"), seen);
+    }
+
+    @Test
+    void testWatcherFileList() throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("judo-watch-list");
+        Files.write(dir.resolve("a.judo"), "let x = 1\n".getBytes());
+        Files.write(dir.resolve("b.judo"), "let y = 2\n".getBytes());
+        Path list = dir.resolve("list.txt");
+        Files.write(list, "a.judo\n".getBytes());
+        List<String> seen = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch twice = new CountDownLatch(2);
+        Watcher watcher = new Watcher(Arrays.asList("@list.txt"), dir, 50);
+        Thread watching = new Thread(
+            () -> {
+                try {
+                    watcher.watch(
+                        file -> {
+                            seen.add(file.path.getFileName().toString());
+                            twice.countDown();
+                            return 0;
+                        },
+                        new PrintStream(new ByteArrayOutputStream())
+                    );
+                } catch (IOException e) {
+                    Assertions.fail(e.toString());
+                }
+            }
+        );
+        watching.start();
+        Thread.sleep(500);
+        //b.judo itself doesn't change, only the list naming it does
+        Files.write(list, "a.judo\nb.judo\n".getBytes());
+        assertTrue(twice.await(10, TimeUnit.SECONDS));
+        Thread.sleep(300);
+        watching.interrupt();
+        watching.join(5000);
+        assertEquals(Arrays.asList("a.judo", "b.judo"), seen);
+    }
+
+    @Test
+    void testModules() throws IOException {
+        Path dir = Files.createTempDirectory("judo-modules");
+        Files.write(dir.resolve("shapes.judo"), "let sides = 4\nlet name = 1\n".getBytes());
+        Files.write(dir.resolve("main.judo"), "import shapes\nout(sides * 2)\n".getBytes());
+        ModuleGraph graph = new ModuleGraph(null, false);
+        Path main = dir.resolve("main.judo");
+        Parser p = new Parser(main);
+        p.setModuleResolver(graph.resolverFor(main));
+        Map<String, String> sources = new LinkedHashMap<>();
+        sources.put("main", p.parseFull("main"));
+        sources.putAll(graph.javaSources());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintStream err = new PrintStream(new ByteArrayOutputStream());
+        Map<String, byte[]> classes = InMemoryCompiler.compile(sources, err);
+        int exit = InMemoryCompiler.run("main", classes, new String[0], new PrintStream(out), err);
+        assertEquals(0, exit);
+        assertEquals("8", out.toString());
+        //imported variables aren't exported again
+        final Parser reexport = new Parser("    ", "import shapes", "let area = sides");
+        reexport.setModuleResolver(graph.resolverFor(main));
+        reexport.validate();
+        assertEquals(Collections.singletonMap("area", Type.INT), reexport.getExports());
+        final Parser dup = new Parser("    ", "let sides = 1", "import shapes");
+        dup.setModuleResolver(graph.resolverFor(main));
+        assertThrows(VariableError.class, dup::validate);
+        final Parser nested = new Parser("    ", "if T:", "    import shapes");
+        nested.setModuleResolver(graph.resolverFor(main));
+        assertThrows(InvalidStatementError.class, nested::validate);
+        final Parser missing = new Parser("    ", "import circles");
+        missing.setModuleResolver(graph.resolverFor(main));
+        assertThrows(InvalidStatementError.class, missing::validate);
+    }
+
+    @Test
+    void testModuleRebuilds() throws IOException {
+        Path dir = Files.createTempDirectory("judo-rebuilds");
+        Path out = dir.resolve("out");
+        Path base = dir.resolve("base.judo");
+        Path middle = dir.resolve("middle.judo");
+        Files.write(base, "let x = 1\n".getBytes());
+        Files.write(middle, "import base\nlet y = x + 1\n".getBytes());
+        ModuleGraph graph = new ModuleGraph(out, false);
+        graph.module(middle);
+        graph.save();
+        assertEquals(2, graph.translated());
+        //same exports, so only base is translated again
+        Files.write(base, "let x = 2\n".getBytes());
+        graph = new ModuleGraph(out, false);
+        graph.module(middle);
+        graph.save();
+        assertEquals(1, graph.translated());
+        assertEquals(1, graph.upToDate());
+        //new exports, so middle is too
+        Files.write(base, "let x = 2\nlet z = T\n".getBytes());
+        graph = new ModuleGraph(out, false);
+        graph.module(middle);
+        assertEquals(2, graph.translated());
+        Files.write(base, "import middle\nlet x = 1\n".getBytes());
+        final ModuleGraph cyclic = new ModuleGraph(out, false);
+        assertThrows(InvalidStatementError.class, () -> cyclic.module(middle));
+    }
+
+    @Test
+    void testTranslationStats() {
+        final Parser p = new Parser(
+            "    ",
+            "let n = 0",
+            "for i in 0..10:",
+            "    n = n + i * 2",
+            "outln(n)"
+        );
+        TranslationStats stats = new TranslationStats(2);
+        p.setStats(stats);
+        p.parseFull("TestTranslationStats");
+        stats.describe("stats.judo", p);
+        stats.finish();
+        assertEquals(4, stats.statements());
+        assertTrue(stats.nanos(TranslationStats.Phase.VALIDATION) > 0);
+        assertEquals(0, stats.nanos(TranslationStats.Phase.WRITE));
+        String json = stats.toJson();
+        assertTrue(json.contains("\"file\": \"stats.judo\""));
+        assertTrue(json.contains("\"sourceLines\": 4"));
+        //only the 2 slowest statements are kept
+        assertEquals(2, json.split("\"kind\"", -1).length - 1);
+    }
+
+    @Test
+    void testTranslationStatsAllocation() throws InterruptedException {
+        final Parser p = new Parser(
+            "    ",
+            "let n = 0",
+            "for i in 0..10:",
+            "    n = n + i",
+            "if n > 5:",
+            "    outln(n)"
+        );
+        TranslationStats stats = new TranslationStats(0);
+        p.setStats(stats);
+        //256 MB allocated by another thread while this translation runs
+        CountDownLatch allocated = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        Object[] sink = new Object[1];
+        Thread other = new Thread(
+            () -> {
+                for (int i = 0; i < 64; i++) {
+                    sink[0] = new byte[1 << 22];
+                }
+                allocated.countDown();
+                try {
+                    done.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        );
+        other.start();
+        p.parseFull("TestTranslationStatsAllocation", ForkJoinPool.commonPool());
+        assertTrue(allocated.await(10, TimeUnit.SECONDS));
+        stats.finish();
+        done.countDown();
+        other.join(5000);
+        assertTrue(stats.allocatedBytes() > 0);
+        assertTrue(stats.allocatedBytes() < 1 << 27);
+    }
+
+    @Test
+    void testPassManager() {
+        final Parser p = new Parser("    ", "let n = 2 + 3", "outln(n * (n + 1))");
+        PassManager passes = PassManager.standard();
+        passes.setAllEnabled(false);
+        p.setPasses(passes);
+        String plain = p.parseFull("TestPassManager");
+        assertTrue(plain.contains("int n = 2+3;"));
+        assertTrue(plain.contains("$Out.println(n*(n+1));"));
+        passes.register(
+            new Pass() {
+                @Override
+                public String name() {
+                    return "tenfold";
+                }
+
+                @Override
+                public void run(Program program) {
+                    program.main.rewriteExpressions(
+                        e ->
+                            e instanceof Expr.Literal && e.type == Type.INT
+                                ? Expr.Literal.of(((Expr.Literal) e).intValue() * 10)
+                                : e
+                    );
+                }
+            }
+        );
+        String java = p.parseFull("TestPassManager");
+        assertTrue(java.contains("int n = 20+30;"));
+        //only what the pass changed loses its original text
+        assertTrue(java.contains("$Out.println(n*(n+10));"));
+        assertEquals(Arrays.asList("tenfold", "emit"), new ArrayList<>(passes.timings().keySet()));
+        passes.setEnabled("tenfold", false);
+        assertEquals("", passes.signature());
+        java = p.parseFull("TestPassManager");
+        assertEquals(plain.substring(plain.indexOf('\n')), java.substring(java.indexOf('\n')));
+        assertThrows(IllegalArgumentException.class, () -> passes.setEnabled("nope", true));
+    }
+
+    @Test
+    void testConstantFolding() {
+        final Parser p = new Parser(
+            "    ",
+            "let size = 4 * 1024",
+            "let rest = size mod 7",
+            "let big = 2147483647 + 1",
+            "let q = -7 / 2",
+            "let r = -7 mod 2",
+            "let zero = 1 / 0",
+            "let c = 1",
+            "c = 2",
+            "let b = size > 4000 and T",
+            "for i in 0..(8 * 8):",
+            "    outln(rest + c)",
+            "loop b:",
+            "    outln(b)"
+        );
+        p.getPasses().setAllEnabled(false);
+        p.getPasses().setEnabled(ConstantFolding.NAME, true);
+        p.getPasses().setEnabled(ConstantPropagation.NAME, true);
+        String java = p.parseFull("TestConstantFolding");
+        assertTrue(java.contains("int size = 4096;"));
+        assertTrue(java.contains("int rest = 1;"));
+        assertTrue(java.contains("int big = -2147483648;"));
+        assertTrue(java.contains("int q = -3;"));
+        assertTrue(java.contains("int r = -1;"));
+        //left for the program to throw
+        assertTrue(java.contains("int zero = 1/0;"));
+        assertTrue(java.contains("boolean b = true;"));
+        assertTrue(java.contains("i < 64;"));
+        //c is assigned again, so it stays a variable
+        assertTrue(java.contains("$Out.println(1+c);"));
+        //while(true) would make javac reject anything after the loop
+        assertTrue(java.contains("while(b)"));
+        p.getPasses().setEnabled(ConstantPropagation.NAME, false);
+        java = p.parseFull("TestConstantFolding");
+        assertTrue(java.contains("int rest = size % 7;"));
+    }
+
+    @Test
+    void testLoopInvariantHoisting() {
+        final Parser p = new Parser(
+            "    ",
+            "let n = argos[0]",
+            "let total = 0",
+            "for i in 0..n:",
+            "    for j in 0..n * 2 + i[2 / n]:",
+            "        total = total + j * (n * 2)",
+            "let k = 0",
+            "loop k < n * 3:",
+            "    k = k + 1"
+        );
+        p.getPasses().setAllEnabled(false);
+        p.getPasses().setEnabled(LoopInvariantHoisting.NAME, true);
+        String java = p.parseFull("TestLoopInvariantHoisting");
+        assertTrue(java.contains("final int $inv0 = n*2;"));
+        assertTrue(java.contains("total = total+j*$inv0;"));
+        //i changes with the outer loop, so this goes between the two
+        assertTrue(java.contains("final int $inv2 = $inv0+i;"));
+        //2 / n throws if n is 0, and the step isn't evaluated unless the loop runs
+        assertTrue(java.contains("for(int j = 0; j < $inv2; j += 2/n)"));
+        assertTrue(java.contains("final int $inv1 = n*3;"));
+        assertTrue(java.contains("while(k<$inv1)"));
+        p.getPasses().setEnabled(LoopInvariantHoisting.NAME, false);
+        assertFalse(p.parseFull("TestLoopInvariantHoisting").contains("$inv"));
+    }
+
+    @Test
+    void testDeadCodeElimination() {
+        final Parser p = new Parser(
+            "    ",
+            "let debug = F",
+            "let n = argos[0]",
+            "let unused = n * 2",
+            "let count = 0",
+            "let total = 0",
+            "for i in 0..n:",
+            "    count = count + 1",
+            "    total = 1",
+            "    total = i * 2",
+            "if debug:",
+            "    outln(\"debug\")",
+            "elf n > 3:",
+            "    outln(total)",
+            "elf T:",
+            "    let half = n / 2",
+            "    out(half)",
+            "else:",
+            "    outln(0)"
+        );
+        p.getPasses().setAllEnabled(false);
+        p.getPasses().setEnabled(ConstantFolding.NAME, true);
+        p.getPasses().setEnabled(ConstantPropagation.NAME, true);
+        p.getPasses().setEnabled(DeadCodeElimination.NAME, true);
+        String java = p.parseFull("TestDeadCodeElimination");
+        assertFalse(java.contains("debug"));
+        assertFalse(java.contains("unused"));
+        //only ever read to count itself
+        assertFalse(java.contains("count"));
+        assertFalse(java.contains("total = 1;"));
+        assertTrue(java.contains("total = i*2;"));
+        //reading past the end of argos throws, so it stays even if nothing read n
+        assertTrue(java.contains("int n = argos[0];"));
+        assertTrue(java.contains("if (n > 3) {"));
+        assertTrue(java.contains("else {"));
+        assertFalse(java.contains("$Out.println(0);"));
+    }
+
+    @Test
+    void testStrengthReduction() {
+        final Parser p = new Parser(
+            "    ",
+            "let n = argos[0]",
+            "for i in 0..n:",
+            "    outln(i mod 8 + i / 4 + i * 8 + n * 10)",
+            "    outln(n mod 2 == 0)",
+            "outln(n mod 8 + n / 4)",
+            "for i in 0..n[2]:",
+            "    outln(i / 4)"
+        );
+        p.getPasses().setAllEnabled(false);
+        p.getPasses().setEnabled(StrengthReduction.NAME, true);
+        String java = p.parseFull("TestStrengthReduction");
+        assertTrue(java.contains("$Out.println((i&7)+(i>>2)+(i<<3)+((n<<3)+(n<<1)));"));
+        //the same either way, even if n is negative
+        assertTrue(java.contains("$Out.println((n&1)==0);"));
+        //n could be negative, and -7 / 4 is -1, not -2
+        assertTrue(java.contains("$Out.println(n % 8+n/4);"));
+        //i could overflow and wrap around to negative when the step is 2
+        assertTrue(java.contains("$Out.println(i/4);"));
+        List<String> remarks = p.getPasses().remarks();
+        assertEquals(5, remarks.size());
+        assertEquals("3: strength: `i % 8` became `i&7`", remarks.get(0));
+    }
+
+    @Test
+    void testLoopUnrolling() {
+        final Parser p = new Parser(
+            "    ",
+            "for k in 0..4:",
+            "    outln(k * 2)",
+            "for i in 0..19:",
+            "    let x = i + 1",
+            "    outln(x)",
+            "for j in 0..40:",
+            "    j = j + 1",
+            "    outln(j)"
+        );
+        p.getPasses().setAllEnabled(false);
+        p.getPasses().setEnabled(LoopUnrolling.NAME, true);
+        String java = p.parseFull("TestLoopUnrolling");
+        assertTrue(java.contains("$Out.println(0);"));
+        assertTrue(java.contains("$Out.println(6);"));
+        assertFalse(java.contains("k <"));
+        //38 statements is over the limit, but 8 copies of 2 isn't
+        assertTrue(java.contains("i < 16; i += 8"));
+        assertTrue(java.contains("int x = i+7+1;"));
+        assertTrue(java.contains("int x = 19;"));
+        //j is assigned, so it's not always what the range says
+        assertTrue(java.contains("j < 40"));
+        List<String> remarks = p.getPasses().remarks();
+        assertEquals(
+            Arrays.asList("1: unroll: 4 iterations unrolled", "3: unroll: unrolled by 8"),
+            remarks
+        );
+        assertTrue(p.getPasses().signature().contains("unroll(32)"));
+        runGeneratedJava(java, "TestLoopUnrolling");
+    }
+
+    @Test
+    void testBufferedOutput() {
+        final Parser p = new Parser("    ", "out(1)", "let z = argos[0]", "outln(2 / z)");
+        String java = p.parseFull("TestBufferedOutput");
+        assertTrue(java.contains("System.setOut(new java.io.PrintStream("));
+        assertTrue(java.contains("System.out.flush();"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int exit = InMemoryCompiler.run(
+            "TestBufferedOutput",
+            InMemoryCompiler.compile("TestBufferedOutput", java, new PrintStream(err)),
+            new String[] { "0" },
+            new PrintStream(out),
+            new PrintStream(err)
+        );
+        assertEquals(1, exit);
+        //what was printed before the exception still comes out
+        assertEquals("1", out.toString());
+        p.getPasses().replace(new JavaEmitter(true));
+        assertEquals("emit(line-flushed)", p.getPasses().signature().replaceAll(".*,", ""));
+        java = p.parseFull("TestBufferedOutput");
+        assertFalse(java.contains("setOut"));
+        assertTrue(java.contains("$Out.print(1);"));
+    }
+
+    @Test
+    void testPrintCoalescing() {
+        final Parser p = new Parser(
+            "    ",
+            "let n = argos[0]",
+            "out(\" \")",
+            "out(\"_\")",
+            "out(2 * 3)",
+            "outln()",
+            "outln()",
+            "out(\"a\\1\")",
+            "out(2)",
+            "for i in 0..n:",
+            "    out(\"*\")",
+            "    out(\"*\")",
+            "out(\"|\")",
+            "outln(n)"
+        );
+        p.getPasses().setAllEnabled(false);
+        p.getPasses().setEnabled(ConstantFolding.NAME, true);
+        p.getPasses().setEnabled(PrintCoalescing.NAME, true);
+        String java = p.parseFull("TestPrintCoalescing");
+        assertTrue(java.contains("System.out.println(\" _6\");\n"));
+        //the newline that ended the run above can't be merged into a String
+        assertTrue(java.contains("System.out.println();\n"));
+        //"a\\12" would be a different character
+        assertTrue(java.contains("System.out.print(\"a\\1\");"));
+        assertTrue(java.contains("System.out.print(\"**\");"));
+        assertTrue(java.contains("System.out.print(\"|\");"));
+        assertEquals(
+            Arrays.asList("2: coalesce: 4 prints became one", "10: coalesce: 2 prints became one"),
+            p.getPasses().remarks()
+        );
+    }
+
+    @Test
+    void testArgosParsedOnce() {
+        final Parser p = new Parser(
+            "    ",
+            "let total = 0",
+            "for x in argos:",
+            "    total = total + x",
+            "let first = argos[0]",
+            "outln(total + first)"
+        );
+        String java = p.parseFull("TestArgosParsedOnce");
+        assertTrue(java.contains("public static void main(String[] $args) {"));
+        assertTrue(java.contains("argos[$i] = Integer.parseInt($args[$i]);"));
+        assertTrue(java.contains("for(int x : argos)"));
+        assertTrue(java.contains("int first = argos[0];"));
+        Map<String, byte[]> classes = InMemoryCompiler.compile(
+            "TestArgosParsedOnce",
+            java,
+            System.err
+        );
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        String[] argos = { "1", "2", "3" };
+        assertEquals(
+            0,
+            InMemoryCompiler.run(
+                "TestArgosParsedOnce",
+                classes,
+                argos,
+                new PrintStream(out),
+                new PrintStream(err)
+            )
+        );
+        assertEquals("7" + System.lineSeparator(), out.toString());
+        argos[2] = "three";
+        assertEquals(
+            1,
+            InMemoryCompiler.run(
+                "TestArgosParsedOnce",
+                classes,
+                argos,
+                new PrintStream(out),
+                new PrintStream(err)
+            )
+        );
+        assertTrue(err.toString().contains("Expected argos[2] to be an int, not `three`"));
+        //a program that never reads argos doesn't care what they are
+        java = new Parser("    ", "outln(1)").parseFull("TestArgosParsedOnce");
+        assertFalse(java.contains("parseInt"));
+    }
+
+    @Test
+    void testPrintSupport() {
+        final Parser p = new Parser(
+            "    ",
+            "let n = argos[0]",
+            "outln(n)",
+            "out(n - 1)",
+            "out(\" \")",
+            "out(0)",
+            "outln(n < 0)",
+            "outln(n > 0)",
+            "outln(\"done\")"
+        );
+        String java = p.parseFull("TestPrintSupport");
+        assertTrue(java.contains("$Out.println(n);"));
+        //Strings still go to System.out, along with literals merged into them
+        assertTrue(java.contains("System.out.print(\" 0\");"));
+        assertTrue(java.contains("private static final class $Out {"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int exit = InMemoryCompiler.run(
+            "TestPrintSupport",
+            InMemoryCompiler.compile("TestPrintSupport", java, System.err),
+            new String[] { "-2147483648" },
+            new PrintStream(out),
+            System.err
+        );
+        assertEquals(0, exit);
+        String nl = System.lineSeparator();
+        assertEquals(
+            "-2147483648" + nl + "2147483647 0true" + nl + "false" + nl + "done" + nl,
+            out.toString()
+        );
+        //nothing to print through it, so it isn't there
+        java = new Parser("    ", "outln(\"hi\")").parseFull("TestPrintSupport");
+        assertFalse(java.contains("$Out"));
+    }
+
+    @Test
+    void testReadInts() {
+        final Parser p = new Parser(
+            "    ",
+            "let n = readint()",
+            "let xs = readints()",
+            "let total = 0",
+            "for x in xs:",
+            "    total = total + x",
+            "outln(n + total)"
+        );
+        String java = p.parseFull("TestReadInts");
+        assertTrue(java.contains("int n = $In.readInt();"));
+        assertTrue(java.contains("int[] xs = $In.readInts();"));
+        Map<String, byte[]> classes = InMemoryCompiler.compile("TestReadInts", java, System.err);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        InputStream stdin = System.in;
+        try {
+            String input = "  1\n2 -2147483648\r\n2147483647 3\n";
+            System.setIn(new ByteArrayInputStream(input.getBytes()));
+            int exit = InMemoryCompiler.run(
+                "TestReadInts",
+                classes,
+                new String[0],
+                new PrintStream(out),
+                new PrintStream(err)
+            );
+            assertEquals(0, exit);
+            assertEquals("5" + System.lineSeparator(), out.toString());
+            System.setIn(new ByteArrayInputStream("1 2 x".getBytes()));
+            exit =
+                InMemoryCompiler.run(
+                    "TestReadInts",
+                    classes,
+                    new String[0],
+                    new PrintStream(out),
+                    new PrintStream(err)
+                );
+            assertEquals(1, exit);
+            assertTrue(err.toString().contains("NumberFormatException"));
+        } finally {
+            System.setIn(stdin);
+        }
+        final Parser mismatched = new Parser("    ", "let n = readints()", "n = readint()");
+        assertThrows(TypeError.class, () -> mismatched.parseFull("TestReadInts"));
+    }
+
+    @Test
+    void testBitPacking() {
+        final Parser p = new Parser(
+            "    ",
+            "let n = argos[0]",
+            "let sieve = b{n}",
+            "let small = b{10}",
+            "if n > 9:",
+            "    let twice = b{100000}",
+            "    twice[9] = T",
+            "let twice = b{100000}",
+            "twice[1] = T",
+            "sieve[3] = T",
+            "small[2] = T",
+            "if small[2]:",
+            "    outln(2)",
+            "for s in sieve:",
+            "    if s:",
+            "        outln(1)",
+            "sieve[n] = T"
+        );
+        String java = p.parseFull("TestBitPacking");
+        assertTrue(java.contains("$Bits sieve = new $Bits(n);"));
+        assertTrue(java.contains("sieve.set(3, true);"));
+        assertTrue(java.contains("for(boolean s : sieve)"));
+        //too small to be worth it, and declared twice
+        assertTrue(java.contains("boolean[] small = new boolean[10];"));
+        assertTrue(java.contains("boolean[] twice = new boolean[100000];"));
+        assertEquals(
+            Collections.singletonList("2: pack: `sieve` is packed into bits"),
+            p.getPasses().remarks()
+        );
+        Map<String, byte[]> classes = InMemoryCompiler.compile("TestBitPacking", java, System.err);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int exit = InMemoryCompiler.run(
+            "TestBitPacking",
+            classes,
+            new String[] { "5" },
+            new PrintStream(out),
+            new PrintStream(err)
+        );
+        assertEquals(1, exit);
+        String nl = System.lineSeparator();
+        assertEquals("2" + nl + "1" + nl, out.toString());
+        assertTrue(err.toString().contains("ArrayIndexOutOfBoundsException"));
+        p.getPasses().replace(new BitPacking(0));
+        assertTrue(p.parseFull("TestBitPacking").contains("$Bits small = new $Bits(10);"));
+    }
+
+    @Test
+    void testRayNarrowing() {
+        final Parser p = new Parser(
+            "    ",
+            "let n = argos[0]",
+            "let board = i{n}",
+            "let next = i{n}",
+            "let big = i{n}",
+            "let mixed = [1, -200, 3]",
+            "for i in 0..n:",
+            "    board[i] = i mod 3",
+            "for i in 0..n:",
+            "    let cell = board[i]",
+            "    next[i] = cell + 1",
+            "    big[i] = n",
+            "let total = 0",
+            "for c in next:",
+            "    total = total + c",
+            "outln(total)",
+            "for m in mixed:",
+            "    out(m)",
+            "let last = big[0]",
+            "outln(last)"
+        );
+        String java = p.parseFull("TestRayNarrowing");
+        assertTrue(java.contains("byte[] board = new byte[n];"));
+        assertTrue(java.contains("next[i] = (byte) ("));
+        assertTrue(java.contains("short[] mixed = {1,-200,3};"));
+        assertTrue(java.contains("for(int c : next)"));
+        //n could be any int
+        assertTrue(java.contains("int[] big = new int[n];"));
+        assertEquals(
+            Arrays.asList(
+                "2: narrow: `board` is a byte[]",
+                "3: narrow: `next` is a byte[]",
+                "5: narrow: `mixed` is a short[]"
+            ),
+            p.getPasses().remarks()
+        );
+        Map<String, byte[]> classes = InMemoryCompiler.compile(
+            "TestRayNarrowing",
+            java,
+            System.err
+        );
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int exit = InMemoryCompiler.run(
+            "TestRayNarrowing",
+            classes,
+            new String[] { "5" },
+            new PrintStream(out),
+            new PrintStream(err)
+        );
+        assertEquals(0, exit);
+        String nl = System.lineSeparator();
+        assertEquals("9" + nl + "1-20035" + nl, out.toString());
+    }
+
+    @Test
+    void testGrids() {
+        final Parser p = new Parser(
+            "    ",
+            "let rows = argos[0]",
+            "let cols = argos[1]",
+            "let grid = i{rows, cols}",
+            "for i in 0..rows:",
+            "    for j in 0..cols:",
+            "        grid[i][j] = i * cols + j",
+            "let corner = grid[rows - 1][cols - 1]",
+            "outln(corner)",
+            "grid = i{cols, rows}",
+            "grid[1][0] = 7",
+            "for g in grid:",
+            "    out(g)",
+            "outln(\"\")",
+            "grid[0][rows] = 1"
+        );
+        String java = p.parseFull("TestGrids");
+        assertTrue(java.contains("int grid$columns = cols;"));
+        assertTrue(java.contains("new int[$Grid.size(rows, grid$columns)];"));
+        assertTrue(java.contains("grid[$Grid.offset(i, j, grid$columns)] = "));
+        Map<String, byte[]> classes = InMemoryCompiler.compile("TestGrids", java, System.err);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int exit = InMemoryCompiler.run(
+            "TestGrids",
+            classes,
+            new String[] { "2", "3" },
+            new PrintStream(out),
+            new PrintStream(err)
+        );
+        //[0][2] is in bounds of the flat ray, but not of the row
+        assertEquals(1, exit);
+        String nl = System.lineSeparator();
+        assertEquals("5" + nl + "007000" + nl, out.toString());
+        assertTrue(err.toString().contains("ArrayIndexOutOfBoundsException: [0][2]"));
+        for (String bad : new String[] { "outln(grid[0])", "let r = [1, 2]\nlet x = r[0][1]" }) {
+            String[] lines = ("let grid = i{2, 3}\n" + bad).split("\n");
+            assertThrows(TypeError.class, () -> new Parser("    ", lines).parseFull("Test"));
+        }
+        final Parser reshaped = new Parser("    ", "let grid = i{2, 3}", "grid = i{6}");
+        assertThrows(TypeError.class, () -> reshaped.parseFull("Test"));
+        final Parser aliased = new Parser("    ", "let g = i{2, 3}", "let h = i{1, 1}", "h = g");
+        assertEquals(
+            "\nInvalidStatementError at line 3: " +
+            "Grid `h` can only be given a new grid, like h = i{rows, columns}",
+            assertThrows(InvalidStatementError.class, () -> aliased.parseFull("Test")).toString()
+        );
+        final Parser ray = new Parser("    ", "let r = [1, 2]", "let s = [3]", "s = r");
+        assertEquals(
+            "\nInvalidStatementError at line 3: " +
+            "Invalid syntax or mixed types in ray declaration: r",
+            assertThrows(InvalidStatementError.class, () -> ray.parseFull("Test")).toString()
+        );
+    }
+
+    @Test
+    void testFlightRecorderEvents() throws IOException {
+        final Parser p = new Parser("    ", "let n = 0", "for i in 0..10:", "    n = n + i");
+        Path dump = Files.createTempFile("judo", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("judo.Statement");
+            recording.enable("judo.GrammarValidation");
+            recording.start();
+            p.parseFull("TestFlightRecorderEvents");
+            recording.stop();
+            recording.dump(dump);
+        }
+        List<String> statements = new ArrayList<>();
+        int validations = 0;
+        for (RecordedEvent event : RecordingFile.readAllEvents(dump)) {
+            String name = event.getEventType().getName();
+            if (name.equals("judo.Statement")) {
+                statements.add(event.getInt("line") + " " + event.getString("kind"));
+            } else if (name.equals("judo.GrammarValidation")) {
+                assertTrue(event.getInt("expressionLength") > 0);
+                validations++;
+            }
+        }
+        Collections.sort(statements);
+        assertEquals(Arrays.asList("1 let", "2 for range", "3 reassign"), statements);
+        assertTrue(validations > 0);
+    }
+
+    private String dropFirstLine(String s) {
+        return s.substring(s.indexOf('\n') + 1);
+    }
+
     public void runGeneratedJava(String code, String className) {
         Path dir = Paths.get(OUT_DIR);
         if (!Files.exists(dir)) {
@@ -0,0 +1,294 @@
+package translator;
+
+import static java.text.MessageFormat.format;
+
+import ir.PassManager;
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import parser.Parser;
+
+/**
+ * Translates, or only checks, many Judo files in one JVM, spread over a fixed
+ * number of worker threads. Every file gets its own Parser, so nothing about
+ * one file can leak into another, and a file that fails doesn't stop the rest.
+ *
+ * Results are printed in the order the files were given, no matter which
+ * finishes first, so the output of two runs over the same files is the same
+ * apart from the timings in the summary at the end.
+ *
+ * Files that other files being translated import are translated as modules,
+ * through a ModuleGraph shared by every file, so each module is translated
+ * once, and only if it changed since the last time.
+ */
+public class BatchTranslator {
+
+    private final Path outDir;
+    private final int jobs;
+    private final boolean checkOnly;
+    private final TranslationCache cache;
+    private PassManager passes = PassManager.standard();
+
+    /**
+     * @param outDir The directory generated Java files are written to.
+     *               Ignored when checking only.
+     * @param jobs How many files to work on at once.
+     * @param checkOnly Whether to only validate the files, without generating
+     *                  or writing any Java.
+     */
+    public BatchTranslator(Path outDir, int jobs, boolean checkOnly) {
+        this(outDir, jobs, checkOnly, null);
+    }
+
+    /**
+     * Same as BatchTranslator(outDir, jobs, checkOnly), but files whose Java
+     * is already in the given cache aren't parsed again. A file that is in
+     * the cache is known to be valid, so checking it is free too.
+     * @param cache The cache to use, or null to not use one.
+     */
+    public BatchTranslator(Path outDir, int jobs, boolean checkOnly, TranslationCache cache) {
+        if (jobs < 1) {
+            throw new IllegalArgumentException("jobs must be at least 1");
+        }
+        this.outDir = outDir;
+        this.jobs = jobs;
+        this.checkOnly = checkOnly;
+        this.cache = cache;
+    }
+
+    /**
+     * Sets the passes files and modules are translated with.
+     * @param passes The passes, which are copied for every file.
+     */
+    public void setPasses(PassManager passes) {
+        this.passes = passes;
+    }
+
+    /**
+     * Translates or checks every given file, then prints one result line per
+     * file, each followed by its error if it failed, and a summary.
+     * @param files The files to work on, from SourceFile.expand.
+     * @param out Where to print results.
+     * @return Whether every file was successful.
+     */
+    public boolean run(List<SourceFile> files, PrintStream out) {
+        long start = System.nanoTime();
+        ModuleGraph modules = new ModuleGraph(outDir, checkOnly);
+        modules.setPasses(passes);
+        Set<Path> imported = new HashSet<>();
+        for (SourceFile file : files) {
+            if (file.error == null) {
+                imported.addAll(ModuleGraph.dependencies(file.path));
+            }
+        }
+        Map<Path, SourceFile> outputs = new HashMap<>();
+        List<Future<Result>> results = new ArrayList<>(files.size());
+        ExecutorService pool = Executors.newFixedThreadPool(
+            Math.min(jobs, Math.max(files.size(), 1)),
+            daemonThreads()
+        );
+        try {
+            for (SourceFile file : files) {
+                String error = file.error;
+                Path javaFile = null;
+                if (error == null && !checkOnly) {
+                    javaFile = outDir.resolve(file.className() + ".java");
+                    SourceFile other = outputs.putIfAbsent(javaFile, file);
+                    if (other != null) {
+                        //two files with the same name in different directories
+                        error = format(
+                            "Would overwrite {0}, translated from {1}",
+                            javaFile,
+                            other.name
+                        );
+                    }
+                }
+                if (error == null) {
+                    final Path target = javaFile;
+                    final boolean isModule = imported.contains(file.path.normalize());
+                    results.add(pool.submit(() -> process(file, target, modules, isModule)));
+                } else {
+                    results.add(CompletableFuture.completedFuture(new Result(0, error)));
+                }
+            }
+            int failed = 0;
+            long lines = 0;
+            for (int i = 0; i < files.size(); i++) {
+                Result result = await(results.get(i));
+                lines += result.lines;
+                if (result.error == null) {
+                    out.println("ok      " + files.get(i).name);
+                } else {
+                    failed++;
+                    out.println("FAILED  " + files.get(i).name);
+                    out.println("        " + result.error);
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            out.println(
+                format(
+                    "{0} file(s) {1}, {2} failed",
+                    files.size(),
+                    checkOnly ? "checked" : "translated",
+                    failed
+                )
+            );
+            out.println(
+                format(
+                    "{0,number,#} lines in {1,number,0.000}s ({2,number,0.0} files/s, {3,number,0} lines/s)",
+                    lines,
+                    seconds,
+                    files.size() / seconds,
+                    lines / seconds
+                )
+            );
+            if (cache != null) {
+                out.println(cache);
+            }
+            if (modules.translated() + modules.upToDate() > 0) {
+                out.println(modules);
+            }
+            try {
+                modules.save();
+            } catch (IOException e) {
+                out.println("Unable to save module state to " + outDir);
+            }
+            return failed == 0;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Translates or checks one file. Runs on a worker thread.
+     * @param file The file to work on.
+     * @param javaFile Where to write the Java to, unless checking only.
+     * @param modules The modules the files import.
+     * @param isModule Whether another file imports this one, which makes the
+     *                 ModuleGraph translate it instead.
+     * @return How it went.
+     */
+    private Result process(SourceFile file, Path javaFile, ModuleGraph modules, boolean isModule) {
+        int lines = 0;
+        try {
+            if (isModule) {
+                lines = countLines(Files.readAllBytes(file.path));
+                modules.module(file.path);
+                return new Result(lines, null);
+            }
+            String key = null;
+            String java = null;
+            if (cache != null) {
+                byte[] source = Files.readAllBytes(file.path);
+                lines = countLines(source);
+                key =
+                    cache.key(
+                        ModuleGraph.withDependencies(file.path, source),
+                        file.className(),
+                        passes.signature()
+                    );
+                java = cache.getJava(key);
+            }
+            if (!checkOnly) {
+                modules.buildImports(file.path);
+            }
+            if (java == null) {
+                Parser parser = new Parser(file.path);
+                parser.setModuleResolver(modules.resolverFor(file.path));
+                parser.setPasses(passes.copy());
+                lines = parser.getSourceLineCount();
+                if (checkOnly) {
+                    parser.validate();
+                } else {
+                    java = parser.parseFull(file.className());
+                    if (cache != null) {
+                        cache.putJava(key, java);
+                    }
+                }
+            }
+            if (!checkOnly) {
+                try (
+                    BufferedWriter writer = new BufferedWriter(new FileWriter(javaFile.toFile()))
+                ) {
+                    writer.write(java);
+                } catch (IOException e) {
+                    return new Result(lines, "Unable to output java file to " + javaFile);
+                }
+            }
+        } catch (IOException e) {
+            return new Result(lines, "Unable to read file");
+        } catch (RuntimeException | StackOverflowError e) {
+            //ParseErrors mostly, but a malformed file shouldn't stop the rest
+            //from being translated either way. Deeply nested expressions can
+            //overflow the stack in the grammars' recursion.
+            return new Result(lines, e.toString().trim());
+        }
+        return new Result(lines, null);
+    }
+
+    /**
+     * Counts lines the way Parser does, for files it doesn't get to see.
+     */
+    private static int countLines(byte[] source) {
+        int lines = 0;
+        for (byte b : source) {
+            if (b == '\n') {
+                lines++;
+            }
+        }
+        return source.length > 0 && source[source.length - 1] != '\n' ? lines + 1 : lines;
+    }
+
+    private static Result await(Future<Result> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Result(0, "Interrupted");
+        } catch (ExecutionException e) {
+            return new Result(0, e.getCause().toString().trim());
+        }
+    }
+
+    /**
+     * Worker threads are daemons so that a stuck file can't keep the JVM
+     * alive after the results have been printed.
+     */
+    private static ThreadFactory daemonThreads() {
+        ThreadFactory defaults = Executors.defaultThreadFactory();
+        return r -> {
+            Thread t = defaults.newThread(r);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * How translating or checking one file went.
+     */
+    private static class Result {
+
+        final int lines;
+        final String error;
+
+        Result(int lines, String error) {
+            this.lines = lines;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package translator;
+
+import static java.text.MessageFormat.format;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Compiles generated Java and runs it without leaving the JVM or touching the
+ * disk. The source is handed to the system Java compiler from memory, the
+ * class files it produces are kept in memory, and they're loaded by a class
+ * loader of their own, so the same program can be compiled and run again
+ * after it changes.
+ *
+ * The system compiler only exists when running on a JDK, not a plain JRE.
+ */
+public class InMemoryCompiler {
+
+    /**
+     * Programs print through System.out and read through System.in, which
+     * there is only one of each, so programs that use other streams have to
+     * take turns.
+     */
+    private static final Object SYSTEM_STREAMS = new Object();
+
+    /**
+     * Compiles the given Java source.
+     * @param className The name of the public class in the source.
+     * @param java The source.
+     * @param err Where compile errors are printed.
+     * @return The bytes of every class file, by class name, or null if the
+     * source didn't compile.
+     */
+    public static Map<String, byte[]> compile(String className, String java, PrintStream err) {
+        return compile(Collections.singletonMap(className, java), err);
+    }
+
+    /**
+     * Compiles the given Java sources together, like a program and the
+     * modules it imports.
+     * @param sources Each source, by the name of the public class in it.
+     * @param err Where compile errors are printed.
+     * @return The bytes of every class file, by class name, or null if the
+     * sources didn't compile.
+     */
+    public static Map<String, byte[]> compile(Map<String, String> sources, PrintStream err) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            err.println("No Java compiler available. Run the translator with a JDK to use --run.");
+            return null;
+        }
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        Map<String, ByteArrayOutputStream> classes = new HashMap<>();
+        StandardJavaFileManager standard = compiler.getStandardFileManager(null, null, null);
+        JavaFileManager fileManager = new ForwardingJavaFileManager<JavaFileManager>(standard) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(
+                Location location,
+                String name,
+                JavaFileObject.Kind kind,
+                FileObject sibling
+            ) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                classes.put(name, bytes);
+                return new SimpleJavaFileObject(uri(name, kind), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        return bytes;
+                    }
+                };
+            }
+        };
+        List<JavaFileObject> files = new ArrayList<>(sources.size());
+        for (Map.Entry<String, String> source : sources.entrySet()) {
+            String java = source.getValue();
+            files.add(
+                new SimpleJavaFileObject(
+                    uri(source.getKey(), JavaFileObject.Kind.SOURCE),
+                    JavaFileObject.Kind.SOURCE
+                ) {
+                    @Override
+                    public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                        return java;
+                    }
+                }
+            );
+        }
+        boolean compiled = compiler
+            .getTask(
+                null,
+                fileManager,
+                diagnostics,
+                Arrays.asList("-nowarn", "-proc:none"),
+                null,
+                files
+            )
+            .call();
+        if (!compiled) {
+            for (Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+                if (d.getKind() == Diagnostic.Kind.ERROR) {
+                    String fileName = d.getSource() == null ? "" : d.getSource().getName();
+                    err.println(
+                        format(
+                            "{0}:{1,number,#}: error: {2}",
+                            fileName.substring(fileName.lastIndexOf('/') + 1),
+                            d.getLineNumber(),
+                            d.getMessage(Locale.getDefault())
+                        )
+                    );
+                }
+            }
+            return null;
+        }
+        Map<String, byte[]> bytes = new HashMap<>();
+        for (Map.Entry<String, ByteArrayOutputStream> entry : classes.entrySet()) {
+            bytes.put(entry.getKey(), entry.getValue().toByteArray());
+        }
+        return bytes;
+    }
+
+    /**
+     * Loads the given classes with a class loader of their own and runs the
+     * main method of one of them, with System.out and System.err pointed at
+     * the given streams for as long as it runs.
+     * @param className The class whose main method to run.
+     * @param classes The bytes of every class file, by class name.
+     * @param args The arguments to pass to main.
+     * @param out Where the program's stdout goes.
+     * @param err Where the program's stderr goes, along with any exception
+     *            that escapes main.
+     * @return The exit code running the program with java would have had.
+     */
+    public static int run(
+        String className,
+        Map<String, byte[]> classes,
+        String[] args,
+        PrintStream out,
+        PrintStream err
+    ) {
+        return run(className, classes, args, System.in, out, err);
+    }
+
+    /**
+     * Like {@link #run(String, Map, String[], PrintStream, PrintStream)}, but
+     * with System.in pointed at the given stream too.
+     * @param in Where the program's stdin comes from.
+     */
+    public static int run(
+        String className,
+        Map<String, byte[]> classes,
+        String[] args,
+        InputStream in,
+        PrintStream out,
+        PrintStream err
+    ) {
+        Method main;
+        try {
+            main = new MemoryClassLoader(classes).loadClass(className).getMethod(
+                "main",
+                String[].class
+            );
+        } catch (ReflectiveOperationException e) {
+            err.println("Unable to load " + className + ": " + e);
+            return 1;
+        }
+        if (in == System.in && out == System.out && err == System.err) {
+            return invoke(main, args, err);
+        }
+        synchronized (SYSTEM_STREAMS) {
+            InputStream systemIn = System.in;
+            PrintStream systemOut = System.out;
+            PrintStream systemErr = System.err;
+            System.setIn(in);
+            System.setOut(out);
+            System.setErr(err);
+            try {
+                return invoke(main, args, err);
+            } finally {
+                System.out.flush();
+                System.setIn(systemIn);
+                System.setOut(systemOut);
+                System.setErr(systemErr);
+            }
+        }
+    }
+
+    private static int invoke(Method main, String[] args, PrintStream err) {
+        try {
+            main.invoke(null, (Object) args);
+            return 0;
+        } catch (InvocationTargetException e) {
+            //what the java command would print for an uncaught exception
+            Throwable thrown = e.getCause();
+            StackTraceElement[] trace = thrown.getStackTrace();
+            int depth = 0;
+            while (depth < trace.length && !isReflection(trace[depth].getClassName())) {
+                depth++;
+            }
+            //leave out how main was called, which the java command wouldn't show
+            thrown.setStackTrace(Arrays.copyOf(trace, depth));
+            System.out.flush();
+            err.print("Exception in thread \"main\" ");
+            thrown.printStackTrace(err);
+            return 1;
+        } catch (IllegalAccessException e) {
+            err.println("Unable to run main: " + e);
+            return 1;
+        }
+    }
+
+    private static boolean isReflection(String className) {
+        return (
+            className.startsWith("java.lang.reflect.") ||
+            className.startsWith("jdk.internal.reflect.") ||
+            className.startsWith("sun.reflect.")
+        );
+    }
+
+    private static URI uri(String className, JavaFileObject.Kind kind) {
+        return URI.create("memory:///" + className.replace('.', '/') + kind.extension);
+    }
+
+    /**
+     * Looks among the compiled classes before asking its parent, so that a
+     * program named like one of the translator's own classes still gets its
+     * own class.
+     */
+    private static class MemoryClassLoader extends ClassLoader {
+
+        private final Map<String, byte[]> classes;
+
+        MemoryClassLoader(Map<String, byte[]> classes) {
+            super(InMemoryCompiler.class.getClassLoader());
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> c = findLoadedClass(name);
+                if (c == null) {
+                    byte[] bytes = classes.get(name);
+                    if (bytes == null) {
+                        return super.loadClass(name, resolve);
+                    }
+                    c = defineClass(name, bytes, 0, bytes.length);
+                }
+                if (resolve) {
+                    resolveClass(c);
+                }
+                return c;
+            }
+        }
+    }
+}
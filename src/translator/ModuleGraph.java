@@ -0,0 +1,476 @@
+package translator;
+
+import static java.text.MessageFormat.format;
+
+import ir.PassManager;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import parser.Module;
+import parser.ModuleResolver;
+import parser.Parser;
+import parser.Type;
+import parser.errors.InvalidStatementError;
+
+/**
+ * Translates the modules that Judo files import, each of them once no matter
+ * how many files import it, and works out which ones have to be translated
+ * again. {@code import name} names the file {@code name.judo} next to the
+ * file doing the importing.
+ *
+ * Modules written to an output directory are remembered in a state file
+ * there, along with a hash of their source, of the exports of everything
+ * they import, and of the Java written for them, and what they export. A
+ * module is only translated again when one of those changed, so changing
+ * one module translates only it, and only those of its dependents whose
+ * imports now export something different.
+ */
+public class ModuleGraph {
+
+    public static final String STATE_FILE = ".judo-modules";
+    private static final Pattern IMPORT = Pattern.compile(
+        "[ \\t]*import +(?<module>[\\w&&[^\\d]]+[\\w]*)[ \\t]*(\\?.*)?"
+    );
+
+    private final Path outDir;
+    private final boolean checkOnly;
+    private final Map<Path, CompletableFuture<Module>> modules = new ConcurrentHashMap<>();
+    private final Map<Path, List<Path>> imports = new ConcurrentHashMap<>();
+    private final Set<Path> acyclic = ConcurrentHashMap.newKeySet();
+    private final Map<Path, State> state = new ConcurrentHashMap<>();
+    private final Map<String, String> javaSources = Collections.synchronizedMap(
+        new LinkedHashMap<>()
+    );
+    private final LongAdder translated = new LongAdder();
+    private final LongAdder upToDate = new LongAdder();
+    private PassManager passes = PassManager.standard();
+
+    /**
+     * @param outDir The directory module Java files are written to, along
+     *               with the state file, or null to keep their Java in memory
+     *               for javaSources instead.
+     * @param checkOnly Whether to only validate modules, without generating
+     *                  or writing any Java.
+     */
+    public ModuleGraph(Path outDir, boolean checkOnly) {
+        this.outDir = outDir;
+        this.checkOnly = checkOnly;
+        if (writes()) {
+            load();
+        }
+    }
+
+    /**
+     * Sets the passes modules are translated with from now on.
+     * @param passes The passes, which are copied for every module.
+     */
+    public void setPasses(PassManager passes) {
+        this.passes = passes;
+    }
+
+    /**
+     * @param file A Judo file.
+     * @return A resolver for the imports of the given file, which translates
+     * every module it's asked for that hasn't been yet.
+     */
+    public ModuleResolver resolverFor(Path file) {
+        return name -> {
+            Path module = moduleFile(file, name);
+            if (!Files.isRegularFile(module)) {
+                return null;
+            }
+            try {
+                return module(module);
+            } catch (IOException e) {
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Translates, or only checks, the module in the given file, unless it
+     * already was. Everything it imports comes first.
+     * @param file The module's Judo file.
+     * @return The module.
+     * @throws IOException If the file can't be read or its Java written.
+     * @throws parser.errors.ParseError If the module isn't valid, or imports
+     * itself through other modules.
+     */
+    public Module module(Path file) throws IOException {
+        file = file.toAbsolutePath().normalize();
+        CompletableFuture<Module> future = new CompletableFuture<>();
+        CompletableFuture<Module> existing = modules.putIfAbsent(file, future);
+        if (existing == null) {
+            try {
+                future.complete(translate(file));
+            } catch (IOException e) {
+                future.completeExceptionally(new UncheckedIOException(e));
+            } catch (RuntimeException | StackOverflowError e) {
+                future.completeExceptionally(e);
+            }
+        } else {
+            future = existing;
+        }
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw (StackOverflowError) e.getCause();
+        }
+    }
+
+    /**
+     * Makes sure every module the given file imports has been translated.
+     * Imports that are missing or invalid are skipped, since the Parser
+     * reports them, with a line number, when it gets to them.
+     * @param file A Judo file.
+     * @return Every module the file imports that could be translated.
+     * @throws IOException If the file can't be read.
+     */
+    public List<Module> buildImports(Path file) throws IOException {
+        List<Module> found = new ArrayList<>();
+        for (Path dependency : importsOf(file.toAbsolutePath().normalize())) {
+            if (Files.isRegularFile(dependency)) {
+                try {
+                    found.add(module(dependency));
+                } catch (IOException | RuntimeException | StackOverflowError e) {
+                    //reported by the Parser
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return The Java of every module translated so far, by class name, when
+     * they're kept in memory. Modules come before the modules importing them.
+     */
+    public Map<String, String> javaSources() {
+        synchronized (javaSources) {
+            return new LinkedHashMap<>(javaSources);
+        }
+    }
+
+    /**
+     * Writes the state file, so that the next translation into the same
+     * directory knows which modules are already up to date. Modules whose
+     * Judo file is gone are forgotten.
+     * @throws IOException If the state file can't be written.
+     */
+    public void save() throws IOException {
+        Path stateFile = writes() ? outDir.resolve(STATE_FILE) : null;
+        if (stateFile == null || (state.isEmpty() && !Files.exists(stateFile))) {
+            return; //no modules, so no state file cluttering the output directory
+        }
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<Path, State> entry : new TreeMap<>(state).entrySet()) {
+            if (Files.isRegularFile(entry.getKey())) {
+                lines.add(entry.getValue().toLine(entry.getKey()));
+            }
+        }
+        Files.write(stateFile, lines, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return How many modules were translated or checked.
+     */
+    public long translated() {
+        return translated.sum();
+    }
+
+    /**
+     * @return How many modules were already up to date.
+     */
+    public long upToDate() {
+        return upToDate.sum();
+    }
+
+    /**
+     * Finds every module the given file imports, directly or through other
+     * modules, without translating any of them. Missing modules are left out.
+     * @param file A Judo file.
+     * @return The Judo files of those modules.
+     */
+    public static Set<Path> dependencies(Path file) {
+        Set<Path> found = new LinkedHashSet<>();
+        Deque<Path> toVisit = new ArrayDeque<>();
+        toVisit.push(file.toAbsolutePath().normalize());
+        while (!toVisit.isEmpty()) {
+            try {
+                for (Path dependency : directImports(toVisit.pop())) {
+                    if (Files.isRegularFile(dependency) && found.add(dependency)) {
+                        toVisit.push(dependency);
+                    }
+                }
+            } catch (IOException e) {
+                //gone, so it imports nothing
+            }
+        }
+        return found;
+    }
+
+    /**
+     * What a Judo file translates into doesn't only depend on its own source
+     * once it imports modules, so anything keyed by its source has to be
+     * keyed by theirs as well.
+     * @param file A Judo file.
+     * @param source The bytes of the file.
+     * @return The bytes of the file followed by the path and bytes of every
+     * module it depends on.
+     */
+    public static byte[] withDependencies(Path file, byte[] source) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(source, 0, source.length);
+        for (Path dependency : dependencies(file)) {
+            byte[] path = dependency.toString().getBytes(StandardCharsets.UTF_8);
+            bytes.write(0);
+            bytes.write(path, 0, path.length);
+            bytes.write(0);
+            try {
+                byte[] dependencySource = Files.readAllBytes(dependency);
+                bytes.write(dependencySource, 0, dependencySource.length);
+            } catch (IOException e) {
+                //gone, which the path alone still sets apart
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private Module translate(Path file) throws IOException {
+        checkCycles(file, new ArrayDeque<>());
+        byte[] source = Files.readAllBytes(file);
+        String className = SourceFile.classNameFor(file);
+        String sourceHash = hash(source);
+        String importsHash = hash(signature(passes.signature(), buildImports(file)));
+        Path javaFile = writes() ? outDir.resolve(className + ".java") : null;
+        State old = state.get(file);
+        if (
+            old != null &&
+            old.sourceHash.equals(sourceHash) &&
+            old.importsHash.equals(importsHash) &&
+            old.module.className.equals(className) &&
+            old.javaHash.equals(hashOf(javaFile))
+        ) {
+            upToDate.increment();
+            return old.module;
+        }
+        Parser parser = new Parser(file);
+        parser.setModuleResolver(resolverFor(file));
+        parser.setPasses(passes.copy());
+        String java = null;
+        if (checkOnly) {
+            parser.validate();
+        } else {
+            java = parser.parseModule(className);
+        }
+        Module module = new Module(className, parser.getExports());
+        translated.increment();
+        if (javaFile != null) {
+            Files.createDirectories(outDir);
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(javaFile.toFile()))) {
+                writer.write(java);
+            }
+            state.put(file, new State(sourceHash, importsHash, hashOf(javaFile), module));
+        } else if (java != null) {
+            javaSources.put(className, java);
+        }
+        return module;
+    }
+
+    /**
+     * Follows imports from the given file, throwing if they lead back to a
+     * file already on the way there. This has to happen before any module is
+     * translated, since a module waiting on itself would wait forever.
+     */
+    private void checkCycles(Path file, Deque<Path> chain) throws IOException {
+        if (acyclic.contains(file)) {
+            return;
+        }
+        if (chain.contains(file)) {
+            StringBuilder cycle = new StringBuilder("Import cycle: ");
+            boolean inCycle = false;
+            for (Path link : chain) {
+                inCycle |= link.equals(file);
+                if (inCycle) {
+                    cycle.append(SourceFile.classNameFor(link)).append(" -> ");
+                }
+            }
+            throw new InvalidStatementError(cycle.append(SourceFile.classNameFor(file)).toString());
+        }
+        chain.addLast(file);
+        for (Path dependency : importsOf(file)) {
+            if (Files.isRegularFile(dependency)) {
+                checkCycles(dependency, chain);
+            }
+        }
+        chain.removeLast();
+        acyclic.add(file);
+    }
+
+    private List<Path> importsOf(Path file) throws IOException {
+        List<Path> found = imports.get(file);
+        if (found == null) {
+            found = directImports(file);
+            imports.put(file, found);
+        }
+        return found;
+    }
+
+    /**
+     * Finds the imports in a Judo file by reading it, which is far cheaper
+     * than parsing it, and is all that deciding what to translate first needs.
+     */
+    private static List<Path> directImports(Path file) throws IOException {
+        List<Path> found = new ArrayList<>();
+        for (String line : Files.readAllLines(file)) {
+            Matcher m = IMPORT.matcher(line);
+            if (m.matches()) {
+                found.add(moduleFile(file, m.group("module")));
+            }
+        }
+        return found;
+    }
+
+    private static Path moduleFile(Path importer, String name) {
+        return importer
+            .toAbsolutePath()
+            .resolveSibling(name + SourceFile.JUDO_EXTENSION)
+            .normalize();
+    }
+
+    private boolean writes() {
+        return outDir != null && !checkOnly;
+    }
+
+    /**
+     * Everything besides its own source that the Java of a file depends on:
+     * the passes it's generated with, and the class names and the names and
+     * types of the exports of the modules it imports.
+     */
+    private static byte[] signature(String passes, List<Module> modules) {
+        StringBuilder sb = new StringBuilder(passes).append('\n');
+        for (Module module : modules) {
+            sb.append(module.className).append(' ').append(exportsToString(module)).append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String exportsToString(Module module) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Type> export : module.exports.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(export.getKey()).append(':').append(export.getValue().name());
+        }
+        return sb.length() == 0 ? "-" : sb.toString();
+    }
+
+    private static String hash(byte[] bytes) {
+        MessageDigest sha = TranslationCache.sha256();
+        return TranslationCache.hex(sha.digest(bytes));
+    }
+
+    private static String hashOf(Path file) {
+        try {
+            return file == null ? "" : hash(Files.readAllBytes(file));
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    private void load() {
+        Path stateFile = outDir.resolve(STATE_FILE);
+        if (!Files.isRegularFile(stateFile)) {
+            return;
+        }
+        try {
+            for (String line : Files.readAllLines(stateFile, StandardCharsets.UTF_8)) {
+                String[] parts = line.split("\t", 6);
+                if (parts.length != 6) {
+                    continue;
+                }
+                Map<String, Type> exports = new TreeMap<>();
+                if (!parts[4].equals("-")) {
+                    for (String export : parts[4].split(",")) {
+                        String[] nameAndType = export.split(":", 2);
+                        exports.put(nameAndType[0], Type.valueOf(nameAndType[1]));
+                    }
+                }
+                state.put(
+                    Paths.get(parts[5]),
+                    new State(parts[0], parts[1], parts[2], new Module(parts[3], exports))
+                );
+            }
+        } catch (IOException | RuntimeException e) {
+            //unreadable, so every module counts as changed
+            state.clear();
+        }
+    }
+
+    /**
+     * What the state file remembers about one module.
+     */
+    private static class State {
+
+        final String sourceHash;
+        final String importsHash;
+        final String javaHash;
+        final Module module;
+
+        State(String sourceHash, String importsHash, String javaHash, Module module) {
+            this.sourceHash = sourceHash;
+            this.importsHash = importsHash;
+            this.javaHash = javaHash;
+            this.module = module;
+        }
+
+        String toLine(Path file) {
+            return String.join(
+                "\t",
+                sourceHash,
+                importsHash,
+                javaHash,
+                module.className,
+                exportsToString(module),
+                file.toString()
+            );
+        }
+    }
+
+    /**
+     * @return A human-readable summary of how many modules had to be
+     * translated.
+     */
+    @Override
+    public String toString() {
+        return format("Modules: {0} translated, {1} up to date", translated(), upToDate());
+    }
+}
@@ -0,0 +1,214 @@
+package translator;
+
+import static java.text.MessageFormat.format;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * One Judo file to translate, either named directly on the command line or
+ * found by expanding a directory, a glob or a file list. An input that didn't
+ * lead to any file, like a missing file or a glob that matched nothing, is
+ * still a SourceFile, just one with an error, so that it gets reported in the
+ * same place as every other input.
+ */
+public class SourceFile {
+
+    public static final String JUDO_EXTENSION = ".judo";
+    private static final String GLOB_CHARS = "*?[{";
+
+    /**
+     * How the file should be referred to in output, which is how it was given
+     * or found, relative to the working directory when it was given that way.
+     */
+    public final String name;
+    /**
+     * Absolute path to the file.
+     */
+    public final Path path;
+    /**
+     * Why this input can't be translated, or null if it can be.
+     */
+    public final String error;
+
+    private SourceFile(String name, Path path, String error) {
+        this.name = name;
+        this.path = path;
+        this.error = error;
+    }
+
+    /**
+     * @return The name of the Java class this file translates into.
+     */
+    public String className() {
+        return classNameFor(path);
+    }
+
+    /**
+     * The generated Java class is named after the Judo file, without its
+     * extension and with dashes replaced, since they aren't allowed in Java
+     * identifiers.
+     * @param judoFile A path to a Judo file.
+     * @return The name of the Java class the file translates into.
+     */
+    public static String classNameFor(Path judoFile) {
+        String fileName = judoFile.getFileName().toString();
+        int index = fileName.lastIndexOf('.');
+        String className = index > 0 ? fileName.substring(0, index) : fileName;
+        return className.replaceAll("-", "_");
+    }
+
+    /**
+     * @param arg A command line argument naming Judo files.
+     * @param cwd The directory relative paths are resolved against.
+     * @return Whether the argument stands for any number of files rather than
+     * exactly one: a directory, a glob or an @file list.
+     */
+    public static boolean isMultiple(String arg, Path cwd) {
+        return arg.startsWith("@") || isGlob(arg) || Files.isDirectory(cwd.resolve(arg));
+    }
+
+    /**
+     * Turns command line arguments into the Judo files they stand for, in the
+     * order they were given. Each argument can be:
+     * <ul>
+     *     <li>a path to a Judo file, with any extension.</li>
+     *     <li>a directory, which stands for every .judo file in it or in any
+     *     directory under it, sorted by path.</li>
+     *     <li>a glob like {@code src/**}{@code /*.txt}, which should be quoted
+     *     so that the shell doesn't expand it first, standing for every file
+     *     it matches, sorted by path.</li>
+     *     <li>an @ followed by the path to a text file listing one of the above
+     *     per line. Blank lines and lines starting with # are skipped.</li>
+     * </ul>
+     * A file that comes up more than once is only kept the first time.
+     * @param args The arguments to expand.
+     * @param cwd The directory relative paths are resolved against.
+     * @return The files, some of which may have errors.
+     */
+    public static List<SourceFile> expand(List<String> args, Path cwd) {
+        List<SourceFile> files = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("@")) {
+                String listName = arg.substring(1);
+                try {
+                    for (String line : Files.readAllLines(cwd.resolve(listName))) {
+                        line = line.trim();
+                        if (!line.isEmpty() && !line.startsWith("#")) {
+                            expandOne(line, cwd, files);
+                        }
+                    }
+                } catch (IOException e) {
+                    files.add(new SourceFile(arg, cwd.resolve(listName), "File list not found"));
+                }
+            } else {
+                expandOne(arg, cwd, files);
+            }
+        }
+        return dedupe(files);
+    }
+
+    private static void expandOne(String arg, Path cwd, List<SourceFile> files) {
+        Path path = cwd.resolve(arg).normalize();
+        if (isGlob(arg)) {
+            List<SourceFile> matches = expandGlob(arg, cwd);
+            if (matches.isEmpty()) {
+                files.add(new SourceFile(arg, path, "No files match"));
+            }
+            files.addAll(matches);
+        } else if (Files.isDirectory(path)) {
+            try (Stream<Path> walk = Files.walk(path)) {
+                List<Path> found = walk
+                    .filter(p -> p.toString().endsWith(JUDO_EXTENSION) && Files.isRegularFile(p))
+                    .sorted()
+                    .collect(Collectors.toList());
+                Path given = cwd.getFileSystem().getPath(arg);
+                for (Path p : found) {
+                    String name = given.resolve(path.relativize(p)).toString();
+                    files.add(new SourceFile(name, p, null));
+                }
+            } catch (IOException e) {
+                files.add(new SourceFile(arg, path, "Unable to read directory"));
+            }
+        } else if (Files.isRegularFile(path)) {
+            files.add(new SourceFile(arg, path, null));
+        } else {
+            files.add(new SourceFile(arg, path, "File not found"));
+        }
+    }
+
+    /**
+     * @param glob A glob.
+     * @param cwd The directory relative paths are resolved against.
+     * @return The longest leading part of the glob that has no wildcards in
+     * it, which is the directory every file it matches is under.
+     */
+    static Path globBase(String glob, Path cwd) {
+        Path pattern = cwd.getFileSystem().getPath(glob);
+        Path base = pattern.isAbsolute() ? pattern.getRoot() : cwd.getFileSystem().getPath("");
+        for (Path part : pattern) {
+            if (isGlob(part.toString())) {
+                break;
+            }
+            base = base.resolve(part);
+        }
+        return base;
+    }
+
+    /**
+     * Walks down from the glob's base, matching everything under it against
+     * the whole glob.
+     */
+    private static List<SourceFile> expandGlob(String glob, Path cwd) {
+        final Path root = globBase(glob, cwd);
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        List<SourceFile> matches = new ArrayList<>();
+        Path start = cwd.resolve(root).normalize();
+        if (!Files.isDirectory(start)) {
+            return matches;
+        }
+        try (Stream<Path> walk = Files.walk(start)) {
+            List<Path> found = walk
+                .filter(Files::isRegularFile)
+                .map(p -> root.resolve(start.relativize(p)))
+                .filter(matcher::matches)
+                .sorted()
+                .collect(Collectors.toList());
+            for (Path p : found) {
+                matches.add(new SourceFile(p.toString(), cwd.resolve(p).normalize(), null));
+            }
+        } catch (IOException e) {
+            matches.add(new SourceFile(glob, start, format("Unable to read directory {0}", root)));
+        }
+        return matches;
+    }
+
+    static boolean isGlob(String arg) {
+        for (char c : GLOB_CHARS.toCharArray()) {
+            if (arg.indexOf(c) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<SourceFile> dedupe(List<SourceFile> files) {
+        Set<Path> seen = new HashSet<>();
+        List<SourceFile> unique = new ArrayList<>(files.size());
+        for (SourceFile file : files) {
+            if (file.error != null || seen.add(file.path)) {
+                unique.add(file);
+            }
+        }
+        return unique;
+    }
+}
@@ -0,0 +1,366 @@
+package translator;
+
+import static java.text.MessageFormat.format;
+
+import ir.PassManager;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import parser.Parser;
+
+/**
+ * An on-disk cache of generated Java, and of the class files compiled from
+ * it, so that translating or running a Judo file that hasn't changed skips
+ * the Parser and the compiler entirely.
+ *
+ * Entries are keyed by a SHA-256 hash of the Judo source, the name of the
+ * class it's translated into, the passes run over it, and the translator
+ * itself, so a new version of the translator never sees entries made by an
+ * old one. The {@code // GENERATED} line isn't stored, so the same source
+ * always makes byte-for-byte the same entry, and a fresh line is put back on
+ * the way out.
+ *
+ * Every entry is written to a temporary file first and then moved into
+ * place, so translators running at the same time, even in different
+ * processes, never see half of one. Once the cache grows past its size
+ * limit, the entries used least recently are deleted until it's back under.
+ */
+public class TranslationCache {
+
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+    private static final String JAVA = ".java";
+    private static final String CLASSES = ".classes";
+    private static final String TEMP = ".tmp";
+    private static final Map<Path, TranslationCache> OPEN = new ConcurrentHashMap<>();
+    private static volatile String translatorVersion;
+
+    private final Path dir;
+    private volatile long maxBytes;
+    private final AtomicLong size = new AtomicLong(-1);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private TranslationCache(Path dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Gets the cache in the given directory. Asking for the same directory
+     * again, like every request to the translation server does, gives the
+     * same cache, so its statistics add up, with the limit asked for last.
+     * @param dir The directory the cache lives in. Created if needed.
+     * @param maxBytes How big the cache may grow before entries are evicted.
+     * @return The cache.
+     * @throws IOException If the directory can't be created.
+     */
+    public static TranslationCache open(Path dir, long maxBytes) throws IOException {
+        Path absolute = dir.toAbsolutePath().normalize();
+        Files.createDirectories(absolute);
+        TranslationCache cache = OPEN.computeIfAbsent(
+            absolute,
+            d -> new TranslationCache(d, maxBytes)
+        );
+        cache.maxBytes = maxBytes;
+        return cache;
+    }
+
+    /**
+     * @param source The bytes of a Judo file.
+     * @param className The name of the class it's translated into.
+     * @return The key of the cache entry for that file.
+     */
+    public String key(byte[] source, String className) {
+        return key(source, className, PassManager.standard().signature());
+    }
+
+    /**
+     * Same as key(source, className), for Java generated with the given
+     * passes instead of the standard ones.
+     * @param passes The signature of the passes the Java is generated with,
+     *               from PassManager.signature().
+     */
+    public String key(byte[] source, String className, String passes) {
+        MessageDigest sha = sha256();
+        sha.update(translatorVersion().getBytes(StandardCharsets.UTF_8));
+        sha.update((byte) 0);
+        sha.update(className.getBytes(StandardCharsets.UTF_8));
+        sha.update((byte) 0);
+        sha.update(passes.getBytes(StandardCharsets.UTF_8));
+        sha.update((byte) 0);
+        sha.update(source);
+        return hex(sha.digest());
+    }
+
+    /**
+     * @param key A key from key().
+     * @return The Java generated for the entry, with a fresh GENERATED line,
+     * or null if there is none.
+     */
+    public String getJava(String key) {
+        byte[] bytes = read(entry(key, JAVA));
+        if (bytes == null) {
+            return null;
+        }
+        return Parser.generatedHeader() + new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Stores the Java generated for an entry.
+     * @param key A key from key().
+     * @param java The Java, as parseFull returned it.
+     */
+    public void putJava(String key, String java) {
+        if (java.startsWith(Parser.GENERATED_HEADER)) {
+            java = java.substring(java.indexOf('\n') + 1);
+        }
+        write(entry(key, JAVA), java.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param key A key from key().
+     * @return The class files compiled for the entry, by class name, or null
+     * if there are none.
+     */
+    public Map<String, byte[]> getClasses(String key) {
+        byte[] bytes = read(entry(key, CLASSES));
+        if (bytes == null) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            Map<String, byte[]> classes = new HashMap<>();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                byte[] classFile = new byte[in.readInt()];
+                in.readFully(classFile);
+                classes.put(name, classFile);
+            }
+            return classes;
+        } catch (IOException e) {
+            return null; //can't happen for an entry this class wrote
+        }
+    }
+
+    /**
+     * Stores the class files compiled for an entry.
+     * @param key A key from key().
+     * @param classes The class files, by class name.
+     */
+    public void putClasses(String key, Map<String, byte[]> classes) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(classes.size());
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().length);
+                out.write(entry.getValue());
+            }
+        } catch (IOException e) {
+            return; //can't happen writing to memory
+        }
+        write(entry(key, CLASSES), bytes.toByteArray());
+    }
+
+    /**
+     * @return How many lookups found an entry.
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return How many lookups didn't.
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    private Path entry(String key, String extension) {
+        return dir.resolve(key.substring(0, 2)).resolve(key + extension);
+    }
+
+    private byte[] read(Path file) {
+        try {
+            byte[] bytes = Files.readAllBytes(file);
+            hits.increment();
+            try {
+                //marks the entry as recently used
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            } catch (IOException e) {
+                //evicted in the meantime, which is fine since we already have it
+            }
+            return bytes;
+        } catch (IOException e) {
+            misses.increment();
+            return null;
+        }
+    }
+
+    private void write(Path file, byte[] bytes) {
+        try {
+            Files.createDirectories(file.getParent());
+            Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), TEMP);
+            try {
+                Files.write(temp, bytes);
+                Files.move(
+                    temp,
+                    file,
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING
+                );
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            return; //the cache is only an optimization, so failing to fill it is fine
+        }
+        if (size.get() < 0 || size.addAndGet(bytes.length) > maxBytes) {
+            evict();
+        }
+    }
+
+    /**
+     * Deletes the entries used least recently until the cache takes up at
+     * most 90% of its limit, so that it isn't evicting again right away.
+     * Other processes may be filling the same directory, so this always
+     * starts from what is actually on disk.
+     */
+    private synchronized void evict() {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(dir)) {
+            files = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+        } catch (IOException e) {
+            return;
+        }
+        List<CachedFile> entries = new ArrayList<>(files.size());
+        long total = 0;
+        for (Path file : files) {
+            try {
+                CachedFile entry = new CachedFile(file);
+                entries.add(entry);
+                total += entry.bytes;
+            } catch (IOException e) {
+                //deleted by someone else already
+            }
+        }
+        if (total > maxBytes) {
+            entries.sort((a, b) -> a.lastUsed.compareTo(b.lastUsed));
+            long target = maxBytes / 10 * 9;
+            for (CachedFile entry : entries) {
+                if (total <= target) {
+                    break;
+                }
+                try {
+                    Files.deleteIfExists(entry.path);
+                    total -= entry.bytes;
+                } catch (IOException e) {
+                    //still in use somewhere, try the next one
+                }
+            }
+        }
+        size.set(total);
+    }
+
+    /**
+     * The translator's version is a hash of its own class files, or of the jar
+     * they're in, so that any change to the translator counts as a new
+     * version without anyone having to remember to bump a number.
+     */
+    private static String translatorVersion() {
+        if (translatorVersion == null) {
+            MessageDigest sha = sha256();
+            try {
+                CodeSource code = Parser.class.getProtectionDomain().getCodeSource();
+                Path location = Paths.get(code.getLocation().toURI());
+                if (Files.isDirectory(location)) {
+                    try (Stream<Path> walk = Files.walk(location)) {
+                        List<Path> classFiles = walk
+                            .filter(p -> p.toString().endsWith(".class"))
+                            .sorted()
+                            .collect(Collectors.toList());
+                        for (Path classFile : classFiles) {
+                            sha.update(Files.readAllBytes(classFile));
+                        }
+                    }
+                } else {
+                    sha.update(Files.readAllBytes(location));
+                }
+            } catch (IOException | URISyntaxException | RuntimeException e) {
+                //nothing to hash, so entries can't be trusted past this run
+                sha.update(Long.toString(System.nanoTime()).getBytes(StandardCharsets.UTF_8));
+            }
+            translatorVersion = hex(sha.digest());
+        }
+        return translatorVersion;
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); //every JVM has SHA-256
+        }
+    }
+
+    static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A file in the cache, with what eviction needs to know about it.
+     */
+    private static class CachedFile {
+
+        final Path path;
+        final FileTime lastUsed;
+        final long bytes;
+
+        CachedFile(Path path) throws IOException {
+            this.path = path;
+            this.lastUsed = Files.getLastModifiedTime(path);
+            this.bytes = Files.size(path);
+        }
+    }
+
+    /**
+     * @return A human-readable summary of how useful the cache was.
+     */
+    @Override
+    public String toString() {
+        long hits = hits();
+        long total = hits + misses();
+        double rate = total == 0 ? 0 : 100.0 * hits / total;
+        return format(
+            "Translation cache: {0} hits, {1} misses ({2,number,0.0}% hit rate)",
+            hits,
+            misses(),
+            rate
+        );
+    }
+}
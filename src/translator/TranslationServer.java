@@ -0,0 +1,412 @@
+package translator;
+
+import static java.nio.file.attribute.PosixFilePermissions.asFileAttribute;
+import static java.nio.file.attribute.PosixFilePermissions.fromString;
+import static java.text.MessageFormat.format;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps one translator JVM running so that translating a file doesn't pay for
+ * starting a JVM, loading classes and building the grammars every time, and
+ * so that the JIT has long since warmed up on the grammars' regexes.
+ *
+ * Requests are one line each: the client's working directory, then each
+ * argument it would have passed to the translator, all separated by tabs.
+ * Everything the translator prints comes back a line at a time, prefixed with
+ * {@code out } or {@code err } depending on where it would have gone. If what
+ * it printed doesn't end with a newline, what's left comes back prefixed with
+ * {@code part out } or {@code part err } instead, to be printed without one.
+ * The reply ends with {@code exit } and the exit code it would have exited
+ * with.
+ *
+ * Whenever a program run with --run wants more of its stdin, the server sends
+ * {@code in} on a line of its own, and the client sends what it has of its
+ * own stdin: each line prefixed with {@code in }, what's left at the end
+ * without a newline prefixed with {@code part }, and then {@code more}, or
+ * {@code eof} once its stdin ended. Input is only asked for when it's read,
+ * so a client whose program never reads any never has to have it.
+ * A request of just {@code --shutdown} stops the server.
+ *
+ * Requests can come over a socket on the loopback interface, where every
+ * connection is served on its own thread, or over stdin, one after another.
+ * A connection has to start with a line holding a token only the user who
+ * started the server can read, since otherwise any local user could have it
+ * write files or run code as them.
+ */
+public class TranslationServer {
+
+    public static final int DEFAULT_PORT = 4372;
+    public static final String SHUTDOWN = "--shutdown";
+
+    /**
+     * What the server does for every request, which is Translator.run.
+     */
+    public interface Command {
+        int run(String[] args, Path cwd, InputStream in, PrintStream out, PrintStream err);
+    }
+
+    private final Command command;
+    private volatile ServerSocket socket;
+
+    public TranslationServer(Command command) {
+        this.command = command;
+    }
+
+    /**
+     * Serves requests on the given port of the loopback interface until one
+     * of them asks for a shutdown, to clients that know the token in
+     * {@link #tokenFile}.
+     * @param port The port to listen on.
+     * @throws IOException If the port can't be listened on.
+     */
+    public void listen(int port) throws IOException {
+        listen(port, tokenFile(port));
+    }
+
+    /**
+     * Serves requests on the given port of the loopback interface until one
+     * of them asks for a shutdown. Any local user can connect to the port,
+     * so only clients that start by sending the token written to the given
+     * file, which only this user can read, are served.
+     * @param port The port to listen on.
+     * @param tokenFile Where to write the token, until the server stops.
+     * @throws IOException If the port can't be listened on, or the token
+     * can't be written.
+     */
+    public void listen(int port, Path tokenFile) throws IOException {
+        ExecutorService clients = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "judo-client");
+            t.setDaemon(true);
+            return t;
+        });
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            socket = server;
+            byte[] token = writeToken(tokenFile);
+            System.err.println(
+                format(
+                    "Translation server listening on {0}:{1,number,#}",
+                    server.getInetAddress().getHostAddress(),
+                    server.getLocalPort()
+                )
+            );
+            while (true) {
+                Socket client;
+                try {
+                    client = server.accept();
+                } catch (SocketException e) {
+                    break; //closed by a shutdown request
+                }
+                clients.execute(() -> {
+                    try (Socket c = client) {
+                        BufferedReader reader = reader(c.getInputStream());
+                        Writer writer = writer(c.getOutputStream());
+                        String sent = reader.readLine();
+                        byte[] sentToken = sent == null
+                            ? new byte[0]
+                            : sent.getBytes(StandardCharsets.UTF_8);
+                        if (MessageDigest.isEqual(token, sentToken)) {
+                            serve(reader, writer);
+                        } else {
+                            writer.write("err Expected the token in " + tokenFile + " first\n");
+                            writer.write("exit 1\n");
+                            writer.flush();
+                        }
+                    } catch (IOException e) {
+                        //the client went away, nothing to tell it
+                    }
+                });
+            }
+        } finally {
+            clients.shutdownNow();
+            Files.deleteIfExists(tokenFile);
+        }
+    }
+
+    /**
+     * @param port The port a server listens on.
+     * @return Where the server writes the token clients have to send it,
+     * which judotc reads from the same place.
+     */
+    public static Path tokenFile(int port) {
+        return Paths.get(System.getProperty("user.home"), ".cache", "judo", "server-" + port);
+    }
+
+    /**
+     * Writes a new random token to the given file, which only this user can
+     * read where the file system has permissions. It's written to another
+     * file first and moved into place, so a client never reads half of it.
+     * @return The token.
+     */
+    private static byte[] writeToken(Path file) throws IOException {
+        byte[] random = new byte[32];
+        new SecureRandom().nextBytes(random);
+        StringBuilder token = new StringBuilder();
+        for (byte b : random) {
+            token.append(String.format("%02x", b));
+        }
+        boolean posix = file.getFileSystem().supportedFileAttributeViews().contains("posix");
+        Path parent = file.toAbsolutePath().getParent();
+        Path written = parent.resolve(file.getFileName() + ".new");
+        if (posix) {
+            Files.createDirectories(parent, asFileAttribute(fromString("rwx------")));
+        } else {
+            Files.createDirectories(parent);
+        }
+        Files.deleteIfExists(written);
+        Set<StandardOpenOption> options = EnumSet.of(
+            StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.WRITE
+        );
+        FileAttribute<?>[] attributes = posix
+            ? new FileAttribute<?>[] { asFileAttribute(fromString("rw-------")) }
+            : new FileAttribute<?>[0];
+        try (SeekableByteChannel channel = Files.newByteChannel(written, options, attributes)) {
+            channel.write(ByteBuffer.wrap(token.toString().getBytes(StandardCharsets.UTF_8)));
+        }
+        Files.move(
+            written,
+            file,
+            StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING
+        );
+        return token.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Serves requests from the given stream, one at a time, until it ends or
+     * one of them asks for a shutdown.
+     * @param in Where requests come from.
+     * @param out Where replies go.
+     * @throws IOException If a reply can't be written.
+     */
+    public void serve(InputStream in, OutputStream out) throws IOException {
+        serve(reader(in), writer(out));
+    }
+
+    private void serve(BufferedReader reader, Writer writer) throws IOException {
+        String request;
+        while ((request = reader.readLine()) != null) {
+            if (!handle(request, reader, writer)) {
+                break;
+            }
+        }
+    }
+
+    private static BufferedReader reader(InputStream in) {
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    private static Writer writer(OutputStream out) {
+        return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Runs one request and writes its reply.
+     * @param request The request line.
+     * @param reader Where the request came from, and its input comes from.
+     * @param writer Where the reply goes.
+     * @return Whether to keep serving.
+     * @throws IOException If the reply can't be written.
+     */
+    private boolean handle(String request, BufferedReader reader, Writer writer)
+        throws IOException {
+        String[] parts = request.split("\t", -1);
+        String[] args = Arrays.copyOfRange(parts, 1, parts.length);
+        if (args.length == 1 && args[0].equals(SHUTDOWN)) {
+            writer.write("exit 0\n");
+            writer.flush();
+            ServerSocket server = socket;
+            if (server != null) {
+                server.close();
+            }
+            return false;
+        }
+        PrintStream out = replyStream("out", writer);
+        PrintStream err = replyStream("err", writer);
+        int code;
+        Path cwd = FileSystems.getDefault().getPath(parts[0]);
+        if (!cwd.isAbsolute()) {
+            err.println("Expected an absolute working directory, not " + parts[0]);
+            code = 1;
+        } else {
+            try {
+                code = command.run(args, cwd, new ReplyInput(reader, writer), out, err);
+            } catch (RuntimeException | StackOverflowError e) {
+                //a bug in the translator shouldn't take the server down with it
+                err.println("Exception: " + e.toString().trim());
+                code = 1;
+            }
+        }
+        out.close();
+        err.close();
+        synchronized (writer) {
+            writer.write("exit " + code + "\n");
+            writer.flush();
+        }
+        return true;
+    }
+
+    private static PrintStream replyStream(String prefix, Writer writer) {
+        try {
+            return new PrintStream(new ReplyOutput(prefix, writer), true, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e); //every JVM has UTF-8
+        }
+    }
+
+    /**
+     * Asks the client for more of its stdin whenever everything it sent
+     * before has been read.
+     */
+    private static class ReplyInput extends InputStream {
+
+        private final BufferedReader reader;
+        private final Writer writer;
+        private byte[] bytes = new byte[0];
+        private int position;
+        private boolean ended;
+
+        ReplyInput(BufferedReader reader, Writer writer) {
+            this.reader = reader;
+            this.writer = writer;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return fill() ? bytes[position++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            } else if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, bytes.length - position);
+            System.arraycopy(bytes, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        /**
+         * @return Whether there's anything left to read, once the client has
+         * sent more if it had to.
+         */
+        private boolean fill() throws IOException {
+            while (position == bytes.length) {
+                if (ended) {
+                    return false;
+                }
+                synchronized (writer) {
+                    writer.write("in\n");
+                    writer.flush();
+                }
+                ByteArrayOutputStream sent = new ByteArrayOutputStream();
+                String line;
+                while (!"more".equals(line = reader.readLine())) {
+                    if (line == null || line.equals("eof")) {
+                        ended = true;
+                        break;
+                    } else if (line.startsWith("in ")) {
+                        sent.write((line.substring(3) + "\n").getBytes(StandardCharsets.UTF_8));
+                    } else if (line.startsWith("part ")) {
+                        sent.write(line.substring(5).getBytes(StandardCharsets.UTF_8));
+                    } else {
+                        throw new IOException("Expected stdin from the client, not " + line);
+                    }
+                }
+                bytes = sent.toByteArray();
+                position = 0;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Turns everything written to it into reply lines with the given prefix.
+     * Partial lines are held back until they're finished, or sent as a part
+     * once it's closed.
+     */
+    private static class ReplyOutput extends OutputStream {
+
+        private final String prefix;
+        private final Writer writer;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        ReplyOutput(String prefix, Writer writer) {
+            this.prefix = prefix;
+            this.writer = writer;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (b == '\n') {
+                writeLine("");
+            } else {
+                line.write(b);
+            }
+        }
+
+        /**
+         * Sends whatever is left of the last line. Flushing doesn't, since
+         * PrintStream flushes partway through lines all the time.
+         */
+        @Override
+        public void close() throws IOException {
+            if (line.size() > 0) {
+                writeLine("part ");
+            }
+        }
+
+        private void writeLine(String kind) throws IOException {
+            byte[] bytes = line.toByteArray();
+            int length = bytes.length;
+            //println ends lines with \r\n on Windows, and records end with \n alone
+            if (kind.isEmpty() && length > 0 && bytes[length - 1] == '\r') {
+                length--;
+            }
+            synchronized (writer) {
+                writer.write(kind);
+                writer.write(prefix);
+                writer.write(' ');
+                writer.write(new String(bytes, 0, length, StandardCharsets.UTF_8));
+                writer.write('\n');
+                writer.flush();
+            }
+            line.reset();
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package translator;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+import static java.text.MessageFormat.format;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Watches Judo files, and the directories, globs and file lists they came
+ * from, and hands every file that changes to an action, which translates it
+ * again. Since this all happens in one JVM, the grammars stay warm between
+ * changes, and so does the translation cache if there is one.
+ *
+ * Editors tend to write a file several times when saving it, so changes are
+ * only acted on once nothing has changed for a little while, and every file
+ * that changed in the meantime is acted on once.
+ *
+ * A file is acted on when any module it imports changes too, even when the
+ * module itself isn't one of the files being watched, and when a file list
+ * that changes names it for the first time.
+ */
+public class Watcher {
+
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 100;
+
+    private final List<String> inputs;
+    private final Path cwd;
+    private final long debounceMillis;
+    private final Map<WatchKey, Path> keys = new HashMap<>();
+    private final Set<Path> recursive = new HashSet<>();
+
+    /**
+     * @param inputs What to watch, in any form SourceFile.expand takes.
+     * @param cwd The directory relative paths are resolved against.
+     * @param debounceMillis How long nothing has to change for before
+     *                       changes are acted on.
+     */
+    public Watcher(List<String> inputs, Path cwd, long debounceMillis) {
+        this.inputs = inputs;
+        this.cwd = cwd;
+        this.debounceMillis = debounceMillis;
+    }
+
+    /**
+     * Acts on every file once, then on every file that changes, until the
+     * thread is interrupted. How long each one took is printed after it.
+     * @param action What to do with a file. Returns the exit code translating
+     *               it from the command line would have had.
+     * @param status Where to print what is going on.
+     * @throws IOException If the files can't be watched.
+     */
+    public void watch(ToIntFunction<SourceFile> action, PrintStream status) throws IOException {
+        try (WatchService service = cwd.getFileSystem().newWatchService()) {
+            List<SourceFile> files = SourceFile.expand(inputs, cwd);
+            register(service);
+            registerDependencies(service, files);
+            status.println(
+                format(
+                    "Watching {0} file(s) for changes. Press Ctrl-C to stop.",
+                    files.size()
+                )
+            );
+            for (SourceFile file : files) {
+                act(file, action, status);
+            }
+            while (true) {
+                Set<Path> changed = awaitChanges(service);
+                Set<Path> before = new HashSet<>();
+                for (SourceFile file : files) {
+                    before.add(file.path);
+                }
+                files = SourceFile.expand(inputs, cwd);
+                boolean listChanged = changed.stream().anyMatch(lists()::contains);
+                if (listChanged) {
+                    //it may name files in directories that aren't watched yet
+                    register(service);
+                }
+                for (SourceFile file : files) {
+                    boolean added = listChanged && !before.contains(file.path);
+                    if (file.error == null && (added || dependsOn(file, changed))) {
+                        act(file, action, status);
+                    }
+                }
+                //an import may have been added
+                registerDependencies(service, files);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static boolean dependsOn(SourceFile file, Set<Path> changed) {
+        if (changed.contains(file.path)) {
+            return true;
+        }
+        for (Path dependency : ModuleGraph.dependencies(file.path)) {
+            if (changed.contains(dependency)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void act(SourceFile file, ToIntFunction<SourceFile> action, PrintStream status) {
+        long start = System.nanoTime();
+        int exit = action.applyAsInt(file);
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        status.println(
+            format(
+                "-- {0} {1} in {2,number,#} ms",
+                file.name,
+                exit == 0 ? "done" : "failed",
+                millis
+            )
+        );
+    }
+
+    /**
+     * Waits for something to change, then for nothing to change for the
+     * debounce period.
+     * @return Every file that changed.
+     */
+    private Set<Path> awaitChanges(WatchService service) throws InterruptedException {
+        Set<Path> changed = new HashSet<>();
+        WatchKey key = service.take();
+        while (key != null) {
+            Path dir = keys.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW || dir == null) {
+                    continue;
+                }
+                Path path = dir.resolve((Path) event.context()).normalize();
+                changed.add(path);
+                if (
+                    event.kind() == ENTRY_CREATE &&
+                    recursive.contains(dir) &&
+                    Files.isDirectory(path)
+                ) {
+                    //files can land in it before it's watched
+                    changed.addAll(registerAll(service, path));
+                }
+            }
+            if (!key.reset()) {
+                keys.remove(key);
+            }
+            key = service.poll(debounceMillis, TimeUnit.MILLISECONDS);
+        }
+        return changed;
+    }
+
+    /**
+     * @return Every file list being watched.
+     */
+    private Set<Path> lists() {
+        Set<Path> lists = new HashSet<>();
+        for (String arg : inputs) {
+            if (arg.startsWith("@")) {
+                lists.add(cwd.resolve(arg.substring(1)).normalize());
+            }
+        }
+        return lists;
+    }
+
+    /**
+     * Watches the directory of every file named directly, and everything
+     * under every directory and glob. A file list is read to find out what
+     * it names, and its own directory is watched too.
+     */
+    private void register(WatchService service) throws IOException {
+        List<String> args = new ArrayList<>();
+        for (String arg : inputs) {
+            if (arg.startsWith("@")) {
+                Path list = cwd.resolve(arg.substring(1)).normalize();
+                registerOne(service, list.getParent());
+                if (Files.isRegularFile(list)) {
+                    for (String line : Files.readAllLines(list)) {
+                        line = line.trim();
+                        if (!line.isEmpty() && !line.startsWith("#")) {
+                            args.add(line);
+                        }
+                    }
+                }
+            } else {
+                args.add(arg);
+            }
+        }
+        for (String arg : args) {
+            Path path = cwd.resolve(arg).normalize();
+            if (SourceFile.isGlob(arg)) {
+                path = cwd.resolve(SourceFile.globBase(arg, cwd)).normalize();
+            }
+            if (Files.isDirectory(path)) {
+                registerAll(service, path);
+            } else if (path.getParent() != null && Files.isDirectory(path.getParent())) {
+                registerOne(service, path.getParent());
+            }
+        }
+    }
+
+    /**
+     * Watches the directory of every module the given files import.
+     */
+    private void registerDependencies(WatchService service, List<SourceFile> files) {
+        for (SourceFile file : files) {
+            if (file.error == null) {
+                for (Path dependency : ModuleGraph.dependencies(file.path)) {
+                    registerOne(service, dependency.getParent());
+                }
+            }
+        }
+    }
+
+    /**
+     * Watches the given directory and every directory under it.
+     * @return Every file found under it.
+     */
+    private List<Path> registerAll(WatchService service, Path dir) {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(dir)) {
+            for (Path path : walk.collect(Collectors.toList())) {
+                if (Files.isDirectory(path)) {
+                    registerOne(service, path);
+                    recursive.add(path);
+                } else {
+                    files.add(path.normalize());
+                }
+            }
+        } catch (IOException e) {
+            //gone already, so there's nothing in it to watch
+        }
+        return files;
+    }
+
+    private void registerOne(WatchService service, Path dir) {
+        if (keys.containsValue(dir)) {
+            return;
+        }
+        try {
+            keys.put(dir.register(service, ENTRY_CREATE, ENTRY_MODIFY), dir);
+        } catch (IOException e) {
+            //gone already, so there's nothing in it to watch
+        }
+    }
+}